@@ -30,6 +30,12 @@ public interface QuotaService {
 
 	void incrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler);
 
+	/**
+	 * Increments the storage of all the users with one update.
+	 * Replies the new storage of each user ({id, storage, notify}), notify is true for the users crossing the threshold.
+	 */
+	void incrementStorage(JsonArray userIds, Long size, int threshold, Handler<Either<String, JsonArray>> handler);
+
 	void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler);
 
 	void quotaAndUsage(String userId, Handler<Either<String, JsonObject>> handler);
@@ -1,7 +1,12 @@
 package org.entcore.common.folders.impl;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.entcore.common.folders.FolderManager;
@@ -134,15 +139,24 @@ class InheritShareComputer {
 		return this.query.findById(id).compose(root -> this.compute(root, recursive));
 	}
 
-	private void mergeRecursive(JsonObject parent, List<JsonObject> all) {
-		String parentId = DocumentHelper.getId(parent);
+	private void mergeRecursive(JsonObject root, List<JsonObject> all) {
+		Map<String, List<JsonObject>> childrenByParent = new HashMap<>();
 		for (JsonObject current : all) {
 			String eParent = DocumentHelper.getParent(current);
-			if (parentId != null && parentId.equals(eParent)) {
+			if (eParent != null) {
+				childrenByParent.computeIfAbsent(eParent, k -> new ArrayList<>()).add(current);
+			}
+		}
+		// walk the tree from the root, parents are merged before their children
+		Deque<JsonObject> parents = new ArrayDeque<>();
+		parents.add(root);
+		while (!parents.isEmpty()) {
+			JsonObject parent = parents.poll();
+			for (JsonObject current : childrenByParent.getOrDefault(DocumentHelper.getId(parent),
+					Collections.emptyList())) {
 				// reset shared of child if parent is not shared
 				mergeShared(parent, current, true);
-				// recurse after updating shared
-				mergeRecursive(current, all);
+				parents.add(current);
 			}
 		}
 	}
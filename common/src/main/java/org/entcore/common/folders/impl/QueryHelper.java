@@ -3,7 +3,9 @@ package org.entcore.common.folders.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -14,6 +16,7 @@ import java.util.stream.Collectors;
 import org.entcore.common.folders.ElementQuery;
 import org.entcore.common.folders.ElementQuery.ElementSort;
 import org.entcore.common.folders.impl.InheritShareComputer.InheritShareResult;
+import org.entcore.common.mongodb.MongoCursor;
 import org.entcore.common.service.impl.MongoDbSearchService;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.utils.StringUtils;
@@ -22,17 +25,16 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
 
-import fr.wseduc.mongodb.AggregationsBuilder;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.mongodb.MongoQueryBuilder;
 import fr.wseduc.mongodb.MongoUpdateBuilder;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 class QueryHelper {
-	final static long MAX_DEPTH = 10;
 	protected final MongoDb mongo = MongoDb.getInstance();
 	private final String collection;
 
@@ -40,6 +42,10 @@ class QueryHelper {
 		this.collection = collection;
 	}
 
+	private MongoCursor cursor() {
+		return new MongoCursor(mongo, collection, MongoCursor.DEFAULT_BATCH_SIZE);
+	}
+
 	static JsonObject toJson(QueryBuilder queryBuilder) {
 		return MongoQueryBuilder.build(queryBuilder);
 	}
@@ -382,6 +388,11 @@ class QueryHelper {
 			return this;
 		}
 
+		public DocumentQueryBuilder withAncestors(Collection<String> ids) {
+			builder.and(QueryBuilder.start("ancestors").in(ids).get());
+			return this;
+		}
+
 		public DocumentQueryBuilder withId(String id) {
 			builder.and("_id").is(id);
 			return this;
@@ -446,74 +457,33 @@ class QueryHelper {
 		return new DocumentQueryBuilder();
 	}
 
-	Future<List<String>> getChildrenIdsRecursively(DocumentQueryBuilder parentFilter,
-			Optional<DocumentQueryBuilder> queryChildren, boolean includeParents) {
-		JsonObject projection = new JsonObject().put("_id", 1).put("children", "$children._id");
-		@SuppressWarnings("unchecked")
-		Optional<JsonObject> query = queryChildren.map(q -> new JsonObject(q.build().get().toMap()));
-		AggregationsBuilder agg = AggregationsBuilder.startWithCollection(this.collection)//
-				.withMatch(parentFilter.build())//
-				.withGraphLookup("$_id", "_id", "eParent", "children", Optional.of(MAX_DEPTH), Optional.empty(), query)//
-				.withProjection(projection);
-		JsonObject command = agg.getCommand();
-		Future<List<String>> future = Future.future();
-		mongo.aggregate(command, message -> {
-			JsonObject body = message.body();
-			if (isOk(body)) {
-				JsonArray results = (body.getJsonObject("result", new JsonObject())
-						.getJsonObject("cursor", new JsonObject()).getJsonArray("firstBatch"));
-				List<String> returned = new ArrayList<>();
-				for (int i = 0; i < results.size(); i++) {
-					JsonObject result = results.getJsonObject(i);
-					if (includeParents) {
-						returned.add(result.getString("_id"));
-					}
-					JsonArray children = result.getJsonArray("children", new JsonArray());
-					for (int j = 0; j < children.size(); j++) {
-						String child = children.getString(j);
-						returned.add(child);
-					}
-				}
-				future.complete(returned);
-			} else {
-				future.fail(toErrorStr(body));
-			}
-		});
-		return future;
-	}
-
 	Future<List<JsonObject>> getChildrenRecursively(DocumentQueryBuilder parentFilter,
 			Optional<DocumentQueryBuilder> queryChildren, boolean includeParents) {
-		// impossible de charger les objets sous forme d arbre => stackoverflow ->
-		// charger ids
-		return this.getChildrenIdsRecursively(parentFilter, queryChildren, includeParents).compose(ids -> {
-			if (ids.isEmpty()) {
-				return Future.succeededFuture(new ArrayList<>());
-			} else {
-				return this.findAllAsList(queryBuilder().withId(ids));
-			}
+		// descendants are found using the materialized ancestors of each document
+		// documents are streamed into the returned list, parents are only kept when they are returned
+		List<JsonObject> returned = new ArrayList<>();
+		Set<String> parentIds = new HashSet<>();
+		return this.forEach(parentFilter, parent -> {
+			parentIds.add(DocumentHelper.getId(parent));
+			if (includeParents) {
+				returned.add(parent);
+			}
+		}).compose(v -> {
+			if (parentIds.isEmpty()) {
+				return Future.succeededFuture(returned);
+			}
+			DocumentQueryBuilder children = queryChildren.orElseGet(this::queryBuilder).withAncestors(parentIds);
+			return this.forEach(children, row -> {
+				// a parent can also be a descendant of another parent => avoid duplicate
+				if (!includeParents || !parentIds.contains(DocumentHelper.getId(row))) {
+					returned.add(row);
+				}
+			}).map(e -> returned);
 		});
 	}
 
 	Future<JsonArray> listWithParents(DocumentQueryBuilder query) {
-
-		Future<JsonArray> future = Future.future();
-		// match all (folders and file)
-		QueryBuilder match = query.build();
-		// first : match only folder regarding criterias
-		AggregationsBuilder agg = AggregationsBuilder.startWithCollection(this.collection);
-		agg = agg.withMatch(match)
-				// then build the graph from root folder
-				.withGraphLookup("$eParent", "eParent", "_id", "tree", Optional.of(MAX_DEPTH), Optional.empty(),
-						Optional.empty());
-		if (query.isExcludeDeleted()) {
-			// exclude deleted files => graphlookup reintroduce deleted children
-			agg = agg.withMatch(queryBuilder().withExcludeDeleted().build());
-		}
-		if (query.isOnlyDeleted()) {
-			agg = agg.withMatch(queryBuilder().withOnlyDeleted().build());
-		}
-		// finally project name and parent
+		// parents are the materialized ancestors
 		JsonObject projections = new JsonObject();
 		if (query.mongoProjections != null) {
 			projections = query.mongoProjections;
@@ -522,31 +492,19 @@ class QueryHelper {
 				projections.put(p, 1);
 			}
 		}
-		projections.put("parents", "$tree._id");
-		agg.withProjection(projections);
-		// sort
-		if (query.mongoSorts != null) {
-			agg.withSort(query.mongoSorts);
-		}
-		// skip and limit
-		if (query.skip != null) {
-			agg.withSkip(query.skip);
-		}
-		if (query.limit != null) {
-			agg.withLimit(query.limit);
-		}
-		//
-		JsonObject command = agg.getCommand();
-		mongo.aggregate(command, message -> {
-			JsonObject body = message.body();
-			if (isOk(body)) {
-				future.complete(body.getJsonObject("result", new JsonObject()).getJsonObject("cursor", new JsonObject())
-						.getJsonArray("firstBatch", new JsonArray()));
-			} else {
-				future.fail(toErrorStr(body));
+		boolean withAncestors = projections.containsKey("ancestors");
+		projections.put("ancestors", 1);
+		query.mongoProjections = projections;
+		return findAll(query).map(results -> {
+			for (Object o : results) {
+				JsonObject doc = (JsonObject) o;
+				doc.put("parents", DocumentHelper.getAncestors(doc));
+				if (!withAncestors) {
+					doc.remove("ancestors");
+				}
 			}
+			return results;
 		});
-		return future;
 	}
 
 	Future<JsonObject> findById(String id) {
@@ -576,7 +534,8 @@ class QueryHelper {
 	}
 
 	Future<List<JsonObject>> findAllAsList(DocumentQueryBuilder query) {
-		return findAll(query).map(s -> s.stream().map(o -> (JsonObject) o).collect(Collectors.toList()));
+		List<JsonObject> results = new ArrayList<>();
+		return forEach(query, results::add).map(v -> results);
 	}
 
 	Future<Integer> countAll(DocumentQueryBuilder query) {
@@ -595,36 +554,40 @@ class QueryHelper {
 		return future;
 	}
 
+	/**
+	 * Buffers all the matching documents: callers that only need a part of each document should use
+	 * {@link #forEach(DocumentQueryBuilder, Handler)} instead.
+	 */
 	Future<JsonArray> findAll(DocumentQueryBuilder query) {
-		Future<JsonArray> future = Future.future();
+		JsonArray results = new JsonArray();
+		return forEach(query, results::add).map(v -> results);
+	}
+
+	/**
+	 * Streams the matching documents to the handler, one cursor batch at a time.
+	 */
+	Future<Void> forEach(DocumentQueryBuilder query, Handler<JsonObject> handler) {
+		JsonObject command = new JsonObject().put("find", collection).put("filter", toJson(query.build()));
 		// finally project name and parent
-		JsonObject projections = null;
 		if (query.mongoProjections != null) {
-			projections = query.mongoProjections;
+			command.put("projection", query.mongoProjections);
 		}
 		// sort
-		JsonObject mongoSorts = null;
 		if (query.mongoSorts != null) {
-			mongoSorts = (query.mongoSorts);
+			command.put("sort", query.mongoSorts);
 		}
 		// limit skip
-		Integer limit = -1, skip = -1;
-		if (query.limit != null) {
-			limit = query.limit;
+		if (query.limit != null && query.limit > 0) {
+			command.put("limit", query.limit);
 		}
-		if (query.skip != null) {
-			skip = query.skip;
+		if (query.skip != null && query.skip > 0) {
+			command.put("skip", query.skip);
 		}
-		JsonObject queries = toJson(query.build());
-		mongo.find(collection, queries, mongoSorts, projections, skip, limit, Integer.MAX_VALUE, message -> {
-			JsonObject body = message.body();
-			if (isOk(body)) {
-				future.complete(body.getJsonArray("results"));
-			} else {
-				future.fail(toErrorStr(body));
+		return cursor().read(command, batch -> {
+			for (Object o : batch) {
+				handler.handle((JsonObject) o);
 			}
 		});
-		return future;
 	}
 
 	Future<JsonObject> insert(JsonObject file) {
@@ -709,12 +672,15 @@ class QueryHelper {
 	}
 
 	Future<Void> updateAll(Set<String> id, MongoUpdateBuilder set) {
-		Future<Void> future = Future.future();
 		String now = MongoDb.formatDate(new Date());
 		set.set("modified", now);
 		JsonObject query = toJson(QueryBuilder.start("_id").in(id));
-		JsonObject setJson = set.build();
-		mongo.update(collection, query, setJson, false, true, message -> {
+		return updateMany(query, set.build());
+	}
+
+	private Future<Void> updateMany(JsonObject query, JsonObject update) {
+		Future<Void> future = Future.future();
+		mongo.update(collection, query, update, false, true, message -> {
 			JsonObject body = message.body();
 			if (isOk(body)) {
 				future.complete(null);
@@ -766,6 +732,63 @@ class QueryHelper {
 		return future;
 	}
 
+	/**
+	 * Replaces the old ancestors of the root by the new ones, on the root and all its descendants.
+	 */
+	Future<Void> updateAncestors(String rootId, JsonArray oldAncestors, JsonArray newAncestors) {
+		JsonObject subtree = toJson(new QueryBuilder().or(QueryBuilder.start("_id").is(rootId).get(),
+				QueryBuilder.start("ancestors").is(rootId).get()));
+		Future<Void> pulled = Future.succeededFuture();
+		if (!oldAncestors.isEmpty()) {
+			pulled = updateMany(subtree,
+					new JsonObject().put("$pullAll", new JsonObject().put("ancestors", oldAncestors)));
+		}
+		return pulled.compose(v -> {
+			if (newAncestors.isEmpty()) {
+				return Future.succeededFuture();
+			}
+			return updateMany(subtree, new JsonObject().put("$push", new JsonObject().put("ancestors",
+					new JsonObject().put("$each", newAncestors).put("$position", 0))));
+		});
+	}
+
+	/**
+	 * Sets the ancestors of documents attached back to their old parent and of their descendants.
+	 * Documents are updated one after another, parents first, as a parent can also be reattached.
+	 */
+	private Future<Void> relinkAncestors(Collection<JsonObject> docs) {
+		if (docs.isEmpty()) {
+			return Future.succeededFuture();
+		}
+		Set<String> parentIds = docs.stream().map(o -> DocumentHelper.getParentOld(o)).collect(Collectors.toSet());
+		Map<String, JsonArray> ancestorsById = new HashMap<>();
+		return forEach(queryBuilder().withId(parentIds).withProjection("ancestors"), parent -> {
+			ancestorsById.put(DocumentHelper.getId(parent), DocumentHelper.getAncestors(parent));
+		}).compose(found -> {
+			Future<Void> future = Future.succeededFuture();
+			List<JsonObject> pending = new ArrayList<>(docs);
+			boolean progress = true;
+			while (!pending.isEmpty() && progress) {
+				progress = false;
+				for (Iterator<JsonObject> it = pending.iterator(); it.hasNext();) {
+					JsonObject doc = it.next();
+					String parentId = DocumentHelper.getParentOld(doc);
+					if (!ancestorsById.containsKey(parentId) || pending.stream()
+							.anyMatch(o -> parentId.equals(DocumentHelper.getId(o)))) {
+						continue;
+					}
+					JsonArray ancestors = ancestorsById.get(parentId).copy().add(parentId);
+					ancestorsById.put(DocumentHelper.getId(doc), ancestors);
+					future = future.compose(
+							v -> updateAncestors(DocumentHelper.getId(doc), DocumentHelper.getAncestors(doc), ancestors));
+					it.remove();
+					progress = true;
+				}
+			}
+			return future;
+		});
+	}
+
 	Future<Void> deleteByIds(Set<String> ids) {
 		if (ids.isEmpty()) {
 			return Future.succeededFuture();
@@ -786,9 +809,8 @@ class QueryHelper {
 	}
 
 	private Future<Void> restoreParentsMatching(Collection<JsonObject> docs, DocumentQueryBuilder query) {
-		return findAllAsList(query).compose(parentDocsOk -> {
-			Set<String> parentIdsOk = parentDocsOk.stream().map(o -> DocumentHelper.getId(o))
-					.collect(Collectors.toSet());
+		Set<String> parentIdsOk = new HashSet<>();
+		return forEach(query, parent -> parentIdsOk.add(DocumentHelper.getId(parent))).compose(v -> {
 			Set<String> treeIds = docs.stream().map(o -> DocumentHelper.getId(o)).collect(Collectors.toSet());
 			Set<String> idsToRename = new HashSet<>();
 			Set<String> idsToRemoveParent = new HashSet<>();
@@ -810,7 +832,9 @@ class QueryHelper {
 					new MongoUpdateBuilder().rename("eParentOld", "eParent"));
 			Future<Void> futureRemove = updateAll(idsToRemoveParent,
 					new MongoUpdateBuilder().unset("eParentOld").unset("eParent"));
-			return CompositeFuture.all(futureRename, futureRemove).mapEmpty();
+			List<JsonObject> renamed = docs.stream().filter(o -> idsToRename.contains(DocumentHelper.getId(o)))
+					.collect(Collectors.toList());
+			return CompositeFuture.all(futureRename, futureRemove).compose(e -> relinkAncestors(renamed));
 		});
 	}
 
@@ -818,7 +842,18 @@ class QueryHelper {
 		if (ids.isEmpty()) {
 			return Future.succeededFuture();
 		}
-		return updateAll(ids, new MongoUpdateBuilder().rename("eParent", "eParentOld"));
+		// detached roots and their descendants lose the ancestors above the roots
+		Map<String, JsonArray> ancestorsById = new HashMap<>();
+		return forEach(queryBuilder().withId(ids).withProjection("ancestors"), root -> {
+			ancestorsById.put(DocumentHelper.getId(root), DocumentHelper.getAncestors(root));
+		}).compose(v -> {
+			return updateAll(ids, new MongoUpdateBuilder().rename("eParent", "eParentOld")).compose(e -> {
+				@SuppressWarnings("rawtypes")
+				List<Future> futures = ancestorsById.entrySet().stream().map(root -> updateAncestors(root.getKey(),
+						root.getValue(), new JsonArray())).collect(Collectors.toList());
+				return CompositeFuture.all(futures).mapEmpty();
+			});
+		});
 	}
 
 	public Future<Void> restoreParentLink(RestoreParentDirection dir, Collection<JsonObject> all) {
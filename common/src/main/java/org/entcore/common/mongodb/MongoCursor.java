@@ -0,0 +1,103 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.mongodb;
+
+import java.util.function.Function;
+
+import fr.wseduc.mongodb.MongoDb;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Reads all the batches of a cursor returned by an aggregate or find command, by sending getMore
+ * commands until the cursor is exhausted. Each batch is given to the handler and not retained.
+ */
+public class MongoCursor {
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	private final Function<JsonObject, Future<JsonObject>> runCommand;
+	private final String collection;
+	private final int batchSize;
+
+	/**
+	 * @param runCommand sends a command and returns its result
+	 */
+	MongoCursor(Function<JsonObject, Future<JsonObject>> runCommand, String collection, int batchSize) {
+		this.runCommand = runCommand;
+		this.collection = collection;
+		this.batchSize = batchSize;
+	}
+
+	public MongoCursor(MongoDb mongo, String collection, int batchSize) {
+		this(command -> runCommand(mongo, command), collection, batchSize);
+	}
+
+	private static Future<JsonObject> runCommand(MongoDb mongo, JsonObject command) {
+		Future<JsonObject> future = Future.future();
+		mongo.command(command.encode(), message -> {
+			JsonObject body = message.body();
+			JsonObject result = body.getJsonObject("result", new JsonObject());
+			if ("ok".equals(body.getString("status")) && result.getValue("ok") instanceof Number
+					&& ((Number) result.getValue("ok")).intValue() == 1) {
+				future.complete(result);
+			} else {
+				future.fail(result.getString("errmsg",
+						body.getString("error", body.getString("message", "mongo cursor error"))));
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @param command an aggregate or find command, its batch size is replaced
+	 * @param batchHandler called with each batch in order
+	 */
+	public Future<Void> read(JsonObject command, Handler<JsonArray> batchHandler) {
+		if (command.containsKey("aggregate")) {
+			command.put("cursor", new JsonObject().put("batchSize", batchSize));
+		} else {
+			command.put("batchSize", batchSize);
+		}
+		return runCommand.apply(command).compose(result -> next(result, "firstBatch", batchHandler));
+	}
+
+	private Future<Void> next(JsonObject result, String batchField, Handler<JsonArray> batchHandler) {
+		JsonObject cursor = result.getJsonObject("cursor", new JsonObject());
+		batchHandler.handle(cursor.getJsonArray(batchField, new JsonArray()));
+		Object cursorId = cursor.getValue("id");
+		if (isExhausted(cursorId)) {
+			return Future.succeededFuture();
+		}
+		JsonObject getMore = new JsonObject().put("getMore", cursorId).put("collection", collection)
+				.put("batchSize", batchSize);
+		return runCommand.apply(getMore).compose(more -> next(more, "nextBatch", batchHandler));
+	}
+
+	static boolean isExhausted(Object cursorId) {
+		if (cursorId instanceof Number) {
+			return ((Number) cursorId).longValue() == 0;
+		}
+		if (cursorId instanceof JsonObject) {
+			// extended json long
+			return "0".equals(((JsonObject) cursorId).getString("$numberLong"));
+		}
+		return true;
+	}
+}
@@ -29,6 +29,7 @@ import org.entcore.common.utils.HtmlUtils;
 
 
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
+import static org.entcore.common.neo4j.Neo4jResult.validEmptyHandler;
 import static org.entcore.common.neo4j.Neo4jResult.validUniqueResultHandler;
 
 public class NotificationUtils {
@@ -96,6 +97,15 @@ public class NotificationUtils {
 
     }
 
+    public static void deleteFcmTokens(JsonArray userIds, JsonArray fcmTokens, Handler<Either<String, JsonObject>> handler){
+        final JsonObject params = new JsonObject().put("userIds", userIds).put("fcmTokens", fcmTokens);
+
+        String query = "MATCH (u:User)-[:PREFERS]->(uac:UserAppConf) WHERE u.id IN {userIds} " +
+                "SET uac.fcmTokens = FILTER(token IN coalesce(uac.fcmTokens, []) WHERE NOT(token IN {fcmTokens}))";
+
+        Neo4j.getInstance().execute(query, params, validEmptyHandler(handler));
+    }
+
     public static void getFcmTokensByUsers(JsonArray userIds,final Handler<Either<String, JsonArray>> handler){
         final JsonObject params = new JsonObject().put("userIds", userIds);
 
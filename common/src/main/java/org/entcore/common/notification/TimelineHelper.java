@@ -89,15 +89,11 @@ public class TimelineHelper {
 	public void notifyTimeline(final HttpServerRequest req, final String notificationName,
 			UserInfos sender, final List<String> recipients, String resource, String subResource, final JsonObject params, final boolean disableAntiFlood, JsonObject preview){
 		notificationsLoader.getNotification(notificationName, notification -> {
-			JsonArray r = new fr.wseduc.webutils.collections.JsonArray();
-			for (String userId: recipients) {
-				r.add(new JsonObject().put("userId", userId).put("unread", 1));
-			}
+			// only the ids are sent, the timeline expands them to the recipients array
 			final JsonObject event = new JsonObject()
 					.put("action", "add")
 					.put("type", notification.getString("type"))
 					.put("event-type", notification.getString("event-type"))
-					.put("recipients", r)
 					.put("recipientsIds", new fr.wseduc.webutils.collections.JsonArray(recipients));
 			if (resource != null) {
 				event.put("resource", resource);
@@ -167,15 +163,11 @@ public class TimelineHelper {
 	@Deprecated
 	public void notifyTimeline(HttpServerRequest request, UserInfos sender, String type, final String eventType,
 			List<String> recipients, String resource, String subResource, String template, JsonObject params) {
-		JsonArray r = new fr.wseduc.webutils.collections.JsonArray();
-		for (String userId: recipients) {
-			r.add(new JsonObject().put("userId", userId).put("unread", 1));
-		}
 		final JsonObject event = new JsonObject()
 				.put("action", "add")
 				.put("type", type)
 				.put("event-type", eventType)
-				.put("recipients", r);
+				.put("recipientsIds", new fr.wseduc.webutils.collections.JsonArray(recipients));
 		if (resource != null) {
 			event.put("resource", resource);
 		}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.notification.ws;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sends the same message to several device tokens with one messages:send call per token,
+ * keeping at most a bounded number of calls in flight, and collects the tokens rejected by FCM.
+ */
+public class FcmMulticast {
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+    private final JsonObject message;
+    private final Iterator<String> pending;
+    private final List<String> invalidTokens = new ArrayList<>();
+    private int running = 0;
+    private boolean done = false;
+
+    public interface Sender {
+
+        /**
+         * Posts the body of the message sent to the token and calls the handler with the response
+         * status code and body, or with a null body if the request failed.
+         * Only the first call of the handler is taken into account.
+         */
+        void send(String token, String body, Handler<Response> handler);
+
+    }
+
+    public static class Response {
+
+        private final int statusCode;
+        private final String body;
+
+        public Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+    }
+
+    public FcmMulticast(JsonObject message, List<String> tokens) {
+        this.message = message;
+        this.pending = tokens.iterator();
+    }
+
+    public String body(String token) {
+        return new JsonObject().put("message", message.copy().put("token", token)).encode();
+    }
+
+    /**
+     * @return true if the messages:send call was rejected because the token is unregistered or invalid.
+     */
+    public static boolean isInvalidToken(int statusCode, String responseBody) {
+        if (responseBody == null) {
+            return false;
+        }
+        return (statusCode == 404 && responseBody.contains("UNREGISTERED")) ||
+                (statusCode == 400 && responseBody.contains("INVALID_ARGUMENT") &&
+                        responseBody.contains("registration token"));
+    }
+
+    /**
+     * Sends the message to all the tokens, with at most concurrency calls in flight.
+     *
+     * @param handler called once all the calls completed, with the unregistered or invalid tokens
+     */
+    public void send(final int concurrency, final Sender sender, final Handler<List<String>> handler) {
+        while (running < Math.max(1, concurrency) && pending.hasNext()) {
+            final String token = pending.next();
+            running++;
+            sender.send(token, body(token), new Handler<Response>() {
+                private boolean completed;
+
+                @Override
+                public void handle(Response response) {
+                    if (completed) return;
+                    completed = true;
+                    running--;
+                    if (response != null && isInvalidToken(response.statusCode, response.body)) {
+                        invalidTokens.add(token);
+                    }
+                    send(concurrency, sender, handler);
+                }
+            });
+        }
+        if (running == 0 && !pending.hasNext() && !done) {
+            done = true;
+            handler.handle(invalidTokens);
+        }
+    }
+
+}
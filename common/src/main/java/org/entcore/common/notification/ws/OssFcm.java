@@ -21,14 +21,21 @@ package org.entcore.common.notification.ws;
 import fr.wseduc.webutils.http.oauth.OAuth2Client;
 import fr.wseduc.webutils.security.JWT;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.security.PrivateKey;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class OssFcm {
@@ -40,11 +47,25 @@ public class OssFcm {
     private Logger log = LoggerFactory.getLogger(OssFcm.class);
     private JsonObject payload = new JsonObject();
     private PrivateKey key;
+    private static final long SEND_TIMEOUT = 30000L;
+    private final HttpClient httpClient;
+    private final String sendUrl;
+    private final int maxConcurrentRequests;
 
 
-    public OssFcm(OAuth2Client client, String iss, String scope, String aud, String url, String key) throws Exception{
+    /**
+     * @param baseUri uri of the OAuth2 client, used to resolve the messages:send url if it is relative
+     * @param poolSize size of the keep-alive pool of the multicast sends, and their max concurrency
+     */
+    public OssFcm(Vertx vertx, OAuth2Client client, URI baseUri, String iss, String scope, String aud, String url,
+            String key, int poolSize) throws Exception{
         this.client = client;
         this.url = url;
+        this.sendUrl = baseUri.resolve(url).toString();
+        this.maxConcurrentRequests = poolSize;
+        this.httpClient = vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(poolSize));
         payload.put("iss", iss)
                 .put("scope", scope)
                 .put("aud", aud);
@@ -78,6 +99,71 @@ public class OssFcm {
         });
     }
 
+    /**
+     * Sends the message to the tokens with one messages:send call per token, at most
+     * maxConcurrentRequests calls being in flight on the keep-alive pool.
+     * Each call completes once, on its response, its failure or its timeout.
+     *
+     * @param invalidTokensHandler handles the unregistered or invalid tokens, if any, once all the calls completed
+     */
+    public void sendMulticast(final JsonObject message, final List<String> tokens,
+            final Handler<List<String>> invalidTokensHandler) throws Exception {
+        getAccessToken(new Handler<String>() {
+            @Override
+            public void handle(final String token) {
+                if (token == null) {
+                    log.error("[OssFcm] Error get token");
+                    return;
+                }
+                new FcmMulticast(message, tokens).send(maxConcurrentRequests, new FcmMulticast.Sender() {
+                    @Override
+                    public void send(String deviceToken, String body, final Handler<FcmMulticast.Response> handler) {
+                        final HttpClientRequest req = httpClient.postAbs(sendUrl, new Handler<HttpClientResponse>() {
+                            @Override
+                            public void handle(final HttpClientResponse response) {
+                                response.exceptionHandler(new Handler<Throwable>() {
+                                    @Override
+                                    public void handle(Throwable t) {
+                                        log.error("[OssFcm.sendMulticast] response failed", t);
+                                        handler.handle(null);
+                                    }
+                                });
+                                response.bodyHandler(new Handler<Buffer>() {
+                                    @Override
+                                    public void handle(Buffer body) {
+                                        if (response.statusCode() != 200) {
+                                            log.error("[OssFcm.sendMulticast] request failed : " + response.statusMessage());
+                                        }
+                                        handler.handle(new FcmMulticast.Response(response.statusCode(), body.toString()));
+                                    }
+                                });
+                            }
+                        });
+                        req.exceptionHandler(new Handler<Throwable>() {
+                            @Override
+                            public void handle(Throwable t) {
+                                log.error("[OssFcm.sendMulticast] request failed", t);
+                                handler.handle(null);
+                            }
+                        });
+                        req.setTimeout(SEND_TIMEOUT);
+                        req.putHeader("Authorization", "Bearer " + token)
+                                .putHeader("Content-Type", "application/json")
+                                .putHeader("Accept-Language", message.getString("language", "fr"))
+                                .end(body);
+                    }
+                }, new Handler<List<String>>() {
+                    @Override
+                    public void handle(List<String> invalidTokens) {
+                        if (!invalidTokens.isEmpty()) {
+                            invalidTokensHandler.handle(invalidTokens);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     private void getAccessToken(final Handler<String> handler) throws Exception{
         if(accessToken != null && tokenExpiresDate > (System.currentTimeMillis() + 1000)/1000){
             handler.handle(accessToken);
@@ -590,6 +590,27 @@ public class UserUtils {
 		});
 	}
 
+	/**
+	 * Sets the attribute in the sessions of the users with one message.
+	 * @param values value of the attribute by user id.
+	 */
+	public static void addSessionAttributes(EventBus eb, String key, JsonObject values,
+			final Handler<Boolean> handler) {
+		JsonObject json = new JsonObject()
+				.put("action", "addAttributes")
+				.put("key", key)
+				.put("values", values);
+		eb.send(SESSION_ADDRESS, json, new Handler<AsyncResult<Message<JsonObject>>>() {
+
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> res) {
+				if (handler != null) {
+					handler.handle(res.succeeded() && "ok".equals(res.result().body().getString("status")));
+				}
+			}
+		});
+	}
+
 	public static void removeSessionAttribute(EventBus eb, String userId,
 			String key, final Handler<Boolean> handler) {
 		JsonObject json = new JsonObject()
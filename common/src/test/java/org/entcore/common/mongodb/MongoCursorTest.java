@@ -0,0 +1,136 @@
+package org.entcore.common.mongodb;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+public class MongoCursorTest {
+
+    private static final int TREE_SIZE = 50000;
+
+    /**
+     * Builds a tree of folders where each folder has up to 10 children, as returned by a graphLookup
+     * on the direct children.
+     */
+    private static List<JsonObject> tree(int size) {
+        List<JsonObject> documents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            JsonArray children = new JsonArray();
+            for (int c = i * 10 + 1; c <= i * 10 + 10 && c < size; c++) {
+                children.add("doc" + c);
+            }
+            JsonObject doc = new JsonObject().put("_id", "doc" + i).put("children", children);
+            if (i > 0) {
+                doc.put("eParent", "doc" + ((i - 1) / 10));
+            }
+            documents.add(doc);
+        }
+        return documents;
+    }
+
+    private static class FakeServer implements Function<JsonObject, Future<JsonObject>> {
+
+        private final List<JsonObject> documents;
+        private final List<JsonObject> commands = new ArrayList<>();
+        private int position = 0;
+
+        private FakeServer(List<JsonObject> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public Future<JsonObject> apply(JsonObject command) {
+            commands.add(command);
+            int batchSize;
+            String batchField;
+            if (command.containsKey("getMore")) {
+                if (command.getLong("getMore") != 42L) {
+                    return Future.failedFuture("cursor not found");
+                }
+                batchSize = command.getInteger("batchSize");
+                batchField = "nextBatch";
+            } else {
+                batchSize = command.getJsonObject("cursor").getInteger("batchSize");
+                batchField = "firstBatch";
+            }
+            JsonArray batch = new JsonArray();
+            for (; position < documents.size() && batch.size() < batchSize; position++) {
+                batch.add(documents.get(position));
+            }
+            long id = position < documents.size() ? 42L : 0L;
+            return Future.succeededFuture(new JsonObject().put("ok", 1)
+                    .put("cursor", new JsonObject().put("id", id).put(batchField, batch)));
+        }
+
+    }
+
+    @Test
+    public void read_shouldConsumeWholeTree_GivenManyBatches() {
+        FakeServer server = new FakeServer(tree(TREE_SIZE));
+        MongoCursor cursor = new MongoCursor(server, "documents", 1000);
+        Set<String> ids = new HashSet<>();
+        List<Integer> batchSizes = new ArrayList<>();
+
+        Future<Void> done = cursor.read(new JsonObject().put("aggregate", "documents"), batch -> {
+            batchSizes.add(batch.size());
+            for (Object o : batch) {
+                JsonObject doc = (JsonObject) o;
+                ids.add(doc.getString("_id"));
+                for (Object child : doc.getJsonArray("children")) {
+                    ids.add((String) child);
+                }
+            }
+        });
+
+        Assert.assertTrue(done.succeeded());
+        Assert.assertEquals(TREE_SIZE, ids.size());
+        Assert.assertEquals(50, batchSizes.size());
+        Assert.assertTrue(batchSizes.stream().allMatch(s -> s <= 1000));
+        // first aggregate then 49 getMore
+        Assert.assertEquals(50, server.commands.size());
+        Assert.assertEquals("documents", server.commands.get(1).getString("collection"));
+    }
+
+    @Test
+    public void read_shouldStop_WhenFirstBatchExhaustsCursor() {
+        FakeServer server = new FakeServer(tree(10));
+        MongoCursor cursor = new MongoCursor(server, "documents", 1000);
+        List<Integer> batchSizes = new ArrayList<>();
+
+        Future<Void> done = cursor.read(new JsonObject().put("aggregate", "documents"), batch -> batchSizes.add(batch.size()));
+
+        Assert.assertTrue(done.succeeded());
+        Assert.assertEquals(1, server.commands.size());
+        Assert.assertEquals(10, (int) batchSizes.get(0));
+    }
+
+    @Test
+    public void read_shouldFail_WhenGetMoreFails() {
+        MongoCursor cursor = new MongoCursor(command -> command.containsKey("getMore") ?
+                Future.failedFuture("cursor not found") :
+                Future.succeededFuture(new JsonObject().put("cursor", new JsonObject().put("id", 7L)
+                        .put("firstBatch", new JsonArray().add(new JsonObject())))), "documents", 1);
+
+        Future<Void> done = cursor.read(new JsonObject().put("find", "documents"), batch -> {});
+
+        Assert.assertTrue(done.failed());
+        Assert.assertEquals("cursor not found", done.cause().getMessage());
+    }
+
+    @Test
+    public void isExhausted_shouldHandleExtendedJsonLong() {
+        Assert.assertTrue(MongoCursor.isExhausted(new JsonObject().put("$numberLong", "0")));
+        Assert.assertFalse(MongoCursor.isExhausted(new JsonObject().put("$numberLong", "123456789012")));
+        Assert.assertFalse(MongoCursor.isExhausted(123456789012L));
+        Assert.assertTrue(MongoCursor.isExhausted(0));
+    }
+
+}
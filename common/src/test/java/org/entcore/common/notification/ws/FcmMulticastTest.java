@@ -0,0 +1,126 @@
+package org.entcore.common.notification.ws;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FcmMulticastTest {
+
+    private static final String UNREGISTERED =
+            "{\"error\":{\"status\":\"NOT_FOUND\",\"details\":[{\"errorCode\":\"UNREGISTERED\"}]}}";
+    private static final String INVALID =
+            "{\"error\":{\"message\":\"The registration token is not a valid FCM registration token\",\"status\":\"INVALID_ARGUMENT\"}}";
+
+    /**
+     * Keeps the calls pending until they are completed by the test, as an asynchronous http client would.
+     */
+    private static class FakeSender implements FcmMulticast.Sender {
+
+        private final Map<String, Handler<FcmMulticast.Response>> inFlight = new HashMap<>();
+        private final List<String> bodies = new ArrayList<>();
+        private int maxInFlight = 0;
+
+        @Override
+        public void send(String token, String body, Handler<FcmMulticast.Response> handler) {
+            bodies.add(body);
+            inFlight.put(token, handler);
+            maxInFlight = Math.max(maxInFlight, inFlight.size());
+        }
+
+        private void complete(String token, FcmMulticast.Response response) {
+            inFlight.remove(token).handle(response);
+        }
+
+    }
+
+    @Test
+    public void body_shouldContainMessageForToken() {
+        FcmMulticast batch = new FcmMulticast(new JsonObject().put("notification", new JsonObject().put("title", "t")),
+                Collections.singletonList("a"));
+        JsonObject body = new JsonObject(batch.body("b"));
+
+        Assert.assertEquals("b", body.getJsonObject("message").getString("token"));
+        Assert.assertEquals("t", body.getJsonObject("message").getJsonObject("notification").getString("title"));
+    }
+
+    @Test
+    public void isInvalidToken_shouldClassifyUnregisteredAndInvalidTokens() {
+        Assert.assertTrue(FcmMulticast.isInvalidToken(404, UNREGISTERED));
+        Assert.assertTrue(FcmMulticast.isInvalidToken(400, INVALID));
+        Assert.assertFalse(FcmMulticast.isInvalidToken(200, "{\"name\":\"projects/test/messages/1\"}"));
+        Assert.assertFalse(FcmMulticast.isInvalidToken(400, "{\"error\":{\"message\":\"Invalid payload\",\"status\":\"INVALID_ARGUMENT\"}}"));
+        Assert.assertFalse(FcmMulticast.isInvalidToken(503, "{\"error\":{\"status\":\"UNAVAILABLE\"}}"));
+        Assert.assertFalse(FcmMulticast.isInvalidToken(404, null));
+    }
+
+    @Test
+    public void send_shouldBoundCallsInFlightAndCollectInvalidTokens() {
+        FakeSender sender = new FakeSender();
+        final List<List<String>> results = new ArrayList<>();
+        new FcmMulticast(new JsonObject(), Arrays.asList("a", "b", "c", "d", "e")).send(2, sender,
+                new Handler<List<String>>() {
+                    @Override
+                    public void handle(List<String> invalidTokens) {
+                        results.add(invalidTokens);
+                    }
+                });
+
+        Assert.assertEquals(2, sender.inFlight.size());
+        sender.complete("a", new FcmMulticast.Response(200, "{}"));
+        sender.complete("b", new FcmMulticast.Response(404, UNREGISTERED));
+        sender.complete("c", null);
+        sender.complete("d", new FcmMulticast.Response(400, INVALID));
+        Assert.assertTrue(results.isEmpty());
+        sender.complete("e", new FcmMulticast.Response(503, "{}"));
+
+        Assert.assertEquals(2, sender.maxInFlight);
+        Assert.assertEquals(5, sender.bodies.size());
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("b", "d")), results);
+    }
+
+    @Test
+    public void send_shouldIgnoreSecondCompletion_GivenFailureAfterResponse() {
+        FakeSender sender = new FakeSender();
+        final List<List<String>> results = new ArrayList<>();
+        new FcmMulticast(new JsonObject(), Arrays.asList("a", "b", "c")).send(1, sender,
+                new Handler<List<String>>() {
+                    @Override
+                    public void handle(List<String> invalidTokens) {
+                        results.add(invalidTokens);
+                    }
+                });
+
+        Handler<FcmMulticast.Response> a = sender.inFlight.get("a");
+        sender.complete("a", new FcmMulticast.Response(200, "{}"));
+        a.handle(null);
+
+        Assert.assertEquals(1, sender.maxInFlight);
+        Assert.assertEquals(1, sender.inFlight.size());
+        sender.complete("b", null);
+        sender.complete("c", null);
+        Assert.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void send_shouldCompleteImmediately_GivenNoTokens() {
+        final List<List<String>> results = new ArrayList<>();
+        new FcmMulticast(new JsonObject(), Collections.<String>emptyList()).send(2, new FakeSender(),
+                new Handler<List<String>>() {
+                    @Override
+                    public void handle(List<String> invalidTokens) {
+                        results.add(invalidTokens);
+                    }
+                });
+
+        Assert.assertEquals(Collections.singletonList(Collections.<String>emptyList()), results);
+    }
+
+}
@@ -32,6 +32,7 @@ import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.request.RequestUtils;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
@@ -44,8 +45,11 @@ import org.entcore.common.user.UserUtils;
 import org.entcore.common.validation.StringValidation;
 import org.entcore.communication.services.CommunicationService;
 import org.entcore.communication.services.impl.DefaultCommunicationService;
+import org.entcore.communication.services.impl.VisiblesCache;
+import org.vertx.java.core.http.RouteMatcher;
 
 import java.util.List;
+import java.util.Map;
 
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 import static fr.wseduc.webutils.request.RequestUtils.bodyToJson;
@@ -53,7 +57,17 @@ import static org.entcore.common.http.response.DefaultResponseHandler.*;
 
 public class CommunicationController extends BaseController {
 
-	private final CommunicationService communicationService = new DefaultCommunicationService();
+	private CommunicationService communicationService;
+
+	@Override
+	public void init(Vertx vertx, JsonObject config, RouteMatcher rm,
+			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
+		super.init(vertx, config, rm, securedActions);
+		final int visiblesCacheSize = config.getInteger("visibles-cache-size", 5000);
+		final VisiblesCache visiblesCache = (visiblesCacheSize > 0) ? new VisiblesCache(vertx, visiblesCacheSize,
+				config.getLong("visibles-cache-ttl", 300000L)) : null;
+		communicationService = new DefaultCommunicationService(visiblesCache);
+	}
 
 	@Get("/admin-console")
 	@SecuredAction(value = "", type = ActionType.RESOURCE)
@@ -315,6 +329,19 @@ public class CommunicationController extends BaseController {
 				communicationService.visibleUsers(userId, schoolId, expectedTypes, itSelf, myGroup,
 						profile, preFilter, customReturn, ap, responseHandler);
 				break;
+			case "visibleUsersPage":
+				final String search = message.body().getString("search");
+				communicationService.visibleUsersPage(userId, message.body().getString("userProfile"),
+						message.body().getJsonArray("profiles"), isNotEmpty(search) ? StringValidation.sanitize(search) : null,
+						message.body().getInteger("skip", 0), message.body().getInteger("limit", 50), page -> {
+							if (page.isRight()) {
+								message.reply(page.right().getValue());
+							} else {
+								message.reply(new JsonObject().put("status", "error")
+										.put("message", page.left().getValue()));
+							}
+						});
+				break;
 			case "usersCanSeeMe":
 				communicationService.usersCanSeeMe(userId, responseHandler);
 				break;
@@ -83,6 +83,13 @@ public interface CommunicationService {
 			boolean profile, String preFilter, String customReturn, JsonObject additionnalParams, String userProfile,
 			Handler<Either<String, JsonArray>> handler);
 
+	/**
+	 * Page of the users visible by the user, filtered by profiles and search field, ordered by search field.
+	 * Replies the count of matching users and the users of the page.
+	 */
+	void visibleUsersPage(String userId, String userProfile, JsonArray profiles, String search, int skip, int limit,
+			Handler<Either<String, JsonObject>> handler);
+
 	void usersCanSeeMe(String userId, final Handler<Either<String, JsonArray>> handler);
 
 	void visibleProfilsGroups(String userId, String customReturn, JsonObject additionnalParams, String preFilter,
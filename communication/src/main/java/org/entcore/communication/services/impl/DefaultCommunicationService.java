@@ -35,6 +35,7 @@ import org.entcore.communication.services.CommunicationService;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
@@ -48,7 +49,29 @@ public class DefaultCommunicationService implements CommunicationService {
 
 	private final Neo4j neo4j = Neo4j.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(DefaultCommunicationService.class);
-	
+	private static final int RULES_BATCH_SIZE = 1000;
+	private static final String VISIBLES_QUERY =
+			"MATCH p=(n:User)-[:COMMUNIQUE*0..2]->ipg-[:COMMUNIQUE*0..1]->g<-[:DEPENDS*0..1]-m " +
+			"WHERE n.id = {userId} AND (length(p) >= 2 OR m.users <> 'INCOMING') " +
+			"AND (length(p) < 3 OR (ipg:Group AND (m:User OR g<-[:DEPENDS]-m) AND length(p) = 3)) " +
+			"WITH m, MAX(length(p)) as maxLength " +
+			"RETURN m.id as id, (m:User) as isUser, maxLength >= 2 as far, false as direct, " +
+			"HEAD(m.profiles) as profile, m.displayNameSearchField as searchField, m.blocked as blocked " +
+			"UNION " +
+			"MATCH (n:User)-[:COMMUNIQUE_DIRECT]->m " +
+			"WHERE n.id = {userId} " +
+			"RETURN DISTINCT m.id as id, (m:User) as isUser, true as far, true as direct, " +
+			"HEAD(m.profiles) as profile, m.displayNameSearchField as searchField, m.blocked as blocked ";
+	private final VisiblesCache visiblesCache;
+
+	public DefaultCommunicationService() {
+		this(null);
+	}
+
+	public DefaultCommunicationService(VisiblesCache visiblesCache) {
+		this.visiblesCache = visiblesCache;
+	}
+
 	@Override
 	public void addLink(String startGroupId, String endGroupId, Handler<Either<String, JsonObject>> handler) {
 		String query =
@@ -59,7 +82,8 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.put("startGroupId", startGroupId)
 				.put("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(startGroupId), handler)));
 	}
 
 	@Override
@@ -73,7 +97,8 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.put("startGroupId", startGroupId)
 				.put("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(startGroupId), handler)));
 	}
 
 	@Override
@@ -97,7 +122,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId).put("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId), handler)));
 	}
 
 	@Override
@@ -127,7 +153,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				sb.add(query, new JsonObject().put("groupId", groupId).put("direction", direction.name()));
 			});
 
-			neo4j.executeTransaction(sb.build(), null, true, validUniqueResultHandler(handler));
+			neo4j.executeTransaction(sb.build(), null, true, validUniqueResultHandler(evictVisibles(
+					new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(params.keySet())), handler)));
 		} else {
 			handler.handle(new Either.Left<>("Error addLinkWithUsers: params can't be null"));
 		}
@@ -158,7 +185,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId), handler)));
 	}
 
 	@Override
@@ -205,7 +233,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId).put("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId), handler)));
 	}
 
 	@Override
@@ -237,7 +266,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId), handler)));
 	}
 
 	@Override
@@ -404,53 +434,155 @@ public class DefaultCommunicationService implements CommunicationService {
 
 	@Override
 	public void applyDefaultRules(JsonArray structureIds, Handler<Either<String, JsonObject>> handler) {
-		StatementsBuilder s = new StatementsBuilder();
-		JsonObject params = new JsonObject().put("structures", structureIds);
-		String query =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:ProfileGroup) " +
-				"WHERE s.id IN {structures} AND HAS(g.communiqueWith) AND LENGTH(g.communiqueWith) <> 0 " +
-				"WITH DISTINCT g " +
-				"MATCH (pg:Group) " +
-				"WHERE pg.id IN g.communiqueWith " +
-				"MERGE g-[:COMMUNIQUE]->pg ";
-		s.add(query, params);
-		String usersIncoming =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:Group)<-[:IN]-(u:User) " +
-				"WHERE s.id IN {structures} AND HAS(g.users) AND (g.users = 'INCOMING' OR g.users = 'BOTH') " +
-				"MERGE g<-[:COMMUNIQUE]-u ";
-		s.add(usersIncoming, params);
-		String usersOutgoing =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:Group)<-[:IN]-(u:User) " +
-				"WHERE s.id IN {structures} AND HAS(g.users) AND (g.users = 'OUTGOING' OR g.users = 'BOTH') " +
-				"MERGE g-[:COMMUNIQUE]->u ";
-		s.add(usersOutgoing, params);
-		String relativeIncoming =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:ProfileGroup)<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
-				"WHERE s.id IN {structures} AND HAS(g.relativeCommuniqueStudent) " +
-				"AND (g.relativeCommuniqueStudent = 'INCOMING' OR g.relativeCommuniqueStudent = 'BOTH') " +
-				"MERGE r<-[:COMMUNIQUE_DIRECT]-u ";
-		s.add(relativeIncoming, params);
-		String relativeOutgoing =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:ProfileGroup)<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
-				"WHERE s.id IN {structures} AND HAS(g.relativeCommuniqueStudent) " +
-				"AND (g.relativeCommuniqueStudent = 'OUTGOING' OR g.relativeCommuniqueStudent = 'BOTH') " +
-				"MERGE r-[:COMMUNIQUE_DIRECT]->u ";
-		s.add(relativeOutgoing, params);
-		String setVisible =
-				"MATCH (s:Structure)<-[:DEPENDS*1..2]-(g:Group)<-[:IN*0..1]-(v), " +
-				"v-[:COMMUNIQUE|COMMUNIQUE_DIRECT]-() " +
-				"WHERE s.id IN {structures} AND NOT(v:Visible) " +
-				"WITH DISTINCT v " +
-				"SET v:Visible ";
-		s.add(setVisible, params);
-		String setVisible2 =
-				"MATCH (s:Structure)<-[:DEPENDS]-(g:Group)<-[:COMMUNIQUE]-(), " +
-				"g<-[:DEPENDS]-(v)" +
-				"WHERE s.id IN {structures} AND NOT(v:Visible) " +
-				"WITH DISTINCT v " +
-				"SET v:Visible ";
-		s.add(setVisible2, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		final List<String> structures = new ArrayList<>();
+		for (Object o : structureIds) {
+			if (o instanceof String) {
+				structures.add((String) o);
+			}
+		}
+		applyDefaultRules(structures.iterator(), evictVisibles(null, handler));
+	}
+
+	/**
+	 * Applies the default rules structure by structure. Structures whose groups, members and links didn't change
+	 * since the last run (same checksum) are skipped. For the others, the missing links are computed from a snapshot
+	 * of the structure groups and created by batches of RULES_BATCH_SIZE links, each one in its own transaction,
+	 * so the graph is never locked for a whole structure.
+	 */
+	private void applyDefaultRules(final Iterator<String> structures, final Handler<Either<String, JsonObject>> handler) {
+		if (!structures.hasNext()) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		final String structureId = structures.next();
+		final JsonObject params = new JsonObject().put("structureId", structureId);
+		neo4j.execute(DefaultRulesDiff.CHECKSUM_QUERY, params, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> r) {
+				if (r.isLeft()) {
+					handler.handle(r);
+					return;
+				}
+				if (DefaultRulesDiff.isUnchanged(r.right().getValue())) {
+					log.debug("Default com rules of structure " + structureId + " unchanged since last run.");
+					applyDefaultRules(structures, handler);
+					return;
+				}
+				applyStructureDefaultRules(structureId, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> res) {
+						if (res.isLeft()) {
+							handler.handle(res);
+						} else {
+							saveChecksum(structureId, structures, handler);
+						}
+					}
+				});
+			}
+		}));
+	}
+
+	/**
+	 * Stores the checksum of the structure once its links are created, so the next run skips it if nothing changed.
+	 */
+	private void saveChecksum(final String structureId, final Iterator<String> structures,
+			final Handler<Either<String, JsonObject>> handler) {
+		final JsonObject params = new JsonObject().put("structureId", structureId);
+		neo4j.execute(DefaultRulesDiff.CHECKSUM_QUERY, params, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> r) {
+				if (r.isLeft()) {
+					handler.handle(r);
+					return;
+				}
+				params.put("checksum", DefaultRulesDiff.checksum(r.right().getValue()));
+				neo4j.execute(DefaultRulesDiff.SET_CHECKSUM, params, validEmptyHandler(new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> res) {
+						if (res.isLeft()) {
+							handler.handle(res);
+						} else {
+							applyDefaultRules(structures, handler);
+						}
+					}
+				}));
+			}
+		}));
+	}
+
+	private void applyStructureDefaultRules(final String structureId, final Handler<Either<String, JsonObject>> handler) {
+		final long start = System.currentTimeMillis();
+		final JsonObject params = new JsonObject().put("structureId", structureId);
+		final StatementsBuilder snapshot = new StatementsBuilder()
+				.add(DefaultRulesDiff.GROUPS_QUERY, params)
+				.add(DefaultRulesDiff.USERS_QUERY, params)
+				.add(DefaultRulesDiff.RELATIVES_QUERY, params);
+		neo4j.executeTransaction(snapshot.build(), null, true, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error loading default com rules snapshot of structure " + structureId + " : " +
+							event.body().getString("message"));
+					handler.handle(new Either.Left<String, JsonObject>(event.body().getString("message")));
+					return;
+				}
+				final JsonArray results = event.body().getJsonArray("results");
+				final DefaultRulesDiff diff = new DefaultRulesDiff(results.getJsonArray(0), results.getJsonArray(1),
+						results.getJsonArray(2));
+				final long snapshotTime = System.currentTimeMillis();
+				final List<JsonObject> statements = diff.statements(RULES_BATCH_SIZE);
+				final StatementsBuilder setVisible = new StatementsBuilder()
+						.add("MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(g:Group)<-[:IN*0..1]-(v), " +
+								"v-[:COMMUNIQUE|COMMUNIQUE_DIRECT]-() " +
+								"WHERE NOT(v:Visible) " +
+								"WITH DISTINCT v " +
+								"SET v:Visible ", params)
+						.add("MATCH (s:Structure {id : {structureId}})<-[:DEPENDS]-(g:Group)<-[:COMMUNIQUE]-(), " +
+								"g<-[:DEPENDS]-(v) " +
+								"WHERE NOT(v:Visible) " +
+								"WITH DISTINCT v " +
+								"SET v:Visible ", params);
+				for (Object o : setVisible.build()) {
+					statements.add((JsonObject) o);
+				}
+				executeSequentially(statements.iterator(), new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> res) {
+						if (res.isLeft()) {
+							log.error("Error applying default com rules of structure " + structureId + " : " +
+									res.left().getValue());
+							handler.handle(res);
+							return;
+						}
+						final long end = System.currentTimeMillis();
+						log.info("Default com rules applied on structure " + structureId + " : " + diff.size() +
+								" links created in " + (end - start) + " ms (snapshot : " + (snapshotTime - start) +
+								" ms, writes : " + (end - snapshotTime) + " ms).");
+						handler.handle(res);
+					}
+				});
+			}
+		});
+	}
+
+	private void executeSequentially(final Iterator<JsonObject> statements,
+			final Handler<Either<String, JsonObject>> handler) {
+		if (!statements.hasNext()) {
+			handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+			return;
+		}
+		final JsonObject statement = statements.next();
+		neo4j.execute(statement.getString("statement"), statement.getJsonObject("parameters"),
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("ok".equals(event.body().getString("status"))) {
+					executeSequentially(statements, handler);
+				} else {
+					handler.handle(new Either.Left<String, JsonObject>(event.body().getString("message")));
+				}
+			}
+		});
 	}
 
 	@Override
@@ -494,7 +626,8 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(evictVisibles(
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId), handler)));
 	}
 
 	@Override
@@ -513,7 +646,7 @@ public class DefaultCommunicationService implements CommunicationService {
 					"OPTIONAL MATCH ()-[r1:COMMUNIQUE_DIRECT]->() " +
 					"DELETE r, r1 ";
 		}
-		neo4j.execute(query, params, validEmptyHandler(handler));
+		neo4j.execute(query, params, validEmptyHandler(evictVisibles(null, handler)));
 	}
 
 	@Override
@@ -527,6 +660,11 @@ public class DefaultCommunicationService implements CommunicationService {
 	public void visibleUsers(String userId, String structureId, JsonArray expectedTypes, boolean itSelf,
 			boolean myGroup, boolean profile, String preFilter, String customReturn, JsonObject additionnalParams, String userProfile,
 			final Handler<Either<String, JsonArray>> handler) {
+		if (visiblesCache != null && (structureId == null || structureId.trim().isEmpty())) {
+			cachedVisibleUsers(userId, expectedTypes, itSelf, myGroup, profile, preFilter, customReturn,
+					additionnalParams, userProfile, handler);
+			return;
+		}
 		StringBuilder query = new StringBuilder();
 		JsonObject params = new JsonObject();
 		String condition = itSelf ? "" : "AND m.id <> {userId} ";
@@ -610,6 +748,200 @@ public class DefaultCommunicationService implements CommunicationService {
 		neo4j.execute(q, params, validResultHandler(handler));
 	}
 
+	@Override
+	public void visibleUsersPage(final String userId, final String userProfile, final JsonArray profiles,
+			final String search, final int skip, final int limit, final Handler<Either<String, JsonObject>> handler) {
+		if (visiblesCache == null) {
+			handler.handle(new Either.Left<String, JsonObject>("visibles.cache.disabled"));
+			return;
+		}
+		loadVisibles(userId, new Handler<Either<String, VisiblesCache.Visibles>>() {
+			@Override
+			public void handle(Either<String, VisiblesCache.Visibles> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+					return;
+				}
+				final boolean direct = userProfile == null || "Student".equals(userProfile) ||
+						"Relative".equals(userProfile);
+				final JsonObject page = event.right().getValue().page(userId, direct, profiles, search, skip, limit);
+				final JsonArray ids = page.getJsonArray("ids");
+				if (ids.size() == 0) {
+					handler.handle(new Either.Right<String, JsonObject>(page.put("users", ids)));
+					return;
+				}
+				String query =
+						"MATCH (m:User) " +
+						"WHERE m.id IN {ids} " +
+						"RETURN m.id as id, m.login as login, m.displayName as displayName, " +
+						"m.lastName as lastName, m.firstName as firstName, HEAD(m.profiles) as profile " +
+						"ORDER BY m.displayNameSearchField ";
+				neo4j.execute(query, new JsonObject().put("ids", ids), validResultHandler(
+						new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> users) {
+						if (users.isRight()) {
+							page.remove("ids");
+							handler.handle(new Either.Right<String, JsonObject>(
+									page.put("users", users.right().getValue())));
+						} else {
+							handler.handle(new Either.Left<String, JsonObject>(users.left().getValue()));
+						}
+					}
+				}));
+			}
+		});
+	}
+
+	private void loadVisibles(final String userId, final Handler<Either<String, VisiblesCache.Visibles>> handler) {
+		final VisiblesCache.Visibles visibles = visiblesCache.get(userId);
+		if (visibles != null) {
+			handler.handle(new Either.Right<String, VisiblesCache.Visibles>(visibles));
+			return;
+		}
+		final long generation = visiblesCache.generation();
+		neo4j.execute(VISIBLES_QUERY, new JsonObject().put("userId", userId),
+				validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, VisiblesCache.Visibles>(event.left().getValue()));
+					return;
+				}
+				final JsonArray rows = event.right().getValue();
+				final JsonArray groupIds = visiblesCache.missingMembers(rows);
+				if (groupIds.size() == 0) {
+					handler.handle(new Either.Right<String, VisiblesCache.Visibles>(
+							visiblesCache.put(userId, generation, rows, null)));
+					return;
+				}
+				neo4j.execute(VisiblesCache.MEMBERS_QUERY, new JsonObject().put("groupIds", groupIds),
+						validResultHandler(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> members) {
+						if (members.isRight()) {
+							handler.handle(new Either.Right<String, VisiblesCache.Visibles>(
+									visiblesCache.put(userId, generation, rows, members.right().getValue())));
+						} else {
+							handler.handle(new Either.Left<String, VisiblesCache.Visibles>(members.left().getValue()));
+						}
+					}
+				}));
+			}
+		}));
+	}
+
+	private void cachedVisibleUsers(final String userId, final JsonArray expectedTypes, final boolean itSelf,
+			final boolean myGroup, final boolean profile, final String preFilter, final String customReturn,
+			final JsonObject additionnalParams, final String userProfile, final Handler<Either<String, JsonArray>> handler) {
+		loadVisibles(userId, new Handler<Either<String, VisiblesCache.Visibles>>() {
+			@Override
+			public void handle(Either<String, VisiblesCache.Visibles> event) {
+				if (event.isRight()) {
+					visibleUsers(userId, event.right().getValue(), expectedTypes, itSelf, myGroup, profile, preFilter,
+							customReturn, additionnalParams, userProfile, handler);
+				} else {
+					handler.handle(new Either.Left<String, JsonArray>(event.left().getValue()));
+				}
+			}
+		});
+	}
+
+	private void visibleUsers(String userId, VisiblesCache.Visibles visibles, JsonArray expectedTypes, boolean itSelf,
+			boolean myGroup, boolean profile, String preFilter, String customReturn, JsonObject additionnalParams,
+			String userProfile, Handler<Either<String, JsonArray>> handler) {
+		final boolean direct = userProfile == null || "Student".equals(userProfile) || "Relative".equals(userProfile);
+		StringBuilder query = new StringBuilder(
+				"OPTIONAL MATCH (u:User) WHERE u.id IN {visibleUserIds} " +
+				"WITH COLLECT(u) as us " +
+				"OPTIONAL MATCH (g:Group) WHERE g.id IN {visibleGroupIds} " +
+				"WITH us + COLLECT(g) as ms " +
+				"UNWIND ms as m " +
+				"WITH m " +
+				"WHERE (NOT(HAS(m.blocked)) OR m.blocked = false) ");
+		if (preFilter != null) {
+			query.append(preFilter);
+		}
+		if (!itSelf) {
+			query.append("AND m.id <> {userId} ");
+		}
+		if (expectedTypes != null && expectedTypes.size() > 0) {
+			StringBuilder types = new StringBuilder();
+			for (Object o: expectedTypes) {
+				if (!(o instanceof String)) continue;
+				types.append(" OR m:").append((String) o);
+			}
+			query.append("AND (").append(types.substring(4)).append(") ");
+		}
+		String pcr = " ";
+		String pr = "";
+		if (profile) {
+			query.append("OPTIONAL MATCH m-[:IN*0..1]->pgp-[:DEPENDS*0..1]->(pg:ProfileGroup)-[:HAS_PROFILE]->(profile:Profile) ");
+			pcr = ", profile ";
+			pr = "profile.name as type, ";
+		}
+		if (customReturn != null && !customReturn.trim().isEmpty()) {
+			query.append("WITH DISTINCT m as visibles").append(pcr);
+			query.append(customReturn);
+		} else {
+			query.append("RETURN distinct m.id as id, m.name as name, "
+					+ "m.login as login, m.displayName as username, ").append(pr)
+					.append("m.lastName as lastName, m.firstName as firstName, m.profiles as profiles "
+							+ "ORDER BY name, username ");
+		}
+		JsonObject params = new JsonObject()
+				.put("userId", userId)
+				.put("visibleUserIds", visibles.userIds(myGroup, direct))
+				.put("visibleGroupIds", visibles.groupIds(myGroup));
+		if (additionnalParams != null) {
+			params.mergeIn(additionnalParams);
+		}
+		neo4j.execute(query.toString(), params, validResultHandler(handler));
+	}
+
+	/**
+	 * Evicts from the visibles cache the users whose visibility may depend on the given groups,
+	 * or all the users if groupIds is null, before calling the handler.
+	 */
+	private Handler<Either<String, JsonObject>> evictVisibles(final JsonArray groupIds,
+			final Handler<Either<String, JsonObject>> handler) {
+		if (visiblesCache == null) {
+			return handler;
+		}
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(final Either<String, JsonObject> result) {
+				if (groupIds == null) {
+					visiblesCache.clear();
+					handler.handle(result);
+					return;
+				}
+				String query =
+						"MATCH (u:User)-[:IN|COMMUNIQUE|RELATED*1..2]->(g:Group) " +
+						"WHERE g.id IN {groupIds} " +
+						"RETURN DISTINCT u.id as id ";
+				JsonObject params = new JsonObject().put("groupIds", groupIds);
+				neo4j.execute(query, params, validResultHandler(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> users) {
+						if (users.isRight()) {
+							JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
+							for (Object o : users.right().getValue()) {
+								if (!(o instanceof JsonObject)) continue;
+								userIds.add(((JsonObject) o).getString("id"));
+							}
+							visiblesCache.evict(userIds);
+						} else {
+							log.error("Error loading users to evict from visibles cache : " + users.left().getValue());
+							visiblesCache.clear();
+						}
+						handler.handle(result);
+					}
+				}));
+			}
+		};
+	}
+
 	@Override
 	public void usersCanSeeMe(String userId, Handler<Either<String, JsonArray>> handler) {
 		String query =
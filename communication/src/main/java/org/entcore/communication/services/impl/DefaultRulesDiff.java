@@ -0,0 +1,256 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.communication.services.impl;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Communication links required by the default rules of a structure and missing from the graph,
+ * computed from a snapshot of the structure groups.
+ */
+public class DefaultRulesDiff {
+
+	public static final String GROUPS_QUERY =
+			"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(g:ProfileGroup) " +
+			"WHERE HAS(g.communiqueWith) AND LENGTH(g.communiqueWith) <> 0 " +
+			"WITH DISTINCT g " +
+			"OPTIONAL MATCH g-[:COMMUNIQUE]->(pg:Group) " +
+			"WHERE pg.id IN g.communiqueWith " +
+			"RETURN g.id as id, g.communiqueWith as communiqueWith, COLLECT(pg.id) as existing ";
+	public static final String USERS_QUERY =
+			"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(g:Group) " +
+			"WHERE HAS(g.users) AND g.users IN ['INCOMING', 'OUTGOING', 'BOTH'] " +
+			"WITH DISTINCT g " +
+			"MATCH g<-[:IN]-(u:User) " +
+			"RETURN g.id as groupId, g.users as direction, u.id as userId, " +
+			"size((u)-[:COMMUNIQUE]->(g)) > 0 as incoming, size((g)-[:COMMUNIQUE]->(u)) > 0 as outgoing ";
+	public static final String RELATIVES_QUERY =
+			"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(g:ProfileGroup) " +
+			"WHERE HAS(g.relativeCommuniqueStudent) " +
+			"WITH DISTINCT g " +
+			"MATCH g<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
+			"RETURN DISTINCT g.relativeCommuniqueStudent as direction, r.id as relativeId, u.id as studentId, " +
+			"size((u)-[:COMMUNIQUE_DIRECT]->(r)) > 0 as incoming, size((r)-[:COMMUNIQUE_DIRECT]->(u)) > 0 as outgoing ";
+
+	/**
+	 * Rule properties of the structure groups with the number of members, relatives and existing links.
+	 * Any change of the groups, their members or their links changes the checksum of the rows.
+	 */
+	public static final String CHECKSUM_QUERY =
+			"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-(g:Group) " +
+			"WITH DISTINCT s, g " +
+			"OPTIONAL MATCH g<-[:IN]-(u:User) " +
+			"WHERE HAS(g.users) " +
+			"WITH s, g, COUNT(u) as members, " +
+			"SUM(CASE WHEN size((u)-[:COMMUNIQUE]->(g)) > 0 THEN 1 ELSE 0 END) as incoming, " +
+			"SUM(CASE WHEN size((g)-[:COMMUNIQUE]->(u)) > 0 THEN 1 ELSE 0 END) as outgoing " +
+			"OPTIONAL MATCH g<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
+			"WHERE HAS(g.relativeCommuniqueStudent) " +
+			"WITH s, g, members, incoming, outgoing, COUNT(r) as relatives, " +
+			"SUM(CASE WHEN size((u)-[:COMMUNIQUE_DIRECT]->(r)) > 0 THEN 1 ELSE 0 END) as relativesIncoming, " +
+			"SUM(CASE WHEN size((r)-[:COMMUNIQUE_DIRECT]->(u)) > 0 THEN 1 ELSE 0 END) as relativesOutgoing " +
+			"RETURN s.defaultRulesChecksum as checksum, " +
+			"COLLECT([g.id, g.communiqueWith, g.users, g.relativeCommuniqueStudent, size((g)-[:COMMUNIQUE]->(:Group)), " +
+			"members, incoming, outgoing, relatives, relativesIncoming, relativesOutgoing]) as groups ";
+	public static final String SET_CHECKSUM =
+			"MATCH (s:Structure {id : {structureId}}) " +
+			"SET s.defaultRulesChecksum = {checksum} ";
+
+	private static final String GROUPS_LINKS =
+			"UNWIND {links} as l " +
+			"MATCH (g:Group {id : l.from}), (pg:Group {id : l.to}) " +
+			"MERGE g-[:COMMUNIQUE]->pg ";
+	private static final String USERS_INCOMING_LINKS =
+			"UNWIND {links} as l " +
+			"MATCH (u:User {id : l.from}), (g:Group {id : l.to}) " +
+			"MERGE u-[:COMMUNIQUE]->g ";
+	private static final String USERS_OUTGOING_LINKS =
+			"UNWIND {links} as l " +
+			"MATCH (g:Group {id : l.from}), (u:User {id : l.to}) " +
+			"MERGE g-[:COMMUNIQUE]->u ";
+	private static final String DIRECT_LINKS =
+			"UNWIND {links} as l " +
+			"MATCH (u:User {id : l.from}), (r:User {id : l.to}) " +
+			"MERGE u-[:COMMUNIQUE_DIRECT]->r ";
+
+	private final Set<Link> groupsLinks = new LinkedHashSet<>();
+	private final Set<Link> usersIncomingLinks = new LinkedHashSet<>();
+	private final Set<Link> usersOutgoingLinks = new LinkedHashSet<>();
+	private final Set<Link> directLinks = new LinkedHashSet<>();
+
+	/**
+	 * @param groups rows of {@link #GROUPS_QUERY}
+	 * @param users rows of {@link #USERS_QUERY}
+	 * @param relatives rows of {@link #RELATIVES_QUERY}
+	 */
+	public DefaultRulesDiff(JsonArray groups, JsonArray users, JsonArray relatives) {
+		for (Object o : groups) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject g = (JsonObject) o;
+			final Set<Object> existing = new HashSet<>(g.getJsonArray("existing", new fr.wseduc.webutils.collections.JsonArray()).getList());
+			for (Object to : g.getJsonArray("communiqueWith", new fr.wseduc.webutils.collections.JsonArray())) {
+				if (to instanceof String && !existing.contains(to)) {
+					groupsLinks.add(new Link(g.getString("id"), (String) to));
+				}
+			}
+		}
+		for (Object o : users) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject u = (JsonObject) o;
+			final String direction = u.getString("direction");
+			if (incoming(direction) && !u.getBoolean("incoming", false)) {
+				usersIncomingLinks.add(new Link(u.getString("userId"), u.getString("groupId")));
+			}
+			if (outgoing(direction) && !u.getBoolean("outgoing", false)) {
+				usersOutgoingLinks.add(new Link(u.getString("groupId"), u.getString("userId")));
+			}
+		}
+		for (Object o : relatives) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject r = (JsonObject) o;
+			final String direction = r.getString("direction");
+			if (incoming(direction) && !r.getBoolean("incoming", false)) {
+				directLinks.add(new Link(r.getString("studentId"), r.getString("relativeId")));
+			}
+			if (outgoing(direction) && !r.getBoolean("outgoing", false)) {
+				directLinks.add(new Link(r.getString("relativeId"), r.getString("studentId")));
+			}
+		}
+	}
+
+	/**
+	 * @param groups groups rows of {@link #CHECKSUM_QUERY}
+	 * @return a checksum of the rows independent of their order
+	 */
+	public static String checksum(JsonArray groups) {
+		final List<String> rows = new ArrayList<>();
+		for (Object o : groups) {
+			rows.add(o instanceof JsonArray ? ((JsonArray) o).encode() : String.valueOf(o));
+		}
+		Collections.sort(rows);
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (String row : rows) {
+				md.update(row.getBytes(StandardCharsets.UTF_8));
+				md.update((byte) '\n');
+			}
+			return Base64.getEncoder().encodeToString(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param row row of {@link #CHECKSUM_QUERY}
+	 * @return the checksum of the groups of the row
+	 */
+	public static String checksum(JsonObject row) {
+		return checksum(row.getJsonArray("groups", new fr.wseduc.webutils.collections.JsonArray()));
+	}
+
+	/**
+	 * @param row row of {@link #CHECKSUM_QUERY}
+	 * @return true if the groups, members and links of the structure didn't change since the checksum was stored
+	 */
+	public static boolean isUnchanged(JsonObject row) {
+		return checksum(row).equals(row.getString("checksum"));
+	}
+
+	private static boolean incoming(String direction) {
+		return "INCOMING".equals(direction) || "BOTH".equals(direction);
+	}
+
+	private static boolean outgoing(String direction) {
+		return "OUTGOING".equals(direction) || "BOTH".equals(direction);
+	}
+
+	public int size() {
+		return groupsLinks.size() + usersIncomingLinks.size() + usersOutgoingLinks.size() + directLinks.size();
+	}
+
+	/**
+	 * @return the statements creating the missing links, each one with at most batchSize links.
+	 */
+	public List<JsonObject> statements(int batchSize) {
+		final List<JsonObject> statements = new ArrayList<>();
+		addStatements(statements, GROUPS_LINKS, groupsLinks, batchSize);
+		addStatements(statements, USERS_INCOMING_LINKS, usersIncomingLinks, batchSize);
+		addStatements(statements, USERS_OUTGOING_LINKS, usersOutgoingLinks, batchSize);
+		addStatements(statements, DIRECT_LINKS, directLinks, batchSize);
+		return statements;
+	}
+
+	private static void addStatements(List<JsonObject> statements, String query, Set<Link> links, int batchSize) {
+		JsonArray batch = new fr.wseduc.webutils.collections.JsonArray();
+		for (Link l : links) {
+			batch.add(new JsonObject().put("from", l.from).put("to", l.to));
+			if (batch.size() >= batchSize) {
+				statements.add(statement(query, batch));
+				batch = new fr.wseduc.webutils.collections.JsonArray();
+			}
+		}
+		if (batch.size() > 0) {
+			statements.add(statement(query, batch));
+		}
+	}
+
+	private static JsonObject statement(String query, JsonArray links) {
+		return new JsonObject().put("statement", query).put("parameters", new JsonObject().put("links", links));
+	}
+
+	private static final class Link {
+
+		private final String from;
+		private final String to;
+
+		private Link(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Link)) return false;
+			final Link link = (Link) o;
+			return Objects.equals(from, link.from) && Objects.equals(to, link.to);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(from, to);
+		}
+
+	}
+
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.communication.services.impl;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materialized visibility of the users : the users and groups reachable by communication links.
+ * Users and groups get an integer index and each entry holds sorted arrays of indexes. The far visible users
+ * are stored as the groups whose members they are plus the remaining users, the members of the groups being
+ * shared by all the entries. The profile, search field and blocked state of the users are indexed to filter
+ * and page the visibles without loading them.
+ * An index is released when no entry or group members references it anymore and is reused by the next ones.
+ * Entries expire after a ttl and are evicted on all instances when the communication rules change.
+ * Must only be used from the verticle event loop.
+ */
+public class VisiblesCache {
+
+	public static final String ADDRESS = "communication.visibles.cache";
+	public static final String MEMBERS_QUERY =
+			"MATCH (g:Group)-[:COMMUNIQUE]->(u:User) " +
+			"WHERE g.id IN {groupIds} " +
+			"RETURN g.id as id, COLLECT(u.id) as members ";
+	private static final Logger log = LoggerFactory.getLogger(VisiblesCache.class);
+	private static final int[] EMPTY = new int[0];
+	private final Vertx vertx;
+	private final EventBus eb;
+	private final long ttl;
+	private final Map<String, Visibles> cache;
+	private final Map<String, Integer> indexes = new HashMap<>();
+	private final List<String> ids = new ArrayList<>();
+	private final List<String> searchFields = new ArrayList<>();
+	private final Map<String, BitSet> profiles = new HashMap<>();
+	private final BitSet blocked = new BitSet();
+	private final Deque<Integer> freeIndexes = new ArrayDeque<>();
+	private int[] references = new int[16];
+	private final Map<Integer, Members> members = new HashMap<>();
+	private long generation = 0;
+	private long indexGeneration = 0;
+
+	public VisiblesCache(Vertx vertx, final int maxSize, long ttl) {
+		this.vertx = vertx;
+		this.eb = vertx.eventBus();
+		this.ttl = ttl;
+		this.cache = new LinkedHashMap<String, Visibles>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Visibles> eldest) {
+				if (size() > maxSize) {
+					eldest.getValue().release();
+					return true;
+				}
+				return false;
+			}
+		};
+		eb.consumer(ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				generation++;
+				final JsonArray userIds = message.body().getJsonArray("userIds");
+				if (userIds == null) {
+					cache.clear();
+					resetIndex();
+				} else {
+					for (Object id : userIds) {
+						if (id instanceof String) {
+							remove((String) id);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	public Visibles get(String userId) {
+		final Visibles visibles = cache.get(userId);
+		if (visibles != null && visibles.expire < System.currentTimeMillis()) {
+			remove(userId);
+			return null;
+		}
+		return visibles;
+	}
+
+	private void remove(String userId) {
+		final Visibles visibles = cache.remove(userId);
+		if (visibles != null) {
+			visibles.release();
+		}
+	}
+
+	public long generation() {
+		return generation;
+	}
+
+	/**
+	 * @param rows the materialization query rows
+	 * @return the ids of the visible groups whose members aren't cached, to load with {@link #MEMBERS_QUERY}.
+	 */
+	public JsonArray missingMembers(JsonArray rows) {
+		final JsonArray groupIds = new fr.wseduc.webutils.collections.JsonArray();
+		final long now = System.currentTimeMillis();
+		for (Object o : rows) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject row = (JsonObject) o;
+			if (row.getString("id") == null || row.getBoolean("isUser", false) || row.getBoolean("direct", false)) {
+				continue;
+			}
+			final Integer i = indexes.get(row.getString("id"));
+			final Members m = (i != null) ? members.get(i) : null;
+			if (m == null || m.expire < now) {
+				groupIds.add(row.getString("id"));
+			}
+		}
+		return groupIds;
+	}
+
+	/**
+	 * Builds the visibles of the user from the materialization query rows and the rows of {@link #MEMBERS_QUERY}
+	 * for the groups returned by {@link #missingMembers(JsonArray)}.
+	 * They are only cached if no eviction has been received since the query was sent, otherwise their indexes
+	 * are released once the current event has been handled.
+	 */
+	public Visibles put(String userId, long queryGeneration, JsonArray rows, JsonArray groupsMembers) {
+		final Visibles visibles = new Visibles(rows, groupsMembers, System.currentTimeMillis() + ttl);
+		if (queryGeneration == generation) {
+			final Visibles old = cache.put(userId, visibles);
+			if (old != null) {
+				old.release();
+			}
+		} else {
+			vertx.runOnContext(new Handler<Void>() {
+				@Override
+				public void handle(Void v) {
+					visibles.release();
+				}
+			});
+		}
+		return visibles;
+	}
+
+	public void evict(JsonArray userIds) {
+		if (userIds == null || userIds.size() > 0) {
+			generation++;
+			eb.publish(ADDRESS, new JsonObject().put("userIds", userIds));
+		}
+	}
+
+	public void clear() {
+		log.info("Clear visibles cache.");
+		evict(null);
+	}
+
+	/**
+	 * @return the number of indexed users and groups, referenced by the cached entries.
+	 */
+	int indexSize() {
+		return indexes.size();
+	}
+
+	private void resetIndex() {
+		indexGeneration++;
+		indexes.clear();
+		ids.clear();
+		searchFields.clear();
+		profiles.clear();
+		blocked.clear();
+		freeIndexes.clear();
+		references = new int[16];
+		members.clear();
+	}
+
+	private int index(JsonObject row) {
+		final String id = row.getString("id");
+		Integer i = indexes.get(id);
+		if (i == null) {
+			if (freeIndexes.isEmpty()) {
+				i = ids.size();
+				ids.add(id);
+				searchFields.add(null);
+				if (i >= references.length) {
+					references = Arrays.copyOf(references, references.length * 2);
+				}
+			} else {
+				i = freeIndexes.pop();
+				ids.set(i, id);
+			}
+			indexes.put(id, i);
+		}
+		searchFields.set(i, row.getString("searchField"));
+		blocked.set(i, row.getBoolean("blocked", false));
+		final String profile = row.getString("profile");
+		for (Map.Entry<String, BitSet> e : profiles.entrySet()) {
+			e.getValue().clear(i);
+		}
+		if (profile != null) {
+			BitSet p = profiles.get(profile);
+			if (p == null) {
+				p = new BitSet();
+				profiles.put(profile, p);
+			}
+			p.set(i);
+		}
+		return i;
+	}
+
+	private void acquire(int[] a) {
+		for (int i : a) {
+			references[i]++;
+		}
+	}
+
+	private void release(int[] a) {
+		for (int i : a) {
+			if (--references[i] == 0) {
+				indexes.remove(ids.get(i));
+				ids.set(i, null);
+				searchFields.set(i, null);
+				blocked.clear(i);
+				for (BitSet p : profiles.values()) {
+					p.clear(i);
+				}
+				freeIndexes.push(i);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the members of the loaded groups. Members are only kept if all of them are indexed.
+	 * Replaced members still referenced by entries are detached and released with their last entry.
+	 */
+	private void putMembers(JsonArray groupsMembers) {
+		if (groupsMembers == null) return;
+		final long expire = System.currentTimeMillis() + ttl;
+		for (Object o : groupsMembers) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject row = (JsonObject) o;
+			final Integer group = indexes.get(row.getString("id"));
+			if (group == null) continue;
+			final BitSet b = new BitSet();
+			boolean indexed = true;
+			for (Object id : row.getJsonArray("members", new fr.wseduc.webutils.collections.JsonArray())) {
+				final Integer i = indexes.get(id);
+				if (i == null) {
+					indexed = false;
+					break;
+				}
+				b.set(i);
+			}
+			final Members old = members.get(group);
+			if (!indexed) {
+				if (old != null && old.references == 0) {
+					dropMembers(group);
+				}
+				continue;
+			}
+			final Members m = new Members(group, b.stream().toArray(), expire);
+			acquire(m.users);
+			acquire(new int[] { group });
+			if (old != null) {
+				if (old.references == 0) {
+					dropMembers(group);
+				} else {
+					members.remove(group);
+				}
+			}
+			members.put(group, m);
+		}
+	}
+
+	private void dropMembers(int group) {
+		final Members m = members.remove(group);
+		if (m != null) {
+			release(m.users);
+			release(new int[] { group });
+		}
+	}
+
+	private void releaseMembers(Members m) {
+		if (--m.references > 0) return;
+		if (members.get(m.group) == m) {
+			dropMembers(m.group);
+		} else {
+			release(m.users);
+			release(new int[] { m.group });
+		}
+	}
+
+	private static void set(BitSet b, int[] a) {
+		for (int i : a) {
+			b.set(i);
+		}
+	}
+
+	private JsonArray toIds(BitSet bitmap) {
+		final JsonArray a = new fr.wseduc.webutils.collections.JsonArray();
+		for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+			a.add(ids.get(i));
+		}
+		return a;
+	}
+
+	private static final class Members {
+
+		private final int group;
+		private final int[] users;
+		private final long expire;
+		private int references = 0;
+
+		private Members(int group, int[] users, long expire) {
+			this.group = group;
+			this.users = users;
+			this.expire = expire;
+		}
+
+	}
+
+	public class Visibles {
+
+		private final long expire;
+		private final long indexGeneration;
+		private final int[] users;
+		private final int[] groups;
+		private final int[] myGroupUsers;
+		private final int[] myGroupGroups;
+		private final int[] directUsers;
+		// members of the groups whose members are all far visible users
+		private final Members[] membersOf;
+		private boolean released = false;
+
+		private Visibles(JsonArray rows, JsonArray groupsMembers, long expire) {
+			this.expire = expire;
+			this.indexGeneration = VisiblesCache.this.indexGeneration;
+			final BitSet users = new BitSet();
+			final BitSet groups = new BitSet();
+			final BitSet myGroupUsers = new BitSet();
+			final BitSet myGroupGroups = new BitSet();
+			final BitSet directUsers = new BitSet();
+			for (Object o : rows) {
+				if (!(o instanceof JsonObject)) continue;
+				final JsonObject row = (JsonObject) o;
+				if (row.getString("id") == null) continue;
+				final int i = index(row);
+				final boolean user = row.getBoolean("isUser", false);
+				if (row.getBoolean("direct", false)) {
+					directUsers.set(i);
+				} else if (row.getBoolean("far", false)) {
+					(user ? users : groups).set(i);
+				} else {
+					(user ? myGroupUsers : myGroupGroups).set(i);
+				}
+			}
+			this.groups = groups.stream().toArray();
+			this.myGroupUsers = myGroupUsers.stream().toArray();
+			this.myGroupGroups = myGroupGroups.stream().toArray();
+			this.directUsers = directUsers.stream().toArray();
+			acquire(this.groups);
+			acquire(this.myGroupUsers);
+			acquire(this.myGroupGroups);
+			acquire(this.directUsers);
+			final int[] farUsers = users.stream().toArray();
+			acquire(farUsers);
+			putMembers(groupsMembers);
+
+			final List<Members> membersOf = new ArrayList<>();
+			final BitSet others = (BitSet) users.clone();
+			for (int[] g : new int[][] { this.groups, this.myGroupGroups }) {
+				for (int group : g) {
+					final Members m = members.get(group);
+					if (m == null || m.users.length == 0 || !contains(users, m.users)) continue;
+					membersOf.add(m);
+					m.references++;
+					for (int i : m.users) {
+						others.clear(i);
+					}
+				}
+			}
+			this.membersOf = membersOf.toArray(new Members[membersOf.size()]);
+			this.users = others.stream().toArray();
+			acquire(this.users);
+			VisiblesCache.this.release(farUsers);
+			dropUnreferencedMembers(groupsMembers);
+		}
+
+		private boolean contains(BitSet b, int[] a) {
+			for (int i : a) {
+				if (!b.get(i)) return false;
+			}
+			return true;
+		}
+
+		private void dropUnreferencedMembers(JsonArray groupsMembers) {
+			if (groupsMembers == null) return;
+			for (Object o : groupsMembers) {
+				if (!(o instanceof JsonObject)) continue;
+				final Integer group = indexes.get(((JsonObject) o).getString("id"));
+				if (group == null) continue;
+				final Members m = members.get(group);
+				if (m != null && m.references == 0) {
+					dropMembers(group);
+				}
+			}
+		}
+
+		private void release() {
+			if (released || indexGeneration != VisiblesCache.this.indexGeneration) {
+				return;
+			}
+			released = true;
+			for (Members m : membersOf) {
+				releaseMembers(m);
+			}
+			VisiblesCache.this.release(users);
+			VisiblesCache.this.release(groups);
+			VisiblesCache.this.release(myGroupUsers);
+			VisiblesCache.this.release(myGroupGroups);
+			VisiblesCache.this.release(directUsers);
+		}
+
+		private BitSet users(boolean myGroup, boolean direct) {
+			final BitSet b = new BitSet();
+			set(b, users);
+			for (Members m : membersOf) {
+				set(b, m.users);
+			}
+			if (myGroup) {
+				set(b, myGroupUsers);
+			}
+			if (direct) {
+				set(b, directUsers);
+			}
+			return b;
+		}
+
+		public JsonArray userIds(boolean myGroup, boolean direct) {
+			return toIds(users(myGroup, direct));
+		}
+
+		public JsonArray groupIds(boolean myGroup) {
+			final BitSet b = new BitSet();
+			set(b, groups);
+			if (myGroup) {
+				set(b, myGroupGroups);
+			}
+			return toIds(b);
+		}
+
+		/**
+		 * Filters the visible users with the profiles and search bitmaps and returns the requested page,
+		 * ordered by search field.
+		 * @return the ids of the page and the count of matching users.
+		 */
+		public JsonObject page(String userId, boolean direct, JsonArray profileFilter, String search,
+				int skip, int limit) {
+			final BitSet b = users(true, direct);
+			b.andNot(blocked);
+			final Integer self = indexes.get(userId);
+			if (self != null) {
+				b.clear(self);
+			}
+			if (profileFilter != null && profileFilter.size() > 0) {
+				final BitSet p = new BitSet();
+				for (Object o : profileFilter) {
+					final BitSet pb = profiles.get(o);
+					if (pb != null) {
+						p.or(pb);
+					}
+				}
+				b.and(p);
+			}
+			final List<Integer> matching = new ArrayList<>(b.cardinality());
+			for (int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1)) {
+				if (search != null && !search.isEmpty()) {
+					final String s = searchFields.get(i);
+					if (s == null || !s.contains(search)) continue;
+				}
+				matching.add(i);
+			}
+			matching.sort(Comparator.comparing(searchFields::get, Comparator.nullsLast(Comparator.<String>naturalOrder())));
+			final JsonArray page = new fr.wseduc.webutils.collections.JsonArray();
+			for (int j = Math.max(skip, 0); j < matching.size() && j < skip + limit; j++) {
+				page.add(ids.get(matching.get(j)));
+			}
+			return new JsonObject().put("count", matching.size()).put("ids", page);
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.entcore.communication.services.impl;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DefaultRulesDiffTest {
+
+	private static final Pattern ALIAS = Pattern.compile(" as (\\w+)");
+
+	/**
+	 * Builds a row of the query, the values being given in the order of the columns of its RETURN clause.
+	 */
+	private static JsonObject row(String query, Object... values) {
+		final List<String> columns = new ArrayList<>();
+		final Matcher m = ALIAS.matcher(query.substring(query.lastIndexOf("RETURN ")));
+		while (m.find()) {
+			columns.add(m.group(1));
+		}
+		Assert.assertEquals(columns.size(), values.length);
+		final JsonObject row = new JsonObject();
+		for (int i = 0; i < values.length; i++) {
+			row.put(columns.get(i), values[i]);
+		}
+		return row;
+	}
+
+	private static JsonObject userRow(String groupId, String direction, String userId, boolean incoming, boolean outgoing) {
+		return row(DefaultRulesDiff.USERS_QUERY, groupId, direction, userId, incoming, outgoing);
+	}
+
+	private static List<Object> links(JsonObject statement) {
+		return statement.getJsonObject("parameters").getJsonArray("links").getList();
+	}
+
+	private static JsonObject link(String from, String to) {
+		return new JsonObject().put("from", from).put("to", to);
+	}
+
+	@Test
+	public void statements_shouldOnlyCreateLinksNotStored_GivenRowsWithStoredLinks() {
+		JsonArray groups = new JsonArray()
+				.add(row(DefaultRulesDiff.GROUPS_QUERY, "g1", new JsonArray().add("g2"), new JsonArray().add("g2")));
+		JsonArray users = new JsonArray()
+				// incoming stored, outgoing missing
+				.add(userRow("g1", "BOTH", "u1", true, false))
+				// outgoing stored but not required
+				.add(userRow("g2", "INCOMING", "u2", true, true));
+		JsonArray relatives = new JsonArray()
+				.add(row(DefaultRulesDiff.RELATIVES_QUERY, "BOTH", "r1", "s1", true, true))
+				.add(row(DefaultRulesDiff.RELATIVES_QUERY, "OUTGOING", "r2", "s2", false, false));
+
+		DefaultRulesDiff diff = new DefaultRulesDiff(groups, users, relatives);
+		List<JsonObject> statements = diff.statements(1000);
+
+		Assert.assertEquals(2, diff.size());
+		Assert.assertEquals(2, statements.size());
+		Assert.assertTrue(statements.get(0).getString("statement").contains("MERGE g-[:COMMUNIQUE]->u"));
+		Assert.assertEquals(Arrays.asList(link("g1", "u1")), links(statements.get(0)));
+		Assert.assertTrue(statements.get(1).getString("statement").contains("MERGE u-[:COMMUNIQUE_DIRECT]->r"));
+		Assert.assertEquals(Arrays.asList(link("r2", "s2")), links(statements.get(1)));
+	}
+
+	@Test
+	public void isUnchanged_shouldSkipStructure_OnlyWhenStoredChecksumMatches() {
+		JsonArray g1 = new JsonArray().add("g1").add(new JsonArray().add("g2")).add("BOTH").addNull().add(1)
+				.add(30).add(30).add(30).add(0).add(0).add(0);
+		JsonArray g2 = new JsonArray().add("g2").addNull().add("INCOMING").add("BOTH").add(0)
+				.add(12).add(12).add(0).add(20).add(20).add(20);
+		JsonObject firstRun = row(DefaultRulesDiff.CHECKSUM_QUERY, null, new JsonArray().add(g1).add(g2));
+		Assert.assertFalse(DefaultRulesDiff.isUnchanged(firstRun));
+
+		// checksum stored once the links are created
+		String stored = DefaultRulesDiff.checksum(firstRun);
+		Assert.assertTrue(DefaultRulesDiff.isUnchanged(
+				row(DefaultRulesDiff.CHECKSUM_QUERY, stored, new JsonArray().add(g2).add(g1))));
+
+		// a user link removed since the last run
+		JsonArray g1MissingLink = g1.copy();
+		g1MissingLink.getList().set(7, 29);
+		Assert.assertFalse(DefaultRulesDiff.isUnchanged(
+				row(DefaultRulesDiff.CHECKSUM_QUERY, stored, new JsonArray().add(g1MissingLink).add(g2))));
+	}
+
+	@Test
+	public void diff_shouldOnlyContainMissingLinks() {
+		JsonArray groups = new JsonArray()
+				.add(row(DefaultRulesDiff.GROUPS_QUERY, "g1", new JsonArray().add("g2").add("g3"), new JsonArray().add("g2")));
+		JsonArray users = new JsonArray()
+				.add(userRow("g1", "BOTH", "u1", true, false))
+				.add(userRow("g1", "BOTH", "u2", true, true))
+				.add(userRow("g2", "OUTGOING", "u3", false, false));
+		JsonArray relatives = new JsonArray()
+				.add(row(DefaultRulesDiff.RELATIVES_QUERY, "INCOMING", "r1", "s1", false, false));
+
+		DefaultRulesDiff diff = new DefaultRulesDiff(groups, users, relatives);
+
+		// g1->g3, g1->u1, g2->u3, s1->r1
+		Assert.assertEquals(4, diff.size());
+		Assert.assertEquals(3, diff.statements(1000).size());
+	}
+
+	@Test
+	public void statements_shouldBeSplitInBatches_GivenManyStructures() {
+		JsonArray users = new JsonArray();
+		for (int s = 0; s < 20; s++) {
+			for (int u = 0; u < 250; u++) {
+				users.add(userRow("g" + s, "INCOMING", "u" + s + "-" + u, false, false));
+			}
+		}
+
+		DefaultRulesDiff diff = new DefaultRulesDiff(new JsonArray(), users, new JsonArray());
+		List<JsonObject> statements = diff.statements(1000);
+
+		Assert.assertEquals(5000, diff.size());
+		Assert.assertEquals(5, statements.size());
+		Assert.assertEquals(1000, statements.get(0).getJsonObject("parameters").getJsonArray("links").size());
+	}
+
+	@Test
+	public void diff_shouldBeEmpty_WhenAllLinksExist() {
+		JsonArray users = new JsonArray().add(userRow("g1", "BOTH", "u1", true, true));
+
+		DefaultRulesDiff diff = new DefaultRulesDiff(new JsonArray(), users, new JsonArray());
+
+		Assert.assertEquals(0, diff.size());
+		Assert.assertTrue(diff.statements(1000).isEmpty());
+	}
+
+	@Test
+	public void checksum_shouldIgnoreOrder_AndChangeWithLinks() {
+		JsonArray g1 = new JsonArray().add("g1").add(new JsonArray().add("g2")).add("BOTH").addNull().add(1)
+				.add(30).add(30).add(30).add(0).add(0).add(0);
+		JsonArray g2 = new JsonArray().add("g2").addNull().add("INCOMING").add("BOTH").add(0)
+				.add(12).add(12).add(0).add(20).add(20).add(20);
+		JsonArray g2MissingLink = g2.copy();
+		g2MissingLink.getList().set(6, 11);
+
+		String checksum = DefaultRulesDiff.checksum(new JsonArray().add(g1).add(g2));
+
+		Assert.assertEquals(checksum, DefaultRulesDiff.checksum(new JsonArray().add(g2).add(g1)));
+		Assert.assertNotEquals(checksum, DefaultRulesDiff.checksum(new JsonArray().add(g1).add(g2MissingLink)));
+		Assert.assertNotEquals(checksum, DefaultRulesDiff.checksum(new JsonArray().add(g1)));
+	}
+
+}
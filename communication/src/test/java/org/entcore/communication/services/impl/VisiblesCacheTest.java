@@ -0,0 +1,144 @@
+package org.entcore.communication.services.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class VisiblesCacheTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void prepare() {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void close() {
+		vertx.close();
+	}
+
+	private static JsonObject user(String id, String profile, boolean far) {
+		return new JsonObject().put("id", id).put("isUser", true).put("far", far).put("direct", false)
+				.put("profile", profile).put("searchField", id);
+	}
+
+	private static JsonObject group(String id, boolean far) {
+		return new JsonObject().put("id", id).put("isUser", false).put("far", far).put("direct", false);
+	}
+
+	private static JsonArray rows(String prefix, int members) {
+		final JsonArray rows = new JsonArray().add(group(prefix + "g", false)).add(user(prefix + "self", "Teacher", false));
+		for (int i = 0; i < members; i++) {
+			rows.add(user(prefix + "u" + i, i % 2 == 0 ? "Student" : "Relative", true));
+		}
+		return rows.add(user(prefix + "other", "Teacher", true));
+	}
+
+	private static JsonArray members(String prefix, int members) {
+		final JsonArray ids = new JsonArray();
+		for (int i = 0; i < members; i++) {
+			ids.add(prefix + "u" + i);
+		}
+		return new JsonArray().add(new JsonObject().put("id", prefix + "g").put("members", ids));
+	}
+
+	@Test
+	public void userIds_shouldContainGroupMembersAndOtherUsers() {
+		VisiblesCache cache = new VisiblesCache(vertx, 10, 60000L);
+		JsonArray rows = rows("a", 4);
+
+		Assert.assertEquals(Arrays.asList("ag"), cache.missingMembers(rows).getList());
+		VisiblesCache.Visibles visibles = cache.put("aself", cache.generation(), rows, members("a", 4));
+
+		Assert.assertEquals(5, visibles.userIds(false, false).size());
+		Assert.assertEquals(6, visibles.userIds(true, false).size());
+		Assert.assertEquals(Arrays.asList("ag"), visibles.groupIds(true).getList());
+		Assert.assertEquals(0, cache.missingMembers(rows).size());
+	}
+
+	@Test
+	public void userIds_shouldKeepUsers_WhenGroupMembersAreNotAllVisible() {
+		VisiblesCache cache = new VisiblesCache(vertx, 10, 60000L);
+		JsonArray groupMembers = members("a", 4);
+		groupMembers.getJsonObject(0).getJsonArray("members").add("invisible");
+
+		VisiblesCache.Visibles visibles = cache.put("aself", cache.generation(), rows("a", 4), groupMembers);
+
+		Assert.assertEquals(5, visibles.userIds(false, false).size());
+		Assert.assertFalse(visibles.userIds(false, false).contains("invisible"));
+	}
+
+	@Test
+	public void page_shouldFilterByProfileAndSearch() {
+		VisiblesCache cache = new VisiblesCache(vertx, 10, 60000L);
+		VisiblesCache.Visibles visibles = cache.put("aself", cache.generation(), rows("a", 10), members("a", 10));
+
+		JsonObject students = visibles.page("aself", false, new JsonArray().add("Student"), null, 1, 2);
+		Assert.assertEquals(5, (int) students.getInteger("count"));
+		Assert.assertEquals(Arrays.asList("au2", "au4"), students.getJsonArray("ids").getList());
+
+		JsonObject search = visibles.page("aself", false, null, "u1", 0, 10);
+		Assert.assertEquals(Arrays.asList("au1"), search.getJsonArray("ids").getList());
+	}
+
+	@Test
+	public void index_shouldBeReleased_WhenEntriesAreEvicted() {
+		VisiblesCache cache = new VisiblesCache(vertx, 1, 60000L);
+		cache.put("aself", cache.generation(), rows("a", 100), members("a", 100));
+		int size = cache.indexSize();
+
+		for (int i = 0; i < 50; i++) {
+			cache.put("b" + i + "self", cache.generation(), rows("b" + i, 100), members("b" + i, 100));
+		}
+
+		Assert.assertEquals(size, cache.indexSize());
+		Assert.assertNull(cache.get("aself"));
+		VisiblesCache.Visibles visibles = cache.get("b49self");
+		Assert.assertEquals(101, visibles.userIds(false, false).size());
+		Assert.assertTrue(visibles.userIds(false, false).contains("b49u99"));
+	}
+
+	private static JsonArray sharedGroupRows(String self, String... members) {
+		final JsonArray rows = new JsonArray().add(group("sg", false)).add(user(self, "Teacher", false));
+		for (String member : members) {
+			rows.add(user(member, "Student", true));
+		}
+		return rows;
+	}
+
+	private static JsonArray sharedGroupMembers(String... members) {
+		return new JsonArray().add(new JsonObject().put("id", "sg").put("members", new JsonArray(Arrays.asList(members))));
+	}
+
+	@Test
+	public void userIds_shouldKeepLoadedMembers_WhenSharedGroupMembersAreReplaced() {
+		VisiblesCache cache = new VisiblesCache(vertx, 10, 60000L);
+		VisiblesCache.Visibles a = cache.put("aself", cache.generation(),
+				sharedGroupRows("aself", "s1", "s2"), sharedGroupMembers("s1", "s2"));
+		VisiblesCache.Visibles b = cache.put("bself", cache.generation(),
+				sharedGroupRows("bself", "s1", "s3"), sharedGroupMembers("s1", "s3"));
+
+		Assert.assertEquals(Arrays.asList("s1", "s2"), a.userIds(false, false).getList());
+		Assert.assertEquals(Arrays.asList("s1", "s3"), b.userIds(false, false).getList());
+	}
+
+	@Test
+	public void index_shouldReleaseReplacedMembers_WhenLastEntryIsEvicted() {
+		VisiblesCache cache = new VisiblesCache(vertx, 1, 60000L);
+		cache.put("aself", cache.generation(), sharedGroupRows("aself", "s1", "s2"), sharedGroupMembers("s1", "s2"));
+		cache.put("bself", cache.generation(), sharedGroupRows("bself", "s1", "s3"), sharedGroupMembers("s1", "s3"));
+
+		Assert.assertNull(cache.get("aself"));
+		Assert.assertEquals(Arrays.asList("s1", "s3"), cache.get("bself").userIds(false, false).getList());
+		// sg, bself, s1, s3
+		Assert.assertEquals(4, cache.indexSize());
+	}
+
+}
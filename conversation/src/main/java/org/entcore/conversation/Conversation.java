@@ -24,6 +24,7 @@ import org.entcore.common.http.BaseServer;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.storage.StorageFactory;
 import org.entcore.conversation.controllers.ConversationController;
+import org.entcore.conversation.service.impl.ConversationCounters;
 import org.entcore.conversation.service.impl.ConversationRepositoryEvents;
 import org.entcore.conversation.service.impl.ConversationStorage;
 import org.entcore.conversation.service.impl.DeleteOrphan;
@@ -52,7 +53,19 @@ public class Conversation extends BaseServer {
 		final String deleteOrphanCron = config.getString("deleteOrphanCron");
 		if (deleteOrphanCron != null) {
 			try {
-				new CronTrigger(vertx, deleteOrphanCron).schedule(new DeleteOrphan(storage));
+				new CronTrigger(vertx, deleteOrphanCron).schedule(new DeleteOrphan(storage,
+						config.getInteger("deleteOrphanBatchSize", 1000), config.getInteger("deleteOrphanConcurrency", 4)));
+			} catch (ParseException e) {
+				log.error("Invalid cron expression.", e);
+			}
+		}
+
+		// counters are maintained by deltas, the daily reconciliation fixes their drift
+		final String reconcileCountersCron = config.getString("reconcileCountersCron", "0 0 3 * * ? *");
+		if (!reconcileCountersCron.isEmpty()) {
+			try {
+				new CronTrigger(vertx, reconcileCountersCron).schedule(
+						new ConversationCounters(config.getInteger("reconcileCountersPageSize", 500)));
 			} catch (ParseException e) {
 				log.error("Invalid cron expression.", e);
 			}
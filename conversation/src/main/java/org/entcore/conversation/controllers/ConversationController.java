@@ -51,6 +51,7 @@ import org.entcore.conversation.filters.VisiblesFilter;
 import org.entcore.conversation.filters.FoldersFilter;
 import org.entcore.conversation.filters.FoldersMessagesFilter;
 import org.entcore.conversation.service.ConversationService;
+import org.entcore.conversation.service.impl.DisplayNamesCache;
 import org.entcore.conversation.service.impl.Neo4jConversationService;
 import org.entcore.conversation.service.impl.SqlConversationService;
 
@@ -108,7 +109,8 @@ public class ConversationController extends BaseController {
 				config.getString("app-name", Conversation.class.getSimpleName()));
 				*/
 		this.conversationService = new SqlConversationService(vertx, config.getString("db-schema", "conversation"));
-		this.neoConversationService = new Neo4jConversationService();
+		this.neoConversationService = new Neo4jConversationService(new DisplayNamesCache(vertx,
+				config.getInteger("displayNamesCacheSize", 10000), config.getLong("displayNamesCacheTtl", 600000L)));
 		notification = new TimelineHelper(vertx, eb, config);
 		eventStore = EventStoreFactory.getFactory().getEventStore(Conversation.class.getSimpleName());
 		this.threshold = config.getInteger("alertStorage", 80);
@@ -250,12 +252,14 @@ public class ConversationController extends BaseController {
 
 								conversationService.send(parentMessageId, id, message, user, new Handler<Either<String,JsonObject>>() {
 									public void handle(Either<String, JsonObject> event) {
-										if(event.isRight()){
+										if(event.isRight() && size.get() > 0){
+											JsonArray recipients = new fr.wseduc.webutils.collections.JsonArray();
 											for(Object recipient : message.getJsonArray("allUsers", new fr.wseduc.webutils.collections.JsonArray())){
 												if(recipient.toString().equals(user.getUserId()))
 													continue;
-												updateUserQuota(recipient.toString(), size.get());
+												recipients.add(recipient.toString());
 											}
+											updateUsersQuota(recipients, size.get());
 										}
 										result.handle(event);
 									}
@@ -392,6 +396,7 @@ public class ConversationController extends BaseController {
 			return;
 		}
 		final String p = Utils.getOrElse(request.params().get("page"), "0", false);
+		final String cursor = request.params().get("cursor");
 		if (folder == null || folder.trim().isEmpty()) {
 			badRequest(request);
 			return;
@@ -399,7 +404,30 @@ public class ConversationController extends BaseController {
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
-				if (user != null) {
+				if (user != null && cursor != null) {
+					Boolean b = null;
+					if (unread != null && !unread.isEmpty()) {
+						b = Boolean.valueOf(unread);
+					}
+					conversationService.list(folder, restrain, b, user, cursor, search, new Handler<Either<String, JsonObject>>() {
+						@Override
+						public void handle(Either<String, JsonObject> r) {
+							if (r.isRight()) {
+								for (Object o : r.right().getValue().getJsonArray("results")) {
+									if (!(o instanceof JsonObject)) {
+										continue;
+									}
+									translateGroupsNames((JsonObject) o, user, request);
+								}
+								renderJson(request, r.right().getValue());
+							} else {
+								JsonObject error = new JsonObject()
+										.put("error", r.left().getValue());
+								renderJson(request, error, 400);
+							}
+						}
+					});
+				} else if (user != null) {
 					int page;
 					try {
 						page = Integer.parseInt(p);
@@ -530,10 +558,30 @@ public class ConversationController extends BaseController {
 	@SecuredAction(value = "conversation.threads.list")
 	public void listThreads(final HttpServerRequest request){
 		final String p = Utils.getOrElse(request.params().get("page"), "0", false);
+		final String cursor = request.params().get("cursor");
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
-				if (user != null) {
+				if (user != null && cursor != null) {
+					conversationService.listThreads(user, cursor, new Handler<Either<String, JsonObject>>() {
+						@Override
+						public void handle(Either<String, JsonObject> r) {
+							if (r.isRight()) {
+								for (Object o : r.right().getValue().getJsonArray("results")) {
+									if (!(o instanceof JsonObject)) {
+										continue;
+									}
+									translateGroupsNames((JsonObject) o, user, request);
+								}
+								renderJson(request, r.right().getValue());
+							} else {
+								JsonObject error = new JsonObject()
+										.put("error", r.left().getValue());
+								renderJson(request, error, 400);
+							}
+						}
+					});
+				} else if (user != null) {
 					int page;
 					try {
 						page = Integer.parseInt(p);
@@ -1608,10 +1656,6 @@ public class ConversationController extends BaseController {
 		}));
 	}
 
-	private void updateUserQuota(final String userId, long size){
-		updateUserQuota(userId, size, null);
-	}
-
 	private void updateUserQuota(final String userId, long size, final Handler<Void> continuation){
 		JsonObject message = new JsonObject();
 		message.put("action", "updateUserQuota");
@@ -1633,6 +1677,44 @@ public class ConversationController extends BaseController {
 		}));
 	}
 
+	/**
+	 * Increments the storage of the recipients with one quota update and one sessions update.
+	 */
+	private void updateUsersQuota(final JsonArray userIds, long size){
+		if (userIds.size() == 0) {
+			return;
+		}
+		JsonObject message = new JsonObject();
+		message.put("action", "updateUsersQuota");
+		message.put("userIds", userIds);
+		message.put("size", size);
+		message.put("threshold", threshold);
+
+		eb.send(QUOTA_BUS_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+			public void handle(Message<JsonObject> reply) {
+				if (!"ok".equals(reply.body().getString("status"))) {
+					log.error("Error updating recipients quota : " + reply.body().getString("message"));
+					return;
+				}
+				JsonObject storages = new JsonObject();
+				List<String> notify = new ArrayList<>();
+				for (Object o : reply.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray())) {
+					if (!(o instanceof JsonObject)) continue;
+					JsonObject u = (JsonObject) o;
+					storages.put(u.getString("id"), u.getLong("storage"));
+					if (u.getBoolean("notify", false)) {
+						notify.add(u.getString("id"));
+					}
+				}
+				UserUtils.addSessionAttributes(eb, "storage", storages, null);
+				if (!notify.isEmpty()) {
+					notification.notifyTimeline(new JsonHttpServerRequest(new JsonObject()),
+							"messagerie.storage", null, notify, null, new JsonObject());
+				}
+			}
+		}));
+	}
+
 	private void notifyEmptySpaceIsSmall(String userId) {
 		List<String> recipients = new ArrayList<>();
 		recipients.add(userId);
@@ -60,8 +60,20 @@ public interface ConversationService {
 
 	void list(String folder, String restrain, Boolean unread, UserInfos user, int page, String searchWords, Handler<Either<String, JsonArray>> results);
 
+	/**
+	 * Keyset paginated listing : the page starts after the cursor returned with the previous page
+	 * (first page if the cursor is null or empty). Replies the messages and the cursor of the next page,
+	 * null on the last page. The total count is not computed, use count.
+	 */
+	void list(String folder, String restrain, Boolean unread, UserInfos user, String cursor, String searchWords, Handler<Either<String, JsonObject>> results);
+
 	void listThreads(UserInfos user, int page, Handler<Either<String, JsonArray>> results);
 
+	/**
+	 * Keyset paginated threads listing, replies the threads and the cursor of the next page, null on the last page.
+	 */
+	void listThreads(UserInfos user, String cursor, Handler<Either<String, JsonObject>> results);
+
 	void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results);
 
 	void listThreadMessagesNavigation(String messageId, boolean previous, UserInfos user, Handler<Either<String, JsonArray>> results);
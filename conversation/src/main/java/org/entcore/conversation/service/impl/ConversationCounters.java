@@ -0,0 +1,272 @@
+/*
+ * Copyright © "Open Digital Education", 2017
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.conversation.service.impl;
+
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.sql.Sql;
+import org.entcore.common.sql.SqlResult;
+import org.entcore.common.sql.SqlStatementsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per user and per folder messages counters, so the count of a folder is a primary key lookup.
+ * The folder key is INBOX, OUTBOX, DRAFT, TRASH or the id of a user folder.
+ * Counters are maintained in the transactions modifying the user messages by applying the differences
+ * computed on the modified rows only, and the handler reconciles them periodically with the user messages,
+ * by pages of users.
+ */
+public class ConversationCounters implements Handler<Long> {
+
+	private static final Logger log = LoggerFactory.getLogger(ConversationCounters.class);
+	public static final String TABLE = "conversation.usercounters";
+	public static final List<String> SYSTEM_FOLDERS = Arrays.asList("INBOX", "OUTBOX", "DRAFT", "TRASH");
+	private static final long TIMEOUT = 300000l;
+
+	private static final String RECEIVED =
+			"(m.from <> um.user_id OR m.to @> jsonb_build_array(um.user_id) OR " +
+			"coalesce(m.cc @> jsonb_build_array(um.user_id), false)) ";
+
+	private static final String USERS_PAGE =
+			"SELECT DISTINCT user_id FROM conversation.usermessages WHERE user_id > ? ORDER BY user_id LIMIT ?";
+
+	/**
+	 * Applies the deltas of the d cte to the counters. Counters are never negative, the reconcile job
+	 * fixes the drift of concurrent modifications.
+	 */
+	private static final String APPLY_DELTAS =
+			", updated AS (UPDATE " + TABLE + " AS c SET total = greatest(c.total + d.total, 0), " +
+			"unread = greatest(c.unread + d.unread, 0) FROM d " +
+			"WHERE c.user_id = d.user_id AND c.folder = d.folder AND (d.total <> 0 OR d.unread <> 0) " +
+			"RETURNING c.user_id, c.folder) " +
+			"INSERT INTO " + TABLE + " (user_id, folder, total, unread) " +
+			"SELECT d.user_id, d.folder, d.total, greatest(d.unread, 0) FROM d WHERE d.total > 0 AND NOT EXISTS " +
+			"(SELECT 1 FROM updated u WHERE u.user_id = d.user_id AND u.folder = d.folder) " +
+			"ORDER BY d.user_id, d.folder " +
+			"ON CONFLICT (user_id, folder) DO NOTHING";
+
+	private final int pageSize;
+
+	public ConversationCounters(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Lateral join giving the counters keys of the user message um of the message m, with the same
+	 * conditions as the folders listings, and if the message counts as unread in this folder.
+	 * @param unread expression of the unread state of the user message.
+	 */
+	private static String keys(String unread) {
+		return "CROSS JOIN LATERAL (VALUES " +
+				"(CASE WHEN um.trashed THEN 'TRASH' END, " + unread + " AND m.state = 'SENT'), " +
+				"(CASE WHEN NOT um.trashed THEN um.folder_id END, " + unread + " AND m.state = 'SENT' AND " + RECEIVED + "), " +
+				"(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'SENT' AND " + RECEIVED +
+				"THEN 'INBOX' END, " + unread + "), " +
+				"(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'SENT' AND m.from = um.user_id " +
+				"THEN 'OUTBOX' END, " + unread + "), " +
+				"(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'DRAFT' AND m.from = um.user_id " +
+				"THEN 'DRAFT' END, " + unread + ")" +
+				") AS k(folder, unread) ";
+	}
+
+	/**
+	 * Recomputes the counters of the users.
+	 * @param userIds json array of the users ids.
+	 */
+	public static void refresh(SqlStatementsBuilder builder, String userIds) {
+		builder.prepared("DELETE FROM " + TABLE + " WHERE user_id IN (SELECT json_array_elements_text(?::json))",
+				new fr.wseduc.webutils.collections.JsonArray().add(userIds));
+		builder.prepared(
+				"INSERT INTO " + TABLE + " (user_id, folder, total, unread) " +
+				"SELECT um.user_id, k.folder, count(*), count(*) FILTER (WHERE k.unread) " +
+				"FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id " +
+				keys("um.unread") +
+				"WHERE k.folder IS NOT NULL AND um.user_id IN (SELECT json_array_elements_text(?::json)) " +
+				"GROUP BY um.user_id, k.folder " +
+				"ON CONFLICT (user_id, folder) DO UPDATE SET total = EXCLUDED.total, unread = EXCLUDED.unread",
+				new fr.wseduc.webutils.collections.JsonArray().add(userIds));
+	}
+
+	/**
+	 * Adds (sign 1) or removes (sign -1) the user messages to their folders counters.
+	 * Must be called after inserting or before deleting the user messages.
+	 * @param where condition on the user messages um joined to their messages m.
+	 */
+	public static void adjust(SqlStatementsBuilder builder, int sign, String where, JsonArray whereValues) {
+		final JsonArray values = new fr.wseduc.webutils.collections.JsonArray().add(sign).add(sign);
+		for (Object o : whereValues) {
+			values.add(o);
+		}
+		builder.prepared(
+				"WITH d AS (SELECT um.user_id, k.folder, count(*) * ? AS total, " +
+				"count(*) FILTER (WHERE k.unread) * ? AS unread " +
+				"FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id " +
+				keys("um.unread") +
+				"WHERE k.folder IS NOT NULL AND " + where + " GROUP BY um.user_id, k.folder) " +
+				APPLY_DELTAS,
+				values);
+	}
+
+	/**
+	 * Updates user messages and applies to the counters the difference between the folders
+	 * of the updated user messages before and after the update.
+	 * @param set assignments of the usermessages columns.
+	 * @param where condition on the user messages um joined to their messages m.
+	 */
+	public static void update(SqlStatementsBuilder builder, String set, JsonArray setValues, String where,
+			JsonArray whereValues) {
+		final JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object o : whereValues) {
+			values.add(o);
+		}
+		for (Object o : setValues) {
+			values.add(o);
+		}
+		builder.prepared(
+				"WITH o AS (SELECT um.user_id, um.message_id, um.trashed, um.folder_id, um.unread " +
+				"FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id " +
+				"WHERE " + where + " FOR UPDATE OF um), " +
+				"n AS (UPDATE conversation.usermessages AS um SET " + set + " FROM o " +
+				"WHERE um.user_id = o.user_id AND um.message_id = o.message_id " +
+				"RETURNING um.user_id, um.message_id, um.trashed, um.folder_id, um.unread), " +
+				"d AS (SELECT user_id, folder, sum(total) AS total, sum(unread) AS unread FROM (" +
+				"SELECT um.user_id, k.folder, 1 AS total, CASE WHEN k.unread THEN 1 ELSE 0 END AS unread " +
+				"FROM n AS um JOIN conversation.messages m ON um.message_id = m.id " + keys("um.unread") +
+				"UNION ALL " +
+				"SELECT um.user_id, k.folder, -1, CASE WHEN k.unread THEN -1 ELSE 0 END " +
+				"FROM o AS um JOIN conversation.messages m ON um.message_id = m.id " + keys("um.unread") +
+				") AS x WHERE folder IS NOT NULL GROUP BY user_id, folder)" +
+				APPLY_DELTAS,
+				values);
+	}
+
+	/**
+	 * Removes the counters of the user folders which no longer exist.
+	 */
+	public static void deleteFolders(SqlStatementsBuilder builder, String userId) {
+		builder.prepared(
+				"DELETE FROM " + TABLE + " AS c WHERE c.user_id = ? AND c.folder NOT IN ('INBOX', 'OUTBOX', 'DRAFT', 'TRASH') " +
+				"AND NOT EXISTS (SELECT 1 FROM conversation.folders f WHERE f.id = c.folder)",
+				new fr.wseduc.webutils.collections.JsonArray().add(userId));
+	}
+
+	/**
+	 * Adds a received message to the inbox counters of the recipients, the sender excluded.
+	 * Recipients are sorted to always lock the counters in the same order.
+	 */
+	public static void received(SqlStatementsBuilder builder, String recipientIds, String senderId) {
+		builder.prepared(
+				"INSERT INTO " + TABLE + " (user_id, folder, total, unread) " +
+				"SELECT r, 'INBOX', 1, 1 FROM (SELECT DISTINCT r FROM json_array_elements_text(?::json) AS r " +
+				"WHERE r <> ? ORDER BY r) AS recipients " +
+				"ON CONFLICT (user_id, folder) DO UPDATE SET total = " + TABLE + ".total + 1, " +
+				"unread = " + TABLE + ".unread + 1",
+				new fr.wseduc.webutils.collections.JsonArray().add(recipientIds).add(senderId));
+	}
+
+	/**
+	 * Sets the unread state of user messages and applies the difference to the counters.
+	 * @param where condition on the user messages, without the unread state.
+	 */
+	public static void toggleUnread(SqlStatementsBuilder builder, boolean unread, String where, JsonArray whereValues) {
+		final JsonArray values = new fr.wseduc.webutils.collections.JsonArray().add(unread);
+		for (Object o : whereValues) {
+			values.add(o);
+		}
+		values.add(unread).add(unread ? 1 : -1);
+		builder.prepared(
+				"WITH um AS (UPDATE conversation.usermessages SET unread = ? WHERE " + where + " AND unread <> ? " +
+				"RETURNING user_id, message_id, folder_id, trashed) " +
+				"UPDATE " + TABLE + " AS c SET unread = greatest(c.unread + d.delta, 0) " +
+				"FROM (SELECT um.user_id, k.folder, count(*) * ? AS delta FROM um " +
+				"JOIN conversation.messages m ON um.message_id = m.id " + keys("true") +
+				"WHERE k.folder IS NOT NULL AND k.unread GROUP BY um.user_id, k.folder) AS d " +
+				"WHERE c.user_id = d.user_id AND c.folder = d.folder",
+				values);
+	}
+
+	/**
+	 * @return the count query of the folder, or null if the folder has no counter.
+	 */
+	public static String countQuery(String folder, String restrain, Boolean unread, String userId, JsonArray values) {
+		final String key;
+		if (restrain != null) {
+			key = folder;
+		} else if (SYSTEM_FOLDERS.contains(folder.toUpperCase())) {
+			key = folder.toUpperCase();
+		} else {
+			return null;
+		}
+		values.add(userId).add(key);
+		return "SELECT coalesce((SELECT " + (Boolean.TRUE.equals(unread) ? "unread" : "total") + " FROM " + TABLE +
+				" WHERE user_id = ? AND folder = ?), 0) AS count";
+	}
+
+	@Override
+	public void handle(Long event) {
+		reconcile("", 0, System.currentTimeMillis());
+	}
+
+	private void reconcile(final String lastUserId, final int count, final long start) {
+		final Sql sql = Sql.getInstance();
+		sql.prepared(USERS_PAGE, new fr.wseduc.webutils.collections.JsonArray().add(lastUserId).add(pageSize),
+				SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> res) {
+				if (res.isLeft()) {
+					log.error("Error listing users to reconcile conversation counters : " + res.left().getValue());
+					return;
+				}
+				final JsonArray users = res.right().getValue();
+				if (users.size() == 0) {
+					log.info("Reconciled conversation counters of " + count + " users in " +
+							(System.currentTimeMillis() - start) + " ms.");
+					return;
+				}
+				final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : users) {
+					if (!(o instanceof JsonObject)) continue;
+					userIds.add(((JsonObject) o).getString("user_id"));
+				}
+				final SqlStatementsBuilder builder = new SqlStatementsBuilder();
+				refresh(builder, userIds.encode());
+				sql.transaction(builder.build(), new DeliveryOptions().setSendTimeout(TIMEOUT),
+						SqlResult.validResultsHandler(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> r) {
+						if (r.isLeft()) {
+							log.error("Error reconciling conversation counters : " + r.left().getValue());
+							return;
+						}
+						reconcile(userIds.getString(userIds.size() - 1), count + userIds.size(), start);
+					}
+				}));
+			}
+		}));
+	}
+
+}
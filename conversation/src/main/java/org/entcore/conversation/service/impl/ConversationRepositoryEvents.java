@@ -187,6 +187,7 @@ public class ConversationRepositoryEvents extends SqlRepositoryEvents {
 
 	@Override
 	public void deleteGroups(JsonArray groups) {
+		DisplayNamesCache.evict(vertx.eventBus(), null);
 		SqlStatementsBuilder builder = new SqlStatementsBuilder();
 
 		String setTO =
@@ -232,8 +233,24 @@ public class ConversationRepositoryEvents extends SqlRepositoryEvents {
 		});
 	}
 
+	@Override
+	public void usersClassesUpdated(JsonArray updates) {
+		DisplayNamesCache.evict(vertx.eventBus(), null);
+	}
+
+	@Override
+	public void transition(JsonObject structure) {
+		DisplayNamesCache.evict(vertx.eventBus(), null);
+	}
+
+	@Override
+	public void mergeUsers(String keepedUserId, String deletedUserId) {
+		DisplayNamesCache.evict(vertx.eventBus(), null);
+	}
+
 	@Override
 	public void deleteUsers(JsonArray users) {
+		DisplayNamesCache.evict(vertx.eventBus(), null);
 		JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
 		for (Object o : users) {
 			if (!(o instanceof JsonObject)) continue;
@@ -262,6 +279,16 @@ public class ConversationRepositoryEvents extends SqlRepositoryEvents {
 			"WHERE um.user_id IN " + Sql.listPrepared(userIds.getList());
 		builder.prepared(deleteUserMessages, userIds);
 
+		String deleteCounters =
+			"DELETE FROM conversation.usercounters c " +
+			"WHERE c.user_id IN " + Sql.listPrepared(userIds.getList());
+		builder.prepared(deleteCounters, userIds);
+
+		String deleteThreads =
+			"DELETE FROM conversation.userthreads t " +
+			"WHERE t.user_id IN " + Sql.listPrepared(userIds.getList());
+		builder.prepared(deleteThreads, userIds);
+
 		String setFrom =
 			"UPDATE conversation.messages " +
 			"SET " +
@@ -0,0 +1,97 @@
+/*
+ * Copyright © "Open Digital Education", 2017
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.conversation.service.impl;
+
+import io.vertx.core.json.JsonArray;
+import org.entcore.common.sql.SqlStatementsBuilder;
+
+/**
+ * Per user thread summaries : the last sent message of the thread not trashed by the user,
+ * with the count of these messages and of the unread ones, so the threads list is an indexed range scan.
+ * Summaries are recomputed in the transactions modifying the messages of the threads.
+ */
+public final class ConversationThreads {
+
+	public static final String TABLE = "conversation.userthreads";
+
+	private ConversationThreads() {}
+
+	/**
+	 * Recomputes the summaries of the threads of the messages for the users.
+	 * @param userIds json array of the users ids.
+	 * @param messageIds json array of messages ids, or null for all the threads of the users.
+	 */
+	public static void refresh(SqlStatementsBuilder builder, String userIds, String messageIds) {
+		refresh(builder, userIds, messageIds, false);
+	}
+
+	/**
+	 * Recomputes the summaries of the threads for the users, even if their root message has been deleted.
+	 * @param userIds json array of the users ids.
+	 * @param threadIds json array of threads ids.
+	 */
+	public static void refreshThreads(SqlStatementsBuilder builder, String userIds, String threadIds) {
+		refresh(builder, userIds, threadIds, true);
+	}
+
+	private static void refresh(SqlStatementsBuilder builder, String userIds, String ids, boolean byThread) {
+		final JsonArray values = new fr.wseduc.webutils.collections.JsonArray().add(userIds);
+		if (ids != null) {
+			values.add(ids);
+		}
+		builder.prepared(
+				"DELETE FROM " + TABLE + " WHERE user_id IN (SELECT json_array_elements_text(?::json)) " +
+				threadsCondition("thread_id", ids, byThread),
+				values);
+		builder.prepared(
+				"INSERT INTO " + TABLE + " (user_id, thread_id, message_id, date, messages, unread) " +
+				"SELECT DISTINCT ON (um.user_id, m.thread_id) um.user_id, m.thread_id, m.id, m.date, " +
+				"count(*) OVER w, count(*) FILTER (WHERE um.unread) OVER w " +
+				"FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id " +
+				"WHERE um.user_id IN (SELECT json_array_elements_text(?::json)) " +
+				"AND um.trashed = false AND m.state = 'SENT' AND m.thread_id IS NOT NULL " +
+				threadsCondition("m.thread_id", ids, byThread) +
+				"WINDOW w AS (PARTITION BY um.user_id, m.thread_id) " +
+				"ORDER BY um.user_id, m.thread_id, m.date DESC " +
+				"ON CONFLICT (user_id, thread_id) DO UPDATE SET message_id = EXCLUDED.message_id, " +
+				"date = EXCLUDED.date, messages = EXCLUDED.messages, unread = EXCLUDED.unread",
+				values);
+	}
+
+	private static String threadsCondition(String column, String ids, boolean byThread) {
+		if (ids == null) {
+			return "";
+		}
+		if (byThread) {
+			return "AND " + column + " IN (SELECT json_array_elements_text(?::json)) ";
+		}
+		return "AND " + column + " IN (SELECT t.thread_id FROM conversation.messages t " +
+				"WHERE t.id IN (SELECT json_array_elements_text(?::json))) ";
+	}
+
+	public static void refreshUser(SqlStatementsBuilder builder, String userId, String messageIds) {
+		refresh(builder, new fr.wseduc.webutils.collections.JsonArray().add(userId).encode(), messageIds);
+	}
+
+	public static void refreshUserThreads(SqlStatementsBuilder builder, String userId, String threadIds) {
+		refreshThreads(builder, new fr.wseduc.webutils.collections.JsonArray().add(userId).encode(), threadIds);
+	}
+
+}
@@ -444,11 +444,22 @@ public class DefaultConversationService implements ConversationService {
 		neo.execute(query, params, validResultHandler(results));
 	}
 
+	@Override
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, String cursor, String searchWords,
+			Handler<Either<String, JsonObject>> results) {
+		results.handle(new Either.Left<String, JsonObject>("conversation.cursor.unsupported"));
+	}
+
 	@Override
 	public void listThreads(UserInfos user, int page, Handler<Either<String, JsonArray>> results) {
 
 	}
 
+	@Override
+	public void listThreads(UserInfos user, String cursor, Handler<Either<String, JsonObject>> results) {
+		results.handle(new Either.Left<String, JsonObject>("conversation.cursor.unsupported"));
+	}
+
 	@Override
 	public void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results) {
 
@@ -23,84 +23,257 @@ import fr.wseduc.webutils.Either;
 import io.vertx.core.eventbus.DeliveryOptions;
 import org.entcore.common.sql.Sql;
 import org.entcore.common.sql.SqlResult;
-import org.entcore.common.sql.SqlStatementsBuilder;
 import org.entcore.common.storage.Storage;
 import io.vertx.core.Handler;
-import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
+/**
+ * Deletes the messages without users and the attachments without messages by bounded batches.
+ * Deleted attachments ids are saved in conversation.orphanfiles in the same statement and removed from
+ * this table once their files are removed from the storage, so a restart resumes the files removal
+ * and retries the files whose removal failed. Files already missing from the storage count as removed
+ * and the files still failing after MAX_ATTEMPTS runs are given up.
+ * Files removals are pipelined with at most concurrency batches in progress.
+ */
 public class DeleteOrphan implements Handler<Long> {
 
 	private static final Logger log = LoggerFactory.getLogger(DeleteOrphan.class);
 
-	private static final String SELECT_ORPHAN_ATTACHMENT =
-			"select a.id as orphanid from conversation.attachments a " +
-			"left join conversation.usermessagesattachments uma on uma.attachment_id = a.id " +
-			"where uma.message_id is NULL;";
+	private static final String DELETE_ORPHAN_MESSAGES =
+			"DELETE FROM conversation.messages WHERE id IN (" +
+			"SELECT m.id FROM conversation.messages m " +
+			"WHERE m.id > ? AND NOT EXISTS (SELECT 1 FROM conversation.usermessages um WHERE um.message_id = m.id) " +
+			"ORDER BY m.id LIMIT ?) " +
+			"RETURNING id";
+
+	private static final String DELETE_ORPHAN_ATTACHMENTS =
+			"WITH deleted AS (DELETE FROM conversation.attachments WHERE id IN (" +
+			"SELECT a.id FROM conversation.attachments a " +
+			"WHERE a.id > ? AND NOT EXISTS (SELECT 1 FROM conversation.usermessagesattachments uma WHERE uma.attachment_id = a.id) " +
+			"ORDER BY a.id LIMIT ?) " +
+			"RETURNING id) " +
+			"INSERT INTO conversation.orphanfiles (id) SELECT id FROM deleted " +
+			"RETURNING id";
+
+	private static final String SELECT_PENDING_FILES =
+			"SELECT id FROM conversation.orphanfiles WHERE id > ? ORDER BY id LIMIT ?";
+
+	private static final String FAILED_FILES =
+			"WITH failed AS (UPDATE conversation.orphanfiles SET attempts = attempts + 1 WHERE id IN " +
+			"(SELECT json_array_elements_text(?::json)) RETURNING id, attempts) " +
+			"DELETE FROM conversation.orphanfiles WHERE id IN (SELECT id FROM failed WHERE attempts >= ?) " +
+			"RETURNING id";
 
-	private static final String DELETE_ORPHAN_MESSAGE =
-			"delete from conversation.messages where id IN " +
-			"(select m.id from conversation.messages m " +
-			"left join conversation.usermessages um on um.message_id = m.id " +
-			"where um.user_id is NULL);";
 	private static final long TIMEOUT = 300000l;
+	private static final int MAX_ATTEMPTS = 5;
 
 	private final Storage storage;
+	private final int batchSize;
+	private final int concurrency;
+	private final Sql sql = Sql.getInstance();
+	private boolean running = false;
+	private boolean fetching;
+	private boolean pendingFiles;
+	private boolean exhausted;
+	private int inProgress;
+	private String lastId;
+	private long messages;
+	private long files;
 
-	public DeleteOrphan(Storage storage) {
+	public DeleteOrphan(Storage storage, int batchSize, int concurrency) {
 		this.storage = storage;
+		this.batchSize = batchSize;
+		this.concurrency = concurrency;
 	}
 
 	@Override
 	public void handle(Long event) {
-		final Sql sql = Sql.getInstance();
-		final SqlStatementsBuilder builder = new SqlStatementsBuilder();
-		builder.raw(DELETE_ORPHAN_MESSAGE);
-		builder.raw(SELECT_ORPHAN_ATTACHMENT);
-		sql.transaction(builder.build(), new DeliveryOptions().setSendTimeout(TIMEOUT),
-				SqlResult.validResultHandler(1, new Handler<Either<String, JsonArray>>() {
+		if (running) {
+			log.warn("Delete orphan conversation already running.");
+			return;
+		}
+		running = true;
+		messages = 0;
+		deleteMessages("");
+	}
+
+	private void deleteMessages(final String after) {
+		final JsonArray params = new fr.wseduc.webutils.collections.JsonArray().add(after).add(batchSize);
+		sql.prepared(DELETE_ORPHAN_MESSAGES, params, new DeliveryOptions().setSendTimeout(TIMEOUT),
+				SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> res) {
+				if (res.isLeft()) {
+					log.error("Orphan conversation error : " + res.left().getValue());
+					running = false;
+					return;
+				}
+				final JsonArray ids = res.right().getValue();
+				messages += ids.size();
+				if (ids.size() >= batchSize) {
+					deleteMessages(maxId(ids));
+				} else {
+					log.info("Successful delete " + messages + " orphan conversation messages.");
+					startFiles();
+				}
+			}
+		}));
+	}
+
+	private void startFiles() {
+		fetching = false;
+		pendingFiles = true;
+		exhausted = false;
+		inProgress = 0;
+		lastId = "";
+		files = 0;
+		next();
+	}
+
+	/**
+	 * Fetches the next batch of files to remove, first the ones left by a previous run,
+	 * then the ones of the deleted orphan attachments.
+	 */
+	private void next() {
+		if (fetching || exhausted || inProgress >= concurrency) {
+			if (exhausted && inProgress == 0) {
+				log.info("Successful delete " + files + " orphan conversation attachments.");
+				running = false;
+			}
+			return;
+		}
+		fetching = true;
+		final JsonArray params = new fr.wseduc.webutils.collections.JsonArray().add(lastId).add(batchSize);
+		sql.prepared(pendingFiles ? SELECT_PENDING_FILES : DELETE_ORPHAN_ATTACHMENTS, params,
+				new DeliveryOptions().setSendTimeout(TIMEOUT), SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
 			@Override
 			public void handle(Either<String, JsonArray> res) {
-				if (res.isRight()) {
-					log.info("Successful delete orphan conversation messages.");
-					final JsonArray attachments = res.right().getValue();
-					if (attachments != null && attachments.size() > 0) {
-						log.info("Orphan attachments : " + attachments.encode());
-						JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
-						for (Object attObj : attachments) {
-							if (!(attObj instanceof JsonObject)) continue;
-							JsonObject unusedAttachment = (JsonObject) attObj;
-							final String attachmentId = unusedAttachment.getString("orphanid");
-							ids.add(attachmentId);
-							storage.removeFile(attachmentId, new Handler<JsonObject>() {
-								public void handle(JsonObject event) {
-									if (!"ok".equals(event.getString("status"))) {
-										log.error("Error while tying to delete attachment file (_id: {" + attachmentId + "})");
-									}
-								}
-							});
+				fetching = false;
+				if (res.isLeft()) {
+					log.error("Orphan conversation attachments error : " + res.left().getValue());
+					exhausted = true;
+					next();
+					return;
+				}
+				final JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : res.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					ids.add(((JsonObject) o).getString("id"));
+				}
+				if (ids.size() > 0) {
+					lastId = maxId(res.right().getValue());
+					removeFiles(ids);
+				}
+				if (ids.size() < batchSize) {
+					if (pendingFiles) {
+						pendingFiles = false;
+						lastId = "";
+					} else {
+						exhausted = true;
+					}
+				}
+				next();
+			}
+		}));
+	}
+
+	private void removeFiles(final JsonArray ids) {
+		inProgress++;
+		storage.removeFiles(ids, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject event) {
+				final JsonArray failed = failed(ids, event);
+				final JsonArray removed = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object id : ids) {
+					if (!failed.contains(id)) {
+						removed.add(id);
+					}
+				}
+				if (failed.size() > 0) {
+					giveUp(failed);
+				}
+				if (removed.size() == 0) {
+					done(0);
+					return;
+				}
+				sql.prepared("DELETE FROM conversation.orphanfiles WHERE id IN " + Sql.listPrepared(removed.getList()), removed,
+						SqlResult.validRowsResultHandler(new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> res) {
+						if (res.isLeft()) {
+							log.error("Error deleting orphan files checkpoint : " + res.left().getValue());
 						}
-						final String deletOrphanAttachments =
-								"delete from conversation.attachments where id IN " + Sql.listPrepared(ids.getList());
-						sql.prepared(deletOrphanAttachments, ids, new DeliveryOptions().setSendTimeout(TIMEOUT), new Handler<Message<JsonObject>>() {
-							@Override
-							public void handle(Message<JsonObject> event) {
-								if (!"ok".equals(event.body().getString("status"))) {
-									log.error("Error deleting orphan attachments : " + event.body().getString("message", ""));
-								} else {
-									log.info("Successful delete orphan conversation attachments.");
-								}
-							}
-						});
+						done(removed.size());
 					}
-				} else {
-					log.error("Orphan conversation error : " + res.left().getValue());
+				}));
+			}
+		});
+	}
+
+	/**
+	 * @return the ids of the files whose removal failed, so they are retried at the next run.
+	 * Files missing from the storage are considered removed.
+	 */
+	private static JsonArray failed(JsonArray ids, JsonObject event) {
+		final JsonArray failed = new fr.wseduc.webutils.collections.JsonArray();
+		if ("ok".equals(event.getString("status"))) {
+			return failed;
+		}
+		final JsonArray errors = event.getJsonArray("errors");
+		if (errors == null) {
+			log.error("Error while tying to delete attachments files : " + event.encode());
+			return ids;
+		}
+		for (Object o : errors) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject error = (JsonObject) o;
+			final String message = error.getString("message", "");
+			if (message.contains("NoSuchFileException") || message.contains("invalid.path")) {
+				continue;
+			}
+			log.error("Error while tying to delete attachment file : " + error.encode());
+			failed.add(error.getString("id"));
+		}
+		return failed;
+	}
+
+	/**
+	 * Counts a failed attempt for the files and drops the checkpoints of the files failing since MAX_ATTEMPTS runs.
+	 */
+	private void giveUp(JsonArray failed) {
+		final JsonArray params = new fr.wseduc.webutils.collections.JsonArray().add(failed.encode()).add(MAX_ATTEMPTS);
+		sql.prepared(FAILED_FILES, params, SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> res) {
+				if (res.isLeft()) {
+					log.error("Error counting orphan files attempts : " + res.left().getValue());
+				} else if (res.right().getValue().size() > 0) {
+					log.error("Give up removing orphan conversation attachments files after " + MAX_ATTEMPTS +
+							" attempts : " + res.right().getValue().encode());
 				}
 			}
 		}));
 	}
 
+	private void done(int removed) {
+		files += removed;
+		inProgress--;
+		next();
+	}
+
+	private static String maxId(JsonArray rows) {
+		String max = "";
+		for (Object o : rows) {
+			if (!(o instanceof JsonObject)) continue;
+			final String id = ((JsonObject) o).getString("id");
+			if (id != null && id.compareTo(max) > 0) {
+				max = id;
+			}
+		}
+		return max;
+	}
+
 }
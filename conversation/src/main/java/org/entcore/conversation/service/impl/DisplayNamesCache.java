@@ -0,0 +1,131 @@
+/*
+ * Copyright © "Open Digital Education", 2017
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.conversation.service.impl;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache used to resolve the recipients of the messages : the display names entry of each visible
+ * (user or group) and the display name and activation state of each user. Groups members aren't cached.
+ * Entries expire after a ttl and are evicted on all instances when the directory changes.
+ * Must only be used from the verticle event loop.
+ */
+public class DisplayNamesCache {
+
+	public static final String ADDRESS = "conversation.displaynames.cache";
+	private final EventBus eb;
+	private final long ttl;
+	private final Map<String, CacheEntry<String>> displayNames;
+	private final Map<String, CacheEntry<JsonObject>> users;
+
+	public DisplayNamesCache(Vertx vertx, int maxSize, long ttl) {
+		this.eb = vertx.eventBus();
+		this.ttl = ttl;
+		this.displayNames = lruMap(maxSize);
+		this.users = lruMap(maxSize);
+		eb.consumer(ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray ids = message.body().getJsonArray("ids");
+				if (ids == null) {
+					displayNames.clear();
+					users.clear();
+				} else {
+					for (Object id : ids) {
+						displayNames.remove(id);
+						users.remove(id);
+					}
+				}
+			}
+		});
+	}
+
+	private static <T> Map<String, CacheEntry<T>> lruMap(final int maxSize) {
+		return new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	private static <T> T get(Map<String, CacheEntry<T>> map, String id) {
+		final CacheEntry<T> e = map.get(id);
+		if (e == null) {
+			return null;
+		}
+		if (e.expire < System.currentTimeMillis()) {
+			map.remove(id);
+			return null;
+		}
+		return e.value;
+	}
+
+	/**
+	 * @return the display names entry (id$displayName$name$groupDisplayName) of the visible,
+	 * an empty string if the visible doesn't exist, or null if it isn't cached.
+	 */
+	public String getDisplayName(String id) {
+		return get(displayNames, id);
+	}
+
+	public void putDisplayName(String id, String displayName) {
+		displayNames.put(id, new CacheEntry<>(displayName, System.currentTimeMillis() + ttl));
+	}
+
+	/**
+	 * @return the display name and activation state of the user ({displayName, inactive}), or null if it isn't cached.
+	 */
+	public JsonObject getUser(String id) {
+		return get(users, id);
+	}
+
+	public void putUser(String id, JsonObject user) {
+		users.put(id, new CacheEntry<>(user, System.currentTimeMillis() + ttl));
+	}
+
+	/**
+	 * Evicts the visibles on all instances, or all entries if ids is null.
+	 */
+	public static void evict(EventBus eb, JsonArray ids) {
+		eb.publish(ADDRESS, new JsonObject().put("ids", ids));
+	}
+
+	private static final class CacheEntry<T> {
+
+		private final T value;
+		private final long expire;
+
+		private CacheEntry(T value, long expire) {
+			this.value = value;
+			this.expire = expire;
+		}
+
+	}
+
+}
@@ -21,6 +21,7 @@ package org.entcore.conversation.service.impl;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.entcore.common.neo4j.Neo4j;
@@ -32,9 +33,11 @@ import io.vertx.core.json.JsonObject;
 public class Neo4jConversationService {
 
 	private Neo4j neo;
+	private final DisplayNamesCache cache;
 
-	public Neo4jConversationService(){
+	public Neo4jConversationService(DisplayNamesCache cache){
 		this.neo = Neo4j.getInstance();
+		this.cache = cache;
 	}
 
 	public void addDisplayNames(final JsonObject message, final JsonObject parentMessage, final Handler<JsonObject> handler) {
@@ -63,7 +66,26 @@ public class Neo4jConversationService {
 			if(parentMessage.containsKey("from"))
 				ids.add(parentMessage.getString("from"));
 		}
-		neo.execute(query, new JsonObject().put("ids", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(ids))),
+
+		final JsonArray displayNames = new fr.wseduc.webutils.collections.JsonArray();
+		final List<String> missing = new ArrayList<>();
+		for (String id : ids) {
+			final String d = cache.getDisplayName(id);
+			if (d == null) {
+				missing.add(id);
+			} else if (!d.isEmpty()) {
+				displayNames.add(d);
+			}
+		}
+		if (missing.isEmpty()) {
+			if (displayNames.size() > 0) {
+				message.put("displayNames", displayNames);
+			}
+			handler.handle(message);
+			return;
+		}
+
+		neo.execute(query, new JsonObject().put("ids", new fr.wseduc.webutils.collections.JsonArray(missing)),
 				new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> m) {
@@ -71,10 +93,26 @@ public class Neo4jConversationService {
 				if ("ok".equals(m.body().getString("status")) && r != null && r.size() == 1) {
 					JsonObject j = r.getJsonObject(0);
 					JsonArray d = j.getJsonArray("displayNames");
-					if (d != null && d.size() > 0) {
-						message.put("displayNames", d);
+					final Set<String> found = new HashSet<>();
+					if (d != null) {
+						for (Object o : d) {
+							if (!(o instanceof String)) continue;
+							final String displayName = (String) o;
+							final String id = displayName.substring(0, Math.max(displayName.indexOf('$'), 0));
+							cache.putDisplayName(id, displayName);
+							found.add(id);
+							displayNames.add(displayName);
+						}
+					}
+					for (String id : missing) {
+						if (!found.contains(id)) {
+							cache.putDisplayName(id, "");
+						}
 					}
 				}
+				if (displayNames.size() > 0) {
+					message.put("displayNames", displayNames);
+				}
 				handler.handle(message);
 			}
 		});
@@ -93,21 +131,18 @@ public class Neo4jConversationService {
 		dest.addAll(message.getJsonArray("cc", new fr.wseduc.webutils.collections.JsonArray()).getList());
 		dest.addAll(message.getJsonArray("cci", new fr.wseduc.webutils.collections.JsonArray()).getList());
 
+		if (size <= 0) {
+			findInactivesWithCache(dest, handler);
+			return;
+		}
+
 		JsonObject params = new JsonObject().put("dest", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<Object>(dest)));
 
-		String returnClause = "";
-		if(size > 0){
-			returnClause =
+		String returnClause =
 				"RETURN " +
 				"[t IN targets WHERE t.quotaLeft IS NULL OR t.quotaLeft < {attachmentsSize} | t.users.displayName] as undelivered, " +
 				"[t IN targets WHERE t.quotaLeft IS NOT NULL AND t.quotaLeft >= {attachmentsSize} | t.users.id] as userTargets ";
-			params.put("attachmentsSize", size);
-		} else {
-			returnClause =
-				"RETURN " +
-				"[t IN targets WHERE t.users.activationCode IS NOT NULL | t.users.displayName] as inactives, " +
-				"EXTRACT(t IN targets | t.users.id) as userTargets ";
-		}
+		params.put("attachmentsSize", size);
 
 		String query =
 			"MATCH (v:Visible)<-[:IN*0..1]-(u:User) " +
@@ -137,4 +172,90 @@ public class Neo4jConversationService {
 		});
 	}
 
+	/**
+	 * Without attachments the quota isn't needed : the users targeted by the recipients are resolved live,
+	 * but their display name and activation state are taken from the cache and only the missing users are queried.
+	 */
+	private void findInactivesWithCache(Set<Object> dest, final Handler<JsonObject> handler) {
+		String query =
+			"MATCH (v:Visible)<-[:IN*0..1]-(u:User) " +
+			"WHERE v.id IN {dest} " +
+			"RETURN COLLECT(DISTINCT u.id) as userTargets ";
+
+		neo.execute(query, new JsonObject().put("dest", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<Object>(dest))),
+				new Handler<Message<JsonObject>>() {
+			public void handle(Message<JsonObject> event) {
+				JsonArray r = event.body().getJsonArray("result");
+				if (!"ok".equals(event.body().getString("status")) || r == null || r.size() != 1) {
+					handler.handle(formatTargets(new ArrayList<String>(), new JsonObject()));
+					return;
+				}
+				final List<String> allUsers = new ArrayList<>();
+				final JsonObject users = new JsonObject();
+				final List<String> missing = new ArrayList<>();
+				for (Object o : r.getJsonObject(0).getJsonArray("userTargets", new fr.wseduc.webutils.collections.JsonArray())) {
+					if (!(o instanceof String)) continue;
+					allUsers.add((String) o);
+					final JsonObject u = cache.getUser((String) o);
+					if (u == null) {
+						missing.add((String) o);
+					} else {
+						users.put((String) o, u);
+					}
+				}
+				if (missing.isEmpty()) {
+					handler.handle(formatTargets(allUsers, users));
+					return;
+				}
+				findUsers(missing, users, new Handler<Void>() {
+					@Override
+					public void handle(Void v) {
+						handler.handle(formatTargets(allUsers, users));
+					}
+				});
+			}
+		});
+	}
+
+	private void findUsers(List<String> ids, final JsonObject users, final Handler<Void> handler) {
+		String query =
+			"MATCH (u:User) " +
+			"WHERE u.id IN {ids} " +
+			"RETURN u.id as id, u.displayName as displayName, u.activationCode IS NOT NULL as inactive ";
+
+		neo.execute(query, new JsonObject().put("ids", new fr.wseduc.webutils.collections.JsonArray(ids)),
+				new Handler<Message<JsonObject>>() {
+			public void handle(Message<JsonObject> event) {
+				JsonArray r = event.body().getJsonArray("result");
+				if ("ok".equals(event.body().getString("status")) && r != null) {
+					for (Object o : r) {
+						if (!(o instanceof JsonObject)) continue;
+						final JsonObject j = (JsonObject) o;
+						final JsonObject u = new JsonObject()
+							.put("displayName", j.getString("displayName"))
+							.put("inactive", j.getBoolean("inactive", false));
+						cache.putUser(j.getString("id"), u);
+						users.put(j.getString("id"), u);
+					}
+				}
+				handler.handle(null);
+			}
+		});
+	}
+
+	private JsonObject formatTargets(List<String> allUsers, JsonObject users) {
+		final JsonArray inactives = new fr.wseduc.webutils.collections.JsonArray();
+		for (String id : allUsers) {
+			final JsonObject u = users.getJsonObject(id);
+			if (u != null && u.getBoolean("inactive", false)) {
+				inactives.add(u.getString("displayName"));
+			}
+		}
+		return new JsonObject()
+			.put("inactives", inactives)
+			.put("actives", new fr.wseduc.webutils.collections.JsonArray())
+			.put("undelivered", new fr.wseduc.webutils.collections.JsonArray())
+			.put("allUsers", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<Object>(allUsers)));
+	}
+
 }
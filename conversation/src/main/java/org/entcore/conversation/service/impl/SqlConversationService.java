@@ -22,7 +22,9 @@ package org.entcore.conversation.service.impl;
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 import static org.entcore.common.user.UserUtils.findVisibles;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 
@@ -41,6 +43,8 @@ import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.Server;
@@ -48,6 +52,8 @@ import fr.wseduc.webutils.Utils;
 
 public class SqlConversationService implements ConversationService{
 
+	private static final Logger log = LoggerFactory.getLogger(SqlConversationService.class);
+	private static final int THREADS_LIMIT = 10;
 	private final EventBus eb;
 	private final Sql sql;
 
@@ -103,7 +109,11 @@ public class SqlConversationService implements ConversationService{
 		// 2 - Link message to the user
 		builder.insert(userMessageTable, new JsonObject()
 			.put("user_id", user.getUserId())
-			.put("message_id", message.getString("id")));
+			.put("message_id", message.getString("id"))
+			.put("date", message.getLong("date")));
+
+		ConversationCounters.adjust(builder, 1, "um.user_id = ? AND um.message_id = ?",
+				new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).add(message.getString("id")));
 
 		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
@@ -133,10 +143,12 @@ public class SqlConversationService implements ConversationService{
 		if(sb.length() > 0)
 			sb.deleteCharAt(sb.length() - 1);
 
+		// keep the listing date of the draft owner in sync
 		String query =
-			"UPDATE " + messageTable +
+			"WITH m AS (UPDATE " + messageTable +
 			" SET " + sb.toString() + " " +
-			"WHERE id = ? AND state = ?";
+			"WHERE id = ? AND state = ? RETURNING id, date) " +
+			"UPDATE " + userMessageTable + " AS um SET date = m.date FROM m WHERE um.message_id = m.id";
 		values.add(messageId).add("DRAFT");
 
 		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
@@ -180,6 +192,9 @@ public class SqlConversationService implements ConversationService{
 				if(ids.contains(user.getUserId()))
 					unread = "true";
 				SqlStatementsBuilder builder = new SqlStatementsBuilder();
+				final JsonArray senderMessage = new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).add(draftId);
+				// the draft leaves the sender counters and comes back as sent
+				ConversationCounters.adjust(builder, -1, "um.user_id = ? AND um.message_id = ?", senderMessage);
 
 				String updateMessage =
 						"UPDATE " + messageTable + " SET state = ? WHERE id = ? "+
@@ -190,25 +205,44 @@ public class SqlConversationService implements ConversationService{
 				builder.prepared(updateMessage, new fr.wseduc.webutils.collections.JsonArray().add("SENT").add(draftId));
 				builder.prepared(updateUnread, new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).add(draftId));
 
-				for(Object toObj : ids){
-					if(toObj.equals(user.getUserId()))
-						continue;
-
-					builder.insert(userMessageTable, new JsonObject()
-						.put("user_id", toObj.toString())
-						.put("message_id", draftId)
-						.put("total_quota", totalQuota)
-					);
-					for(Object attachmentId : attachmentIds){
-						builder.insert(userMessageAttachmentTable, new JsonObject()
-							.put("user_id", toObj.toString())
-							.put("message_id", draftId)
-							.put("attachment_id", attachmentId.toString())
-						);
-					}
+				// one set-based insert per table whatever the number of recipients
+				final String recipientIds = ids.encode();
+				builder.prepared(
+						"INSERT INTO " + userMessageTable + " (user_id, message_id, total_quota, has_attachment, date) " +
+						"SELECT DISTINCT r, m.id, ?, ?, m.date FROM json_array_elements_text(?::json) AS r " +
+						"JOIN " + messageTable + " m ON m.id = ? WHERE r <> ? ",
+						new fr.wseduc.webutils.collections.JsonArray().add(totalQuota)
+								.add(attachmentIds != null && attachmentIds.size() > 0)
+								.add(recipientIds).add(draftId).add(user.getUserId()));
+				if (attachmentIds != null && attachmentIds.size() > 0) {
+					builder.prepared(
+							"INSERT INTO " + userMessageAttachmentTable + " (user_id, message_id, attachment_id) " +
+							"SELECT DISTINCT r, ?, a FROM json_array_elements_text(?::json) AS r " +
+							"CROSS JOIN json_array_elements_text(?::json) AS a WHERE r <> ? ",
+							new fr.wseduc.webutils.collections.JsonArray().add(draftId).add(recipientIds)
+									.add(attachmentIds.encode()).add(user.getUserId()));
 				}
-
-				sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
+				builder.prepared(
+						"UPDATE " + userMessageTable + " AS um SET responded = true FROM " + messageTable + " AS d " +
+						"WHERE d.id = ? AND um.message_id = d.parent_id AND um.user_id = ? AND um.responded = false",
+						new fr.wseduc.webutils.collections.JsonArray().add(draftId).add(user.getUserId()));
+				ConversationCounters.received(builder, recipientIds, user.getUserId());
+				ConversationCounters.adjust(builder, 1, "um.user_id = ? AND um.message_id = ?", senderMessage);
+				ConversationThreads.refresh(builder, ids.copy().add(user.getUserId()).encode(),
+						new fr.wseduc.webutils.collections.JsonArray().add(draftId).encode());
+
+				final long start = System.currentTimeMillis();
+				final int nbRecipients = ids.size();
+				sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(1, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (log.isDebugEnabled()) {
+							log.debug("Send message " + draftId + " to " + nbRecipients + " recipients in " +
+									(System.currentTimeMillis() - start) + " ms");
+						}
+						result.handle(event);
+					}
+				}));
 			}
 		});
 	}
@@ -218,28 +252,93 @@ public class SqlConversationService implements ConversationService{
 		int skip = page * LIST_LIMIT;
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
+		String query = listQuery(folder, restrain, unread, user, searchText, null, true, values) +
+				"ORDER BY um.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + skip;
+
+		sql.prepared(query, values, SqlResult.validResultHandler(results, "attachments", "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames"));
+	}
+
+	@Override
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, String cursor, final String searchText,
+			final Handler<Either<String, JsonObject>> results) {
+		JsonArray after = null;
+		if (cursor != null && !cursor.isEmpty()) {
+			after = decodeCursor(cursor);
+			if (after == null) {
+				results.handle(new Either.Left<String, JsonObject>("conversation.invalid.cursor"));
+				return;
+			}
+		}
+		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
+		String query = listQuery(folder, restrain, unread, user, searchText, after, false, values) +
+				"ORDER BY um.date DESC, um.message_id DESC LIMIT " + LIST_LIMIT;
+
+		sql.prepared(query, values, SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					results.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+					return;
+				}
+				final JsonArray messages = event.right().getValue();
+				String next = null;
+				if (messages.size() >= LIST_LIMIT) {
+					final JsonObject last = messages.getJsonObject(messages.size() - 1);
+					next = encodeCursor(last.getLong("date"), last.getString("id"));
+				}
+				results.handle(new Either.Right<String, JsonObject>(new JsonObject()
+						.put("results", messages).put("cursor", next)));
+			}
+		}, "attachments", "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames"));
+	}
+
+	/**
+	 * Builds the folder listing query without the order and limit clauses.
+	 * @param after (date, id) of the last message of the previous page for keyset pagination, or null.
+	 * @param withCount adds the total count of the listing to each row, which requires reading the whole listing.
+	 */
+	private String listQuery(String folder, String restrain, Boolean unread, UserInfos user, String searchText,
+			JsonArray after, boolean withCount, JsonArray values) {
 		String messageConditionUnread = addMessageConditionUnread(folder, values, unread, user);
 		String messagesFields = "m.id, m.subject, m.from, m.state, m.\"fromName\", m.to, m.\"toName\", m.cc, m.\"ccName\", m.cci, m.\"cciName\", m.\"displayNames\", m.date ";
 
-		values.add("SENT").add(user.getUserId());
+		values.add(user.getUserId());
 		String additionalWhere = addCompleteFolderCondition(values, restrain, unread, folder, user);
 
 		if(searchText != null){
 			additionalWhere += " AND m.text_searchable  @@ to_tsquery(m.language::regconfig, unaccent(?)) ";
 			values.add(StringUtils.join(checkAndComposeWordFromSearchText(searchText), " & "));
 		}
-		String query = "SELECT "+messagesFields+", um.unread as unread, " +
-				"CASE when COUNT(distinct r) = 0 THEN false ELSE true END AS response, COUNT(*) OVER() as count, " +
-				"CASE when COUNT(distinct uma) = 0 THEN false ELSE true END AS  \"hasAttachment\" " +
-				"FROM " + userMessageTable + " um LEFT JOIN " +
-				userMessageAttachmentTable + " uma ON um.user_id = uma.user_id AND um.message_id = uma.message_id JOIN " +
-				messageTable + " m ON (um.message_id = m.id" + messageConditionUnread + ") LEFT JOIN " +
-				messageTable + " r ON um.message_id = r.parent_id AND r.from = um.user_id AND r.state= ? " +
-				"WHERE um.user_id = ? " + additionalWhere + " " +
-				"GROUP BY m.id, unread " +
-				"ORDER BY m.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + skip;
+		if (after != null) {
+			// served by the (user_id, date, message_id) index of usermessages
+			additionalWhere += " AND (um.date, um.message_id) < (?, ?) ";
+			values.add(after.getLong(0)).add(after.getString(1));
+		}
+		return "SELECT "+messagesFields+", um.unread as unread, um.responded AS response, " +
+				(withCount ? "COUNT(*) OVER() as count, " : "") +
+				"um.has_attachment AS \"hasAttachment\" " +
+				"FROM " + userMessageTable + " um JOIN " +
+				messageTable + " m ON (um.message_id = m.id" + messageConditionUnread + ") " +
+				"WHERE um.user_id = ? " + additionalWhere + " ";
+	}
 
-		sql.prepared(query, values, SqlResult.validResultHandler(results, "attachments", "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames"));
+	private static String encodeCursor(long date, String id) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((date + ":" + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static JsonArray decodeCursor(String cursor) {
+		try {
+			final String c = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			final int i = c.indexOf(':');
+			if (i <= 0 || i == c.length() - 1) {
+				return null;
+			}
+			return new fr.wseduc.webutils.collections.JsonArray()
+					.add(Long.parseLong(c.substring(0, i))).add(c.substring(i + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
 	}
 
 	//TODO : add to utils (similar function in SearchEngineController)
@@ -260,26 +359,62 @@ public class SqlConversationService implements ConversationService{
 
 	@Override
 	public void listThreads(UserInfos user, int page, Handler<Either<String, JsonArray>> results) {
-		int nbThread =  10;
-		int skip = page * nbThread;
-		String messagesFields = "id, date, subject, \"displayNames\", \"to\", \"from\", cc, cci ";
+		int skip = page * THREADS_LIMIT;
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-		values.add(user.getUserId());
-		values.add(user.getUserId());
-		String query = " WITH threads AS ( " +
-				" SELECT * from (SELECT  DISTINCT ON (m.thread_id) thread_id AS "+messagesFields+ " FROM " + userMessageTable + " um " +
-				" JOIN "+messageTable+" m ON um.message_id = m.id " +
-				" WHERE um.user_id = ? AND m.state = 'SENT' AND um.trashed = false ORDER BY m.thread_id, m.date DESC) a "+
-				" ORDER BY date DESC LIMIT "+ nbThread +" OFFSET "+ skip + ") " +
-
-				"SELECT "+ messagesFields +", unread FROM threads JOIN (SELECT m.thread_id, SUM(CASE WHEN um.unread THEN 1 ELSE 0 END) AS unread " +
-				"FROM threads, conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id and um.user_id= ? " +
-				"WHERE  um.trashed = false AND m.thread_id=threads.id GROUP BY m.thread_id) c ON threads.id = c.thread_id " +
-				"ORDER BY date DESC";
+		String query = listThreadsQuery(user, null, values) + " OFFSET " + skip;
 
 		sql.prepared(query, values, SqlResult.validResultHandler(results, "to", "toName", "cc", "cci", "ccName", "displayNames"));
 	}
 
+	@Override
+	public void listThreads(UserInfos user, String cursor, final Handler<Either<String, JsonObject>> results) {
+		JsonArray after = null;
+		if (cursor != null && !cursor.isEmpty()) {
+			after = decodeCursor(cursor);
+			if (after == null) {
+				results.handle(new Either.Left<String, JsonObject>("conversation.invalid.cursor"));
+				return;
+			}
+		}
+		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
+		String query = listThreadsQuery(user, after, values);
+
+		sql.prepared(query, values, SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					results.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+					return;
+				}
+				final JsonArray threads = event.right().getValue();
+				String next = null;
+				if (threads.size() >= THREADS_LIMIT) {
+					final JsonObject last = threads.getJsonObject(threads.size() - 1);
+					next = encodeCursor(last.getLong("date"), last.getString("id"));
+				}
+				results.handle(new Either.Right<String, JsonObject>(new JsonObject()
+						.put("results", threads).put("cursor", next)));
+			}
+		}, "to", "toName", "cc", "cci", "ccName", "displayNames"));
+	}
+
+	/**
+	 * Reads the threads summaries of the user, ordered by last message date and thread id.
+	 * @param after (date, thread id) of the last thread of the previous page for keyset pagination, or null.
+	 */
+	private String listThreadsQuery(UserInfos user, JsonArray after, JsonArray values) {
+		values.add(user.getUserId());
+		String keyset = "";
+		if (after != null) {
+			keyset = "AND (t.date, t.thread_id) < (?, ?) ";
+			values.add(after.getLong(0)).add(after.getString(1));
+		}
+		return "SELECT t.thread_id AS id, t.date, m.subject, m.\"displayNames\", m.to, m.from, m.cc, m.cci, t.unread " +
+				"FROM " + ConversationThreads.TABLE + " t JOIN " + messageTable + " m ON t.message_id = m.id " +
+				"WHERE t.user_id = ? " + keyset +
+				"ORDER BY t.date DESC, t.thread_id DESC LIMIT " + THREADS_LIMIT;
+	}
+
 	@Override
 	public void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results) {
 		int skip = page * LIST_LIMIT;
@@ -347,39 +482,27 @@ public class SqlConversationService implements ConversationService{
 			return;
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-
-		StringBuilder query = new StringBuilder(
-			"UPDATE " + userMessageTable + " " +
-			"SET trashed = true " +
-			"WHERE trashed = false AND user_id = ? AND message_id IN (");
-
 		values.add(user.getUserId());
+		String where = "um.trashed = false AND um.user_id = ? AND um.message_id IN " + generateInVars(messagesId, values);
 
-		for(String id : messagesId){
-			query.append("?,");
-			values.add(id);
-		}
-		if(messagesId.size() > 0)
-			query.deleteCharAt(query.length() - 1);
-		query.append(")");
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "trashed = true", new fr.wseduc.webutils.collections.JsonArray(), where, values);
+		ConversationThreads.refreshUser(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray(messagesId).encode());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	@Override
 	public void trashThread(List<String> threadIds, UserInfos user, Handler<Either<String, JsonObject>> result){
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-		StringBuilder query = new StringBuilder(
-				"UPDATE " + userMessageTable + " AS um  " +
-					"SET trashed = true " +
-					"FROM conversation.messages as m " +
-					"WHERE m.thread_id IN ");
-
-		query.append(generateInVars(threadIds, values));
-		query.append(" AND um.user_id = ? AND um.trashed = false AND um.message_id = m.id ");
+		String where = "m.thread_id IN " + generateInVars(threadIds, values) + " AND um.user_id = ? AND um.trashed = false";
 		values.add(user.getUserId());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "trashed = true", new fr.wseduc.webutils.collections.JsonArray(), where, values);
+		ConversationThreads.refreshUserThreads(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray(threadIds).encode());
+
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 
 	}
 
@@ -389,17 +512,14 @@ public class SqlConversationService implements ConversationService{
 		if(validationParamsError(user, result)) return;
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-
-		StringBuilder query = new StringBuilder(
-			"UPDATE " + userMessageTable + " " +
-			"SET trashed = false " +
-			"WHERE trashed = true AND user_id = ? AND message_id IN ");
-
 		values.add(user.getUserId());
+		String where = "um.trashed = true AND um.user_id = ? AND um.message_id IN " + generateInVars(messagesId, values);
 
-		query.append(generateInVars(messagesId, values));
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "trashed = false", new fr.wseduc.webutils.collections.JsonArray(), where, values);
+		ConversationThreads.refreshUser(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray(messagesId).encode());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	@Override
@@ -415,18 +535,21 @@ public class SqlConversationService implements ConversationService{
 			"SELECT coalesce(sum(um.total_quota), 0)::integer AS totalQuota FROM " + userMessageTable + " um " +
 			"WHERE um.user_id = ? AND um.trashed = true";
 
-		String deleteUserMessages =
-			"DELETE FROM " + userMessageTable + " um " +
-			"WHERE um.user_id = ? AND um.trashed = true";
+		String where = "um.user_id = ? AND um.trashed = true";
 
 		if (!deleteAll) {
 			getTotalQuota += " AND um.message_id IN ";
 			getTotalQuota += (generateInVars(messagesId, values2));
-			deleteUserMessages += " AND um.message_id IN ";
-			deleteUserMessages += (generateInVars(messagesId, values3));
+			where += " AND um.message_id IN ";
+			where += (generateInVars(messagesId, values3));
 		}
 
+		String deleteUserMessages =
+			"DELETE FROM " + userMessageTable + " um " +
+			"WHERE " + where;
+
 		builder.prepared(getTotalQuota, values2);
+		ConversationCounters.adjust(builder, -1, where, values3);
 		builder.prepared(deleteUserMessages, values3);
 
 		sql.transaction(builder.build(), SqlResult.validResultsHandler(result));
@@ -439,10 +562,6 @@ public class SqlConversationService implements ConversationService{
 
 		SqlStatementsBuilder builder = new SqlStatementsBuilder();
 
-		String updateQuery = "UPDATE " + userMessageTable + " " +
-			"SET unread = false " +
-			"WHERE user_id = ? AND message_id = ? ";
-
 		String selectQuery =
 			"SELECT " +
 				"m.*, " +
@@ -460,8 +579,9 @@ public class SqlConversationService implements ConversationService{
 			.add(user.getUserId())
 			.add(messageId);
 
-		builder.prepared(updateQuery, values);
+		ConversationCounters.toggleUnread(builder, false, "user_id = ? AND message_id = ?", values);
 		builder.prepared(selectQuery, values);
+		ConversationThreads.refreshUser(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray().add(messageId).encode());
 
 		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(1, result, "attachments", "to", "toName", "cc", "ccName", "displayNames", "cci", "cciName"));
 	}
@@ -473,6 +593,12 @@ public class SqlConversationService implements ConversationService{
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 
+		final String counterQuery = ConversationCounters.countQuery(folder, restrain, unread, user.getUserId(), values);
+		if (counterQuery != null) {
+			sql.prepared(counterQuery, values, SqlResult.validUniqueResultHandler(result));
+			return;
+		}
+
 		String messageConditionUnread = addMessageConditionUnread(folder, values, unread, user);
 		values.add(user.getUserId());
 
@@ -576,33 +702,31 @@ public class SqlConversationService implements ConversationService{
 			return;
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-		String query = "UPDATE " + userMessageTable + " " +
-				"SET unread = ? " +
-				"WHERE user_id = ? AND message_id IN "  + Sql.listPrepared(messagesIds.toArray());
-
-		values.add(unread);
 		values.add(user.getUserId());
 		for(String id : messagesIds){
 			values.add(id);
 		}
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.toggleUnread(builder, unread,
+				"user_id = ? AND message_id IN " + Sql.listPrepared(messagesIds.toArray()), values);
+		ConversationThreads.refreshUser(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray(messagesIds).encode());
+
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	@Override
 	public void toggleUnreadThread(List<String> threadIds, boolean unread, UserInfos user, Handler<Either<String, JsonObject>> result) {
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
-		StringBuilder query = new StringBuilder(
-				"UPDATE " + userMessageTable + " AS um  " +
-						"SET  unread = ? " +
-						"FROM conversation.messages as m " +
-						"WHERE m.thread_id IN ");
-		values.add(unread);
-		query.append(generateInVars(threadIds, values));
-		query.append(" AND um.user_id = ? AND um.message_id = m.id ");
-		values.add(user.getUserId());
+		String where = "m.thread_id IN " + generateInVars(threadIds, values) + " AND um.user_id = ? AND um.unread <> ?";
+		values.add(user.getUserId()).add(unread);
+
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "unread = ?", new fr.wseduc.webutils.collections.JsonArray().add(unread),
+				where, values);
+		ConversationThreads.refreshUserThreads(builder, user.getUserId(), new fr.wseduc.webutils.collections.JsonArray(threadIds).encode());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 
@@ -711,18 +835,14 @@ public class SqlConversationService implements ConversationService{
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 
-		String query =
-			"UPDATE " + userMessageTable + " AS um " +
-			"SET folder_id = ? " +
-			"WHERE um.user_id = ? AND um.message_id IN ";
-
-		values
-			.add(folderId)
-			.add(user.getUserId());
+		values.add(user.getUserId());
+		String where = "um.user_id = ? AND um.message_id IN " + generateInVars(messageIds, values);
 
-		query += generateInVars(messageIds, values);
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "folder_id = ?", new fr.wseduc.webutils.collections.JsonArray().add(folderId),
+				where, values);
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	@Override
@@ -732,15 +852,14 @@ public class SqlConversationService implements ConversationService{
 
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 
-		String query =
-			"UPDATE " + userMessageTable + " AS um " +
-			"SET folder_id = NULL " +
-			"WHERE um.user_id = ? AND um.message_id IN ";
-
 		values.add(user.getUserId());
+		String where = "um.user_id = ? AND um.message_id IN " + generateInVars(messageIds, values);
 
-		query += generateInVars(messageIds, values);
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		ConversationCounters.update(builder, "folder_id = NULL", new fr.wseduc.webutils.collections.JsonArray(),
+				where, values);
+
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	@Override
@@ -830,7 +949,18 @@ public class SqlConversationService implements ConversationService{
 		values.add(user.getUserId());
 
 
+		/* Remove the messages of the deleted folders from the counters before the cascade */
+
+		JsonArray adjustValues = new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId());
+		for (Object o : recursiveValues) {
+			adjustValues.add(o);
+		}
+		ConversationCounters.adjust(builder, -1, "um.user_id = ? AND um.folder_id IN (WITH RECURSIVE parents AS ( " +
+				nonRecursiveTerm + "UNION " + recursiveTerm + ") SELECT id FROM parents)", adjustValues);
+
 		builder.prepared(deleteFolder, values);
+		ConversationCounters.deleteFolders(builder, user.getUserId());
+		ConversationThreads.refreshUser(builder, user.getUserId(), null);
 
 		/* Perform the transaction */
 
@@ -867,7 +997,7 @@ public class SqlConversationService implements ConversationService{
 
 		String query =
 			"UPDATE " + userMessageTable + " AS um " +
-			"SET total_quota = total_quota + ? " +
+			"SET total_quota = total_quota + ?, has_attachment = true " +
 			"WHERE um.user_id = ? AND um.message_id = ?";
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray()
 			.add(attachmentSize)
@@ -961,6 +1091,13 @@ public class SqlConversationService implements ConversationService{
 			"message_id = ? AND user_id = ? AND attachment_id = ?";
 		builder.prepared(query4, values);
 
+		String query5 =
+			"UPDATE " + userMessageTable + " AS um " +
+			"SET has_attachment = EXISTS (SELECT 1 FROM " + userMessageAttachmentTable + " uma " +
+				"WHERE uma.user_id = um.user_id AND uma.message_id = um.message_id) " +
+			"WHERE um.message_id = ? AND um.user_id = ?";
+		builder.prepared(query5, new fr.wseduc.webutils.collections.JsonArray().add(messageId).add(user.getUserId()));
+
 		sql.transaction(builder.build(), SqlResult.validResultsHandler(new Handler<Either<String,JsonArray>>() {
 			public void handle(Either<String, JsonArray> event) {
 				if(event.isLeft()){
@@ -1002,7 +1139,17 @@ public class SqlConversationService implements ConversationService{
 				.add(forwardId)
 				.add(messageId);
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		String flagQuery =
+			"UPDATE " + userMessageTable + " AS um " +
+			"SET has_attachment = EXISTS (SELECT 1 FROM " + userMessageAttachmentTable + " uma " +
+				"WHERE uma.user_id = um.user_id AND uma.message_id = um.message_id) " +
+			"WHERE um.user_id = ? AND um.message_id = ?";
+
+		SqlStatementsBuilder builder = new SqlStatementsBuilder();
+		builder.prepared(query, values);
+		builder.prepared(flagQuery, new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).add(messageId));
+
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
 	}
 
 	///////////
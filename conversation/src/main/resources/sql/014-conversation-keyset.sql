@@ -0,0 +1,8 @@
+ALTER TABLE conversation.usermessages ADD "date" BIGINT;
+
+UPDATE conversation.usermessages AS um SET date = m.date
+FROM conversation.messages m WHERE m.id = um.message_id;
+
+ALTER TABLE conversation.usermessages ALTER COLUMN "date" SET NOT NULL;
+
+CREATE INDEX idx_usermessages_user_date ON conversation.usermessages (user_id, date DESC, message_id DESC);
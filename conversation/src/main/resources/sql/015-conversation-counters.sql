@@ -0,0 +1,23 @@
+CREATE TABLE conversation.usercounters (
+	"user_id" VARCHAR(36) NOT NULL,
+	"folder" VARCHAR(36) NOT NULL,
+	"total" BIGINT NOT NULL DEFAULT 0,
+	"unread" BIGINT NOT NULL DEFAULT 0,
+	PRIMARY KEY (user_id, folder)
+);
+
+INSERT INTO conversation.usercounters (user_id, folder, total, unread)
+SELECT um.user_id, k.folder, count(*), count(*) FILTER (WHERE k.unread)
+FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id
+CROSS JOIN LATERAL (VALUES
+	(CASE WHEN um.trashed THEN 'TRASH' END, um.unread AND m.state = 'SENT'),
+	(CASE WHEN NOT um.trashed THEN um.folder_id END, um.unread AND m.state = 'SENT' AND
+		(m.from <> um.user_id OR m.to @> jsonb_build_array(um.user_id) OR coalesce(m.cc @> jsonb_build_array(um.user_id), false))),
+	(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'SENT' AND
+		(m.from <> um.user_id OR m.to @> jsonb_build_array(um.user_id) OR coalesce(m.cc @> jsonb_build_array(um.user_id), false))
+		THEN 'INBOX' END, um.unread),
+	(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'SENT' AND m.from = um.user_id THEN 'OUTBOX' END, um.unread),
+	(CASE WHEN NOT um.trashed AND um.folder_id IS NULL AND m.state = 'DRAFT' AND m.from = um.user_id THEN 'DRAFT' END, um.unread)
+) AS k(folder, unread)
+WHERE k.folder IS NOT NULL
+GROUP BY um.user_id, k.folder;
@@ -0,0 +1,3 @@
+CREATE TABLE conversation.orphanfiles (
+	"id" VARCHAR(36) NOT NULL PRIMARY KEY
+);
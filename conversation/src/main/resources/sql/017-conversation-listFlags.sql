@@ -0,0 +1,12 @@
+ALTER TABLE conversation.usermessages ADD "has_attachment" BOOLEAN NOT NULL DEFAULT FALSE;
+ALTER TABLE conversation.usermessages ADD "responded" BOOLEAN NOT NULL DEFAULT FALSE;
+
+UPDATE conversation.usermessages AS um SET has_attachment = TRUE
+WHERE EXISTS (SELECT 1 FROM conversation.usermessagesattachments uma
+	WHERE uma.user_id = um.user_id AND uma.message_id = um.message_id);
+
+UPDATE conversation.usermessages AS um SET responded = TRUE
+WHERE EXISTS (SELECT 1 FROM conversation.messages r
+	WHERE r.parent_id = um.message_id AND r.from = um.user_id AND r.state = 'SENT');
+
+CREATE INDEX ON conversation.messages (parent_id);
@@ -0,0 +1,19 @@
+CREATE TABLE conversation.userthreads (
+	"user_id" VARCHAR(36) NOT NULL,
+	"thread_id" VARCHAR(36) NOT NULL,
+	"message_id" VARCHAR(36) NOT NULL,
+	"date" BIGINT NOT NULL,
+	"messages" BIGINT NOT NULL DEFAULT 0,
+	"unread" BIGINT NOT NULL DEFAULT 0,
+	PRIMARY KEY (user_id, thread_id)
+);
+
+INSERT INTO conversation.userthreads (user_id, thread_id, message_id, date, messages, unread)
+SELECT DISTINCT ON (um.user_id, m.thread_id) um.user_id, m.thread_id, m.id, m.date,
+	count(*) OVER w, count(*) FILTER (WHERE um.unread) OVER w
+FROM conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id
+WHERE um.trashed = false AND m.state = 'SENT' AND m.thread_id IS NOT NULL
+WINDOW w AS (PARTITION BY um.user_id, m.thread_id)
+ORDER BY um.user_id, m.thread_id, m.date DESC;
+
+CREATE INDEX idx_userthreads_date ON conversation.userthreads (user_id, date DESC, thread_id DESC);
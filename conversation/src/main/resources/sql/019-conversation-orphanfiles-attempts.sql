@@ -0,0 +1 @@
+ALTER TABLE conversation.orphanfiles ADD COLUMN attempts SMALLINT NOT NULL DEFAULT 0;
@@ -46,11 +46,11 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.vertx.java.busmods.BusModBase;
 
+import java.io.File;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static fr.wseduc.webutils.Utils.getOrElse;
 import static fr.wseduc.webutils.Utils.isNotEmpty;
@@ -68,7 +68,10 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 	private Exporter exporter;
 	private DuplicateUsers duplicateUsers;
 	private PostImport postImport;
-	private final ConcurrentLinkedQueue<Message<JsonObject>> eventQueue = new ConcurrentLinkedQueue<>();
+	private EventQueue eventQueue;
+	private int eventQueueBatchSize;
+	private long eventQueueDelay;
+	private boolean drainingEventQueue = false;
 
 	public enum FeederEvent {
 		IMPORT, DELETE_USER, CREATE_USER, MERGE_USER
@@ -91,12 +94,19 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 		MongoDb.getInstance().init(vertx.eventBus(), node + "wse.mongodb.persistor");
 		TransactionManager.getInstance().setNeo4j(neo4j);
 		EventStoreFactory.getFactory().setVertx(vertx);
+		eventQueue = new EventQueue(vertx, config.getString("event-queue-file", defaultEventQueueFile(node)),
+				config.getInteger("event-queue-max-size", 10000));
+		eventQueueBatchSize = config.getInteger("event-queue-batch-size", 50);
+		eventQueueDelay = config.getLong("event-queue-delay", 1000l);
+		eventQueue.replay();
 		defaultFeed = config.getString("feeder", "AAF");
 		feeds.put("AAF", new AafFeeder(vertx, getFilesDirectory("AAF")));
 		feeds.put("AAF1D", new Aaf1dFeeder(vertx, getFilesDirectory("AAF1D")));
 		feeds.put("CSV", new CsvFeeder(vertx, config.getJsonObject("csvMappings", new JsonObject())));
 		final long deleteUserDelay = config.getLong("delete-user-delay", defaultDeleteUserDelay);
 		final long preDeleteUserDelay = config.getLong("pre-delete-user-delay", defaultPreDeleteUserDelay);
+		final int deleteBatchSize = config.getInteger("delete-batch-size", User.DEFAULT_BATCH_SIZE);
+		final int preDeleteBatchSize = config.getInteger("pre-delete-batch-size", User.DEFAULT_BATCH_SIZE);
 		final String deleteCron = config.getString("delete-cron", "0 0 2 * * ? *");
 		final String preDeleteCron = config.getString("pre-delete-cron", "0 0 3 * * ? *");
 		final String importCron = config.getString("import-cron");
@@ -104,7 +114,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 		final JsonObject preDelete = config.getJsonObject("pre-delete");
 		final TimelineHelper timeline = new TimelineHelper(vertx, eb, config);
 		try {
-			new CronTrigger(vertx, deleteCron).schedule(new User.DeleteTask(deleteUserDelay, eb, vertx));
+			new CronTrigger(vertx, deleteCron).schedule(new User.DeleteTask(deleteUserDelay, eb, vertx, deleteBatchSize));
 			if (preDelete != null) {
 				if (preDelete.size() == ManualFeeder.profiles.size() &&
 						ManualFeeder.profiles.keySet().containsAll(preDelete.fieldNames())) {
@@ -113,11 +123,13 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 						if (profilePreDelete == null || profilePreDelete.getString("cron") == null ||
 								profilePreDelete.getLong("delay") == null) continue;
 						new CronTrigger(vertx, profilePreDelete.getString("cron"))
-								.schedule(new User.PreDeleteTask(profilePreDelete.getLong("delay"), profile, timeline));
+								.schedule(new User.PreDeleteTask(profilePreDelete.getLong("delay"), profile, timeline,
+										preDeleteBatchSize));
 					}
 				}
 			} else {
-				new CronTrigger(vertx, preDeleteCron).schedule(new User.PreDeleteTask(preDeleteUserDelay, timeline));
+				new CronTrigger(vertx, preDeleteCron).schedule(new User.PreDeleteTask(preDeleteUserDelay, null, timeline,
+						preDeleteBatchSize));
 			}
 			if (imports != null) {
 				if (feeds.keySet().containsAll(imports.fieldNames())) {
@@ -202,6 +214,15 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 			}
 		}
 		I18n.getInstance().init(vertx);
+		checkEventQueue();
+	}
+
+	private String defaultEventQueueFile(String node) {
+		String dir = config.getString("import-files");
+		if (dir == null || dir.isEmpty()) {
+			dir = System.getProperty("java.io.tmpdir");
+		}
+		return new File(dir, node + "feeder-event-queue.log").getAbsolutePath();
 	}
 
 	private String getFilesDirectory(String feeder) {
@@ -216,7 +237,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 	public void handle(Message<JsonObject> message) {
 		String action = getOrElse(message.body().getString("action"), "");
 		if (action.startsWith("manual-") && !Importer.getInstance().isReady()) {
-			eventQueue.add(message);
+			queueEvent(message);
 			return;
 		}
 		switch (action) {
@@ -313,7 +334,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				AbstractTimetableImporter.initStructure(eb, message);
 				break;
 			case "manual-edt":
-				EDTImporter.launchImport(edtUtils, config.getString("mode", "prod"), message, postImport);
+				EDTImporter.launchImport(vertx, edtUtils, config.getString("mode", "prod"), message, postImport);
 				break;
 			case "manual-udt":
 				UDTImporter.launchImport(vertx, message, postImport, config.getBoolean("udt-user-creation", true));
@@ -321,6 +342,9 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 			case "reinit-logins" :
 				Validator.initLogin(neo4j, vertx);
 				break;
+			case "event-queue-stats" :
+				sendOK(message, eventQueue.stats());
+				break;
 			default:
 				sendError(message, "invalid.action");
 		}
@@ -459,7 +483,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				}
 			});
 		} else {
-			eventQueue.add(message);
+			queueEvent(message);
 		}
 	}
 
@@ -599,22 +623,57 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				}
 			});
 		} else {
-			eventQueue.add(message);
+			queueEvent(message);
+		}
+	}
+
+	private void queueEvent(Message<JsonObject> message) {
+		if (!eventQueue.add(message)) {
+			logger.error("Feeder event queue full, reject action " + message.body().getString("action"));
+			sendError(message, "feeder.event.queue.full");
 		}
 	}
 
 	private void checkEventQueue() {
-		Message<JsonObject> event = eventQueue.poll();
-		if (event != null) {
-			switch (getOrElse(event.body().getString("action"), "")) {
-				case "import": launchImport(event);
-					break;
-				case "transition": launchTransition(event, null);
-					break;
-				default:
-					handle(event);
-			}
+		if (drainingEventQueue || eventQueue.isEmpty()) {
+			return;
 		}
+		drainingEventQueue = true;
+		vertx.setTimer(eventQueueDelay, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				int count = 0;
+				// manual actions are applied by batches, an import or a transition ends the pass
+				// as the importer and the graph data stay ready until their asynchronous init is done
+				while (count < eventQueueBatchSize && Importer.getInstance().isReady()) {
+					final Message<JsonObject> head = eventQueue.peek();
+					if (head == null) break;
+					final String action = getOrElse(head.body().getString("action"), "");
+					if (("import".equals(action) || "transition".equals(action)) &&
+							(count > 0 || !GraphData.isReady())) {
+						break;
+					}
+					final Message<JsonObject> event = eventQueue.poll();
+					count++;
+					if ("import".equals(action)) {
+						launchImport(event);
+						break;
+					} else if ("transition".equals(action)) {
+						launchTransition(event, null);
+						break;
+					} else {
+						Feeder.this.handle(event);
+					}
+				}
+				drainingEventQueue = false;
+				if (count > 0) {
+					logger.info("Feeder event queue : " + count + " events applied, " + eventQueue.size() + " remaining.");
+				}
+				if (Importer.getInstance().isReady()) {
+					checkEventQueue();
+				}
+			}
+		});
 	}
 
 }
@@ -510,13 +510,13 @@ public class ManualFeeder extends BusModBase {
 						final Set<String> oldLogins = new HashSet<>();
 						final JsonArray deleteUsers = new JsonArray();
 						executeTransaction(message, tx -> {
+							final JsonArray preDeleteUsers = new JsonArray();
 							for (Object o : res) {
 								if (!(o instanceof JsonObject)) continue;
 								final JsonObject j = (JsonObject) o;
 								final String id = j.getString("id");
 								if (isNotEmpty(id)) {
-									User.backupRelationship(id, tx);
-									User.preDelete(id, tx);
+									preDeleteUsers.add(id);
 									if (j.getBoolean("inactive", false)) {
 										oldLogins.add(j.getString("login"));
 										if (isNotEmpty(j.getString("loginAlias"))) {
@@ -526,6 +526,8 @@ public class ManualFeeder extends BusModBase {
 									}
 								}
 							}
+							User.backupRelationships(preDeleteUsers, tx);
+							User.preDelete(preDeleteUsers, tx);
 							if (deleteUsers.size() > 0) {
 								User.getDelete(deleteUsers, tx);
 								User.delete(deleteUsers, tx);
@@ -303,8 +303,8 @@ public class Structure {
 						@Override
 						public void handle(Message<JsonObject> event) {
 							if ("ok".equals(event.body().getString("status"))) {
+								User.backupRelationships(res.getJsonArray("users"), tx);
 								for (Object u : res.getJsonArray("users")) {
-									User.backupRelationship(u.toString(), tx);
 									User.transition(u.toString(), tx);
 								}
 								transitionClassGroup();
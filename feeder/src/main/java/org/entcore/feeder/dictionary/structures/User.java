@@ -60,6 +60,7 @@ public class User {
 			"CASE WHEN fgroup IS NULL THEN [] ELSE collect(distinct fgroup.id) END as functionalGroupsIds, " +
 			"CASE WHEN mgroup IS NULL THEN [] ELSE collect(distinct mgroup.id) END as manualGroupsIds, " +
 			"CASE WHEN s IS NULL THEN [] ELSE collect(distinct s.id) END as structureIds ";
+	public static final int DEFAULT_BATCH_SIZE = 1000;
 
 	public static class DeleteTask implements Handler<Long> {
 
@@ -68,26 +69,35 @@ public class User {
 		private final EventBus eb;
 		private final Vertx vertx;
 		private EventStore eventStore = EventStoreFactory.getFactory().getEventStore(Feeder.class.getSimpleName());
-		private static final int LIMIT = 1000;
+		private final int limit;
 		private int page;
+		private int deleted;
+		private long start;
 
 		public DeleteTask(long delay, EventBus eb, Vertx vertx) {
+			this(delay, eb, vertx, DEFAULT_BATCH_SIZE);
+		}
+
+		public DeleteTask(long delay, EventBus eb, Vertx vertx, int batchSize) {
 			this.delay = delay;
 			this.eb = eb;
 			this.vertx = vertx;
+			this.limit = batchSize;
 		}
 
 		@Override
 		public void handle(Long event) {
 			log.info("Execute task delete user.");
 			page = 1;
+			deleted = 0;
+			start = System.currentTimeMillis();
 			delete();
 		}
 
 		protected void delete() {
 			try {
 				TransactionHelper tx = TransactionManager.getInstance().begin();
-				User.getDelete(delay, LIMIT, tx);
+				User.getDelete(delay, limit, tx);
 				tx.commit(new Handler<Message<JsonObject>>() {
 					@Override
 					public void handle(Message<JsonObject> m) {
@@ -108,8 +118,11 @@ public class User {
 										public void handle(Message<JsonObject> m2) {
 											if ("ok".equals(m2.body().getString("status"))) {
 												publishDeleteUsers(eb, eventStore, r);
-												if (r.size() == LIMIT) {
-													vertx.setTimer(LIMIT * 100l, new Handler<Long>() {
+												deleted += r.size();
+												log.info("Delete progress : " + deleted + " users - " +
+														throughput(deleted, start) + " users/s");
+												if (r.size() == limit) {
+													vertx.setTimer(limit * 100l, new Handler<Long>() {
 														@Override
 														public void handle(Long event) {
 															log.info("Delete page " + ++page);
@@ -168,6 +181,7 @@ public class User {
 		private final String profile;
 		private static final int LIMIT = 5000;
 		private final TimelineHelper timeline;
+		private final int batchSize;
 
 		public PreDeleteTask(long delay) {
 			this(delay, null, null);
@@ -178,9 +192,14 @@ public class User {
 		}
 
 		public PreDeleteTask(Long delay, String profile, TimelineHelper timeline) {
+			this(delay, profile, timeline, DEFAULT_BATCH_SIZE);
+		}
+
+		public PreDeleteTask(Long delay, String profile, TimelineHelper timeline, int batchSize) {
 			this.delay = delay;
 			this.profile = profile;
 			this.timeline = timeline;
+			this.batchSize = batchSize;
 		}
 
 		@Override
@@ -275,19 +294,33 @@ public class User {
 		}
 
 		private void preDeleteUsers(final JsonArray users, final Handler<Message<JsonObject>> handler) {
+			final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
+			for (Object o : users) {
+				if (!(o instanceof JsonObject)) continue;
+				userIds.add(((JsonObject) o).getString("id"));
+			}
+			preDeleteUsers(userIds, 0, System.currentTimeMillis(), handler);
+		}
+
+		private void preDeleteUsers(final JsonArray userIds, final int offset, final long start,
+				final Handler<Message<JsonObject>> handler) {
+			final int end = Math.min(offset + batchSize, userIds.size());
+			final JsonArray batch = new fr.wseduc.webutils.collections.JsonArray(userIds.getList().subList(offset, end));
 			try {
 				TransactionHelper tx = TransactionManager.getInstance().begin();
-				for (Object o : users) {
-					if (!(o instanceof JsonObject)) continue;
-					String userId = ((JsonObject) o).getString("id");
-					backupRelationship(userId, tx);
-					preDelete(userId, tx);
-				}
+				backupRelationships(batch, tx);
+				preDelete(batch, tx);
 				tx.commit(new Handler<Message<JsonObject>>() {
 					@Override
 					public void handle(Message<JsonObject> m) {
 						if ("ok".equals(m.body().getString("status"))) {
-							log.info("PreDelete users : " + users.encode());
+							log.info("PreDelete users : " + batch.encode());
+							log.info("PreDelete progress : " + end + "/" + userIds.size() + " users - " +
+									throughput(end, start) + " users/s");
+							if (end < userIds.size()) {
+								preDeleteUsers(userIds, end, start, handler);
+								return;
+							}
 						} else {
 							log.error(m.body().encode());
 						}
@@ -306,59 +339,76 @@ public class User {
 
 	}
 
+	private static long throughput(int count, long start) {
+		final long duration = System.currentTimeMillis() - start;
+		return (duration > 0) ? count * 1000L / duration : count;
+	}
+
 	public static void backupRelationship(String userId, TransactionHelper transaction) {
-		JsonObject params = new JsonObject().put("userId", userId);
+		backupRelationships(new fr.wseduc.webutils.collections.JsonArray().add(userId), transaction);
+	}
+
+	public static void backupRelationships(JsonArray userIds, TransactionHelper transaction) {
+		JsonObject params = new JsonObject().put("userIds", userIds);
 		String query =
-				"MATCH (u:User { id : {userId}})-[r:IN]->(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})-[r:IN]->(n) " +
 				"WHERE HAS(n.id) AND NOT(n:DeleteGroup) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.IN_OUTGOING = coalesce(b.IN_OUTGOING, []) + ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})-[r:COMMUNIQUE]->(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})-[r:COMMUNIQUE]->(n) " +
 				"WHERE HAS(n.id) AND NOT(n:DeleteGroup) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.COMMUNIQUE_OUTGOING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})<-[r:COMMUNIQUE]-(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})<-[r:COMMUNIQUE]-(n) " +
 				"WHERE HAS(n.id) AND NOT(n:DeleteGroup) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.COMMUNIQUE_INCOMING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})-[r:COMMUNIQUE_DIRECT]->(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})-[r:COMMUNIQUE_DIRECT]->(n) " +
 				"WHERE HAS(n.id) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.COMMUNIQUE_DIRECT_OUTGOING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})<-[r:COMMUNIQUE_DIRECT]-(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})<-[r:COMMUNIQUE_DIRECT]-(n) " +
 				"WHERE HAS(n.id) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.COMMUNIQUE_DIRECT_INCOMING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})-[r:RELATED]->(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})-[r:RELATED]->(n) " +
 				"WHERE HAS(n.id) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.RELATED_OUTGOING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})<-[r:RELATED]-(n) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})<-[r:RELATED]-(n) " +
 				"WHERE HAS(n.id) " +
 				"WITH u, COLLECT(n.id) as ids " +
-				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: {userId}}) " +
+				"MERGE u-[:HAS_RELATIONSHIPS]->(b:Backup {userId: u.id}) " +
 				"SET b.RELATED_INCOMING = ids ";
 		transaction.add(query, params);
 		query =
-				"MATCH (u:User { id : {userId}})-[:IN]->(pg: ProfileGroup)-[:DEPENDS]->(s: Structure), " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})-[:IN]->(pg: ProfileGroup)-[:DEPENDS]->(s: Structure), " +
 				" (u)-[:HAS_RELATIONSHIPS]->(b: Backup) " +
 				"WITH b, COLLECT(s.id) as sIds " +
 				"SET b.structureIds = sIds";
@@ -366,9 +416,14 @@ public class User {
 	}
 
 	public static void preDelete(String userId, TransactionHelper transaction) {
-		JsonObject params = new JsonObject().put("userId", userId);
+		preDelete(new fr.wseduc.webutils.collections.JsonArray().add(userId), transaction);
+	}
+
+	public static void preDelete(JsonArray userIds, TransactionHelper transaction) {
+		JsonObject params = new JsonObject().put("userIds", userIds);
 		String mQuery =
-				"MATCH (u:User { id : {userId}})<-[r:MERGED]-(um:User), " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId})<-[r:MERGED]-(um:User), " +
 				"u<-[:RELATED]-(us:User) " +
 				"WHERE has(us.relative) AND LENGTH(FILTER(eId IN us.relative WHERE eId STARTS WITH um.externalId)) > 0 " +
 				"REMOVE um.mergedWith, u.mergedLogins " +
@@ -380,7 +435,8 @@ public class User {
 				"CREATE UNIQUE um-[:IN]->rcg ";
 		transaction.add(mQuery, params);
 		String query =
-				"MATCH (u:User { id : {userId}}), (dg:DeleteGroup) " +
+				"UNWIND {userIds} as userId " +
+				"MATCH (u:User { id : userId}), (dg:DeleteGroup) " +
 				"OPTIONAL MATCH u-[r:IN|COMMUNIQUE|COMMUNIQUE_DIRECT|RELATED|DUPLICATE|TEACHES_FOS|TEACHES]-() " +
 				"SET u.deleteDate = timestamp(), u.IDPN = null " +
 				"DELETE r " +
@@ -33,8 +33,15 @@ import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
+import java.io.File;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public abstract class BaseExportProcessing implements ExportProcessing {
 
@@ -45,6 +52,8 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 	protected final boolean concat;
 	private XMLEventWriter xmlEventWriter;
 	private XMLEventFactory xmlEventFactory;
+	private Writer output;
+	private ZipOutputStream zipOutput;
 
 	protected BaseExportProcessing(String exportMapping, int nbByFile, String path, boolean concat) {
 		this.path = path;
@@ -75,6 +84,9 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 							}
 						}
 						if (exportProcessing != null) {
+							if (exportProcessing instanceof BaseExportProcessing) {
+								((BaseExportProcessing) exportProcessing).setZipOutput(zipOutput);
+							}
 							exportProcessing.start(handler);
 						} else {
 							handler.handle(new ResultMessage());
@@ -124,10 +136,45 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 		});
 	}
 
+	/**
+	 * Writes the documents as entries of the given zip instead of files under the export path.
+	 * The zip is handed over to the next processing of the chain.
+	 */
+	public void setZipOutput(ZipOutputStream zipOutput) {
+		this.zipOutput = zipOutput;
+	}
+
+	private Writer openOutput(String p) throws IOException {
+		if (zipOutput == null) {
+			return new FileWriter(p);
+		}
+		zipOutput.putNextEntry(new ZipEntry(p.substring(p.lastIndexOf(File.separator) + 1)));
+		// the zip is shared by all documents of the export, it is closed by the exporter
+		return new OutputStreamWriter(new FilterOutputStream(zipOutput) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		}, StandardCharsets.UTF_8);
+	}
+
+	private void closeOutput(Writer w) throws IOException {
+		w.close();
+		if (zipOutput != null) {
+			zipOutput.closeEntry();
+		}
+	}
+
 	private void openDocument() throws IOException, XMLStreamException {
 		final String p = path + "0000.xml";
 		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-		xmlEventWriter = outputFactory.createXMLEventWriter(new FileWriter(p));
+		output = openOutput(p);
+		xmlEventWriter = outputFactory.createXMLEventWriter(output);
 		xmlEventWriter.add(xmlEventFactory.createStartDocument());
 		xmlEventWriter.add(xmlEventFactory.createDTD("\n<!DOCTYPE ficAlimMENESR SYSTEM \"ficAlimMENESR.dtd\">\n"));
 		xmlEventWriter.add(xmlEventFactory.createStartElement("", "", "ficAlimMENESR"));
@@ -140,12 +187,14 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 		xmlEventWriter.add(xmlEventFactory.createEndDocument());
 		xmlEventWriter.flush();
 		xmlEventWriter.close();
+		closeOutput(output);
 	}
 
 	private void writeDocument(int j, JsonArray objects) throws IOException, XMLStreamException {
 		final String p = path + String.format("%04d", j) + ".xml";
 		XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-		XMLEventWriter writer = outputFactory.createXMLEventWriter(new FileWriter(p));
+		final Writer w = openOutput(p);
+		XMLEventWriter writer = outputFactory.createXMLEventWriter(w);
 		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
 		writer.add(eventFactory.createStartDocument());
 		writer.add(eventFactory.createDTD("\n<!DOCTYPE ficAlimMENESR SYSTEM \"ficAlimMENESR.dtd\">\n"));
@@ -159,6 +208,7 @@ public abstract class BaseExportProcessing implements ExportProcessing {
 		writer.add(eventFactory.createEndDocument());
 		writer.flush();
 		writer.close();
+		closeOutput(w);
 	}
 
 	private void writeElement(XMLEventWriter writer, XMLEventFactory eventFactory,
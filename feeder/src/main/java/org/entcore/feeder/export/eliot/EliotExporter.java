@@ -36,11 +36,14 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.zip.ZipOutputStream;
 
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 
@@ -86,29 +89,60 @@ public class EliotExporter implements Exporter {
 					final Date exportDate = new Date();
 					final String path = exportBasePath + File.separator +
 							tenant + "_Complet_" + datetime.format(exportDate) + "_Export";
-					log.info("Export path " + path);
-					vertx.fileSystem().mkdirs(path, new Handler<AsyncResult<Void>>() {
+					final String zipPath = path + ".zip";
+					final boolean sendExport = exportDestination != null && !exportDestination.trim().isEmpty();
+					log.info("Export path " + (sendExport ? zipPath : path));
+					vertx.fileSystem().mkdirs((sendExport ? exportBasePath : path), new Handler<AsyncResult<Void>>() {
 						@Override
 						public void handle(AsyncResult<Void> ar) {
 							if (ar.succeeded()) {
-								new EleveExportProcessing(path, date.format(exportDate), tenant + "_" + academy, concatFiles)
-										.start(new Handler<Message<JsonObject>>() {
-											@Override
-											public void handle(Message<JsonObject> message) {
-												if ("ok".equals(message.body().getString("status"))) {
-													if (exportDestination != null && !exportDestination.trim().isEmpty()) {
-														zipAndSend(path, handler);
-													} else {
-														log.warn("export not send");
-														message.body().put("exportPath", path);
-														handler.handle(message);
-													}
-												} else {
-													log.error(message.body().encode());
-													handler.handle(message);
+								final EleveExportProcessing exportProcessing = new EleveExportProcessing(
+										path, date.format(exportDate), tenant + "_" + academy, concatFiles);
+								final ZipOutputStream zip;
+								if (sendExport) {
+									try {
+										zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipPath)));
+									} catch (IOException e) {
+										log.error(e.getMessage(), e);
+										handler.handle(new ResultMessage().error(e.getMessage()));
+										return;
+									}
+									exportProcessing.setZipOutput(zip);
+								} else {
+									zip = null;
+								}
+								exportProcessing.start(new Handler<Message<JsonObject>>() {
+									@Override
+									public void handle(Message<JsonObject> message) {
+										if ("ok".equals(message.body().getString("status"))) {
+											if (zip != null) {
+												try {
+													zip.close();
+												} catch (IOException e) {
+													log.error("Error closing export zip : " + zipPath, e);
+													handler.handle(new ResultMessage().error(e.getMessage()));
+													return;
 												}
+												sendWithWebDav(zipPath, handler);
+											} else {
+												log.warn("export not send");
+												message.body().put("exportPath", path);
+												handler.handle(message);
 											}
-										});
+										} else {
+											log.error(message.body().encode());
+											if (zip != null) {
+												try {
+													zip.close();
+												} catch (IOException e) {
+													log.error("Error closing export zip : " + zipPath, e);
+												}
+												vertx.fileSystem().delete(zipPath, null);
+											}
+											handler.handle(message);
+										}
+									}
+								});
 							} else {
 								log.error(ar.cause().getMessage(), ar.cause());
 								handler.handle(new ResultMessage().error(ar.cause().getMessage()));
@@ -128,38 +162,6 @@ public class EliotExporter implements Exporter {
 		return ELIOT;
 	}
 
-	private void zipAndSend(final String path, final Handler<Message<JsonObject>> handler) {
-		final String zipPath = path + ".zip";
-		log.info("Export zip : " + zipPath);
-		vertx.fileSystem().readDir(path, new Handler<AsyncResult<List<String>>>() {
-			@Override
-			public void handle(AsyncResult<List<String>> asyncResult) {
-				if (asyncResult.succeeded()) {
-					JsonObject j = new JsonObject()
-							.put("path", new fr.wseduc.webutils.collections.JsonArray(asyncResult.result()))
-							.put("zipFile", zipPath)
-							.put("deletePath", true);
-					vertx.eventBus().send(node + "entcore.zipper", j, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
-						@Override
-						public void handle(Message<JsonObject> event) {
-							if ("ok".equals(event.body().getString("status"))) {
-								sendWithWebDav(zipPath, handler);
-								vertx.fileSystem().deleteRecursive(path, true, null);
-							} else {
-								log.error("Error zipping export : ");
-								log.error(event.body().encode());
-								handler.handle(event);
-							}
-						}
-					}));
-				} else {
-					log.error(asyncResult.cause().getMessage(), asyncResult.cause());
-					handler.handle(new ResultMessage().error(asyncResult.cause().getMessage()));
-				}
-			}
-		});
-	}
-
 	private void sendWithWebDav(final String file, final Handler<Message<JsonObject>> handler) {
 		final EventBus eb = vertx.eventBus();
 		JsonObject j = new JsonObject()
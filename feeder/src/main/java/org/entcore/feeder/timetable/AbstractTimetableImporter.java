@@ -43,6 +43,8 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static fr.wseduc.webutils.Utils.isEmpty;
@@ -122,6 +124,8 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 			"WITH u, collect(g.externalId) as groups " +
 			"SET u.groups = groups";
 	public static final String COURSES = "courses";
+	private static final int BULK_SIZE = 1000;
+	private static final int MAX_IN_FLIGHT_BULKS = 4;
 	protected long importTimestamp;
 	protected final String UAI;
 	protected final Report report;
@@ -151,6 +155,11 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 	private boolean txSuccess = false;
 	protected Set<String> userImportedExternalId = new HashSet<>();
 	private volatile JsonArray coursesBuffer = new fr.wseduc.webutils.collections.JsonArray();
+	private final Queue<JsonArray> pendingBulks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inFlightBulks = new AtomicInteger(0);
+	// course ids are checksums of their content : a known id means an unchanged course
+	private final Set<String> existingCourses = new HashSet<>();
+	private final Set<String> importedCourses = ConcurrentHashMap.newKeySet();
 
 	protected AbstractTimetableImporter(String uai, String path, String acceptLanguage) {
 		UAI = uai;
@@ -245,7 +254,7 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 						txXDT = TransactionManager.getTransaction();
 						persEducNat = new PersEducNat(txXDT, report, getSource());
 						persEducNat.setMapping("dictionary/mapping/" + getSource().toLowerCase() + "/PersEducNat.json");
-						handler.handle(new DefaultAsyncResult<>((Void) null));
+						loadExistingCourses(handler);
 					} catch (Exception e) {
 						handler.handle(new DefaultAsyncResult<Void>(e));
 					}
@@ -256,6 +265,26 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 		});
 	}
 
+	private void loadExistingCourses(final Handler<AsyncResult<Void>> handler) {
+		final JsonObject query = new JsonObject().put("structureId", structureId)
+				.put("deleted", new JsonObject().put("$exists", false));
+		mongoDb.find(COURSES, query, null, new JsonObject().put("_id", 1), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray res = event.body().getJsonArray("results");
+				if ("ok".equals(event.body().getString("status")) && res != null) {
+					for (Object o : res) {
+						if (!(o instanceof JsonObject)) continue;
+						existingCourses.add(((JsonObject) o).getString("_id"));
+					}
+					handler.handle(new DefaultAsyncResult<>((Void) null));
+				} else {
+					handler.handle(new DefaultAsyncResult<Void>(new TransactionException(event.body().getString("message"))));
+				}
+			}
+		});
+	}
+
 	protected void addSubject(String id, JsonObject currentEntity) {
 		String subjectId = subjectsMapping.get(currentEntity.getString("Code"));
 		if (isEmpty(subjectId)) {
@@ -275,17 +304,21 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 		persEducNatToClasses(object);
 		persEducNatToGroups(object);
 		persEducNatToSubjects(object);
+		final String courseId = object.getString("_id");
+		if (!importedCourses.add(courseId) || existingCourses.contains(courseId)) {
+			return;
+		}
 		object.put("pending", importTimestamp);
-		final int currentCount = countMongoQueries.incrementAndGet();
+		countMongoQueries.incrementAndGet();
 		JsonObject m = new JsonObject().put("$set", object)
 				.put("$setOnInsert", new JsonObject().put("created", importTimestamp));
 		coursesBuffer.add(new JsonObject()
 						.put("operation", "upsert")
 						.put("document", m)
-						.put("criteria", new JsonObject().put("_id", object.getString("_id")))
+						.put("criteria", new JsonObject().put("_id", courseId))
 		);
 
-		if (currentCount % 1000 == 0) {
+		if (coursesBuffer.size() >= BULK_SIZE) {
 			persistBulKCourses();
 		}
 	}
@@ -293,25 +326,43 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 	private void persistBulKCourses() {
 		final JsonArray cf = coursesBuffer;
 		coursesBuffer = new fr.wseduc.webutils.collections.JsonArray();
+		if (cf.size() > 0) {
+			pendingBulks.add(cf);
+			sendPendingBulks();
+		}
+	}
+
+	private void sendPendingBulks() {
+		while (inFlightBulks.incrementAndGet() <= MAX_IN_FLIGHT_BULKS) {
+			final JsonArray cf = pendingBulks.poll();
+			if (cf == null) {
+				break;
+			}
+			sendBulkCourses(cf);
+		}
+		inFlightBulks.decrementAndGet();
+	}
+
+	private void sendBulkCourses(final JsonArray cf) {
 		final int countCoursesBuffer = cf.size();
-		if (countCoursesBuffer > 0) {
-			mongoDb.bulk(COURSES, cf, new Handler<Message<JsonObject>>() {
-				@Override
-				public void handle(Message<JsonObject> event) {
-					if (!"ok".equals(event.body().getString("status"))) {
-						if (event.body().getString("message") == null ||
-									!event.body().getString("message").contains("duplicate key error")) {
-							report.addError("error.persist.course");
-						} else {
-							log.warn("Duplicate courses keys.");
-						}
-					}
-					if (countMongoQueries.addAndGet(-countCoursesBuffer) == 0) {
-						end();
+		mongoDb.bulk(COURSES, cf, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					if (event.body().getString("message") == null ||
+								!event.body().getString("message").contains("duplicate key error")) {
+						report.addError("error.persist.course");
+					} else {
+						log.warn("Duplicate courses keys.");
 					}
 				}
-			});
-		}
+				inFlightBulks.decrementAndGet();
+				sendPendingBulks();
+				if (countMongoQueries.addAndGet(-countCoursesBuffer) == 0) {
+					end();
+				}
+			}
+		});
 	}
 
 	private void persEducNatToClasses(JsonObject object) {
@@ -437,8 +488,7 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 							public void handle(Message<JsonObject> event) {
 								if ("ok".equals(event.body().getString("status"))) {
 									mongoDb.update(COURSES, baseQuery.copy()
-											.put("deleted", new JsonObject().put("$exists", false))
-											.put("modified", new JsonObject().put("$ne", importTimestamp)),
+											.put("_id", new JsonObject().put("$in", obsoleteCourses())),
 									new JsonObject().put("$set", new JsonObject().put("deleted", importTimestamp)),
 									false, true, new Handler<Message<JsonObject>>() {
 										@Override
@@ -484,6 +534,16 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 		}
 	}
 
+	private JsonArray obsoleteCourses() {
+		final JsonArray obsolete = new fr.wseduc.webutils.collections.JsonArray();
+		for (String courseId : existingCourses) {
+			if (!importedCourses.contains(courseId)) {
+				obsolete.add(courseId);
+			}
+		}
+		return obsolete;
+	}
+
 	protected void commit(final Handler<AsyncResult<Report>> handler) {
 		final JsonObject params = new JsonObject().put("structureExternalId", structureExternalId)
 				.put("source", getSource()).put("now", importTimestamp);
@@ -514,6 +574,23 @@ public abstract class AbstractTimetableImporter implements TimetableImporter {
 		});
 	}
 
+	/**
+	 * Ends an import which failed before its commit : the transaction is rolled back, the buffered courses
+	 * are flushed then all the pending courses of the import are dropped.
+	 */
+	protected void rollback(final Throwable cause, final Handler<AsyncResult<Report>> handler) {
+		txXDT.rollback();
+		persistBulKCourses();
+		txSuccess = false;
+		endHandler = new Handler<AsyncResult<Report>>() {
+			@Override
+			public void handle(AsyncResult<Report> event) {
+				handler.handle(new DefaultAsyncResult<Report>(cause));
+			}
+		};
+		end();
+	}
+
 	protected abstract String getSource();
 
 	protected abstract String getTeacherMappingAttribute();
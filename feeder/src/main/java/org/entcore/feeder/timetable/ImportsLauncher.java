@@ -95,7 +95,7 @@ public class ImportsLauncher implements Handler<Long> {
 											.put("UAI", matcher.group(1))
 											.put("language", "fr");
 									if (edtUtils != null) {
-										EDTImporter.launchImport(edtUtils, m);
+										EDTImporter.launchImport(vertx, edtUtils, m);
 									} else {
 										UDTImporter.launchImport(vertx, m, udtUserCreation);
 									}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.feeder.timetable.edt;
+
+import org.entcore.feeder.exceptions.ValidationException;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decrypted view of the CONTENU element of an encrypted EDT export.
+ * The base64 text is read chunk by chunk from the envelope, so only a few buffers are held in memory
+ * whatever the export size. The SHA-256 of the decrypted content is checked by {@link #verify()}
+ * once the consumer has read the stream.
+ */
+public class EDTDecryptedExport extends InputStream {
+
+	private static final int BUFFER_SIZE = 8192;
+	private final XMLStreamReader reader;
+	private final InputStream source;
+	private final DigestInputStream digestStream;
+	private final InputStream content;
+
+	EDTDecryptedExport(XMLStreamReader reader, InputStream source, Cipher cipher, boolean compressed)
+			throws NoSuchAlgorithmException {
+		this.reader = reader;
+		this.source = source;
+		final InputStream encrypted = Base64.getMimeDecoder().wrap(new ElementTextInputStream());
+		this.digestStream = new DigestInputStream(new CipherInputStream(encrypted, cipher),
+				MessageDigest.getInstance("SHA-256"));
+		this.content = compressed ? new InflaterInputStream(digestStream, new Inflater(), BUFFER_SIZE) :
+				digestStream;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return content.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		return content.read(b, off, len);
+	}
+
+	/**
+	 * Consumes the remaining encrypted content and compares its hash with the VERIFICATION element.
+	 * Must be called after the decrypted content has been parsed and before any data is committed.
+	 */
+	public void verify() throws IOException, XMLStreamException, ValidationException {
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		while (digestStream.read(buffer) != -1);
+		String verification = null;
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT && "VERIFICATION".equals(reader.getLocalName())) {
+				verification = reader.getElementText();
+				break;
+			}
+		}
+		if (verification == null || !MessageDigest.isEqual(digestStream.getMessageDigest().digest(),
+				Base64.getMimeDecoder().decode(verification))) {
+			throw new ValidationException("invalid.content.hash");
+		}
+	}
+
+	/**
+	 * Releases the envelope reader and the export file. The SAX parser closes its input at the end of the document,
+	 * so the stream must be shielded from the parser when {@link #verify()} is called afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Exposes the character events of the current element as ASCII bytes, until its end tag.
+	 */
+	private class ElementTextInputStream extends InputStream {
+
+		private char[] chars;
+		private int charsPos;
+		private int charsEnd;
+		private boolean end = false;
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (charsPos >= charsEnd && !nextCharacters()) {
+				return -1;
+			}
+			final int count = Math.min(len, charsEnd - charsPos);
+			for (int i = 0; i < count; i++) {
+				b[off + i] = (byte) chars[charsPos++];
+			}
+			return count;
+		}
+
+		private boolean nextCharacters() throws IOException {
+			try {
+				while (!end && reader.hasNext()) {
+					switch (reader.next()) {
+						case XMLStreamConstants.CHARACTERS:
+						case XMLStreamConstants.CDATA:
+						case XMLStreamConstants.SPACE:
+							chars = reader.getTextCharacters();
+							charsPos = reader.getTextStart();
+							charsEnd = charsPos + reader.getTextLength();
+							if (charsPos < charsEnd) {
+								return true;
+							}
+							break;
+						case XMLStreamConstants.END_ELEMENT:
+							end = true;
+							break;
+					}
+				}
+				return false;
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			}
+		}
+
+	}
+
+}
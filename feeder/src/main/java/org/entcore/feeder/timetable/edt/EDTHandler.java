@@ -19,6 +19,8 @@
 
 package org.entcore.feeder.timetable.edt;
 
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -27,21 +29,37 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 
+/**
+ * Runs on the parsing thread and hands the parsed entities by batches to the importer on its context,
+ * the parsing being blocked while MAX_PENDING_BATCHES batches are waiting to be imported.
+ */
 public class EDTHandler extends DefaultHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(EDTHandler.class);
+	private static final int BATCH_SIZE = 100;
+	private static final int MAX_PENDING_BATCHES = 10;
 	private String currentTag = "";
 	private String currentEntityType = "";
 	private JsonObject currentEntity;
 	private final EDTImporter edtImporter;
 	private boolean firstCours = true;
 	private final boolean persEducNatOnly;
+	private final Context context;
+	private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+	private List<String> types = new ArrayList<>();
+	private List<JsonObject> entities = new ArrayList<>();
+	private volatile RuntimeException error;
 
-	public EDTHandler(EDTImporter edtImporter, boolean persEducNatOnly) {
+	public EDTHandler(EDTImporter edtImporter, boolean persEducNatOnly, Context context) {
 		this.edtImporter = edtImporter;
 		this.persEducNatOnly = persEducNatOnly;
+		this.context = context;
 	}
 
 	@Override
@@ -109,60 +127,113 @@ public class EDTHandler extends DefaultHandler {
 		currentTag = "";
 		if (localName.equals(currentEntityType)) {
 			currentEntityType = "";
-//			if (currentEntity.containsKey("SemainesAnnulation")) {
-//				log.info(currentEntity.encode());
-//			}
-			if (persEducNatOnly) {
-				switch (localName) {
-					case "Professeur":
-						edtImporter.addProfesseur(currentEntity);
-						break;
-					case "Personnel":
-						edtImporter.addPersonnel(currentEntity);
-						break;
-					case "Cours":
-					case "Absence":
-						break;
-				}
-			} else {
-				switch (localName) {
-					case "Cours":
-						edtImporter.addCourse(currentEntity);
-						break;
-					case "Matiere":
-						edtImporter.addSubject(currentEntity);
-						break;
-					case "Eleve":
-						edtImporter.addEleve(currentEntity);
-						break;
-//					case "Professeur":
-//						edtImporter.addProfesseur(currentEntity);
-//						break;
-					case "Classe":
-						edtImporter.addClasse(currentEntity);
-						break;
-					case "Groupe":
-						edtImporter.addGroup(currentEntity);
-						break;
-					case "Salle":
-						edtImporter.addRoom(currentEntity);
-						break;
-					case "Materiel":
-						edtImporter.addEquipment(currentEntity);
-						break;
-//					case "Personnel":
-//						edtImporter.addPersonnel(currentEntity);
-//						break;
-					case "GrilleHoraire":
-						edtImporter.initSchedule(currentEntity);
-						break;
-					case "AnneeScolaire":
-						edtImporter.initSchoolYear(currentEntity);
-						break;
-				}
+			types.add(localName);
+			entities.add(currentEntity);
+			if (entities.size() >= BATCH_SIZE) {
+				dispatch();
 			}
 			currentEntity = null;
 		}
 	}
 
+	@Override
+	public void endDocument() throws SAXException {
+		dispatch();
+	}
+
+	private void dispatch() throws SAXException {
+		if (error != null) {
+			throw new SAXException(error);
+		}
+		if (entities.isEmpty()) {
+			return;
+		}
+		final List<String> t = types;
+		final List<JsonObject> e = entities;
+		types = new ArrayList<>();
+		entities = new ArrayList<>();
+		try {
+			pendingBatches.acquire();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SAXException(ie);
+		}
+		context.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				try {
+					if (error == null) {
+						for (int i = 0; i < t.size(); i++) {
+							apply(t.get(i), e.get(i));
+						}
+					}
+				} catch (RuntimeException ex) {
+					log.error("Error importing EDT entity", ex);
+					error = ex;
+				} finally {
+					pendingBatches.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the error raised by the importer, to check on the importer context once the parsing ended.
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+
+	private void apply(String type, JsonObject entity) {
+		if (persEducNatOnly) {
+			switch (type) {
+				case "Professeur":
+					edtImporter.addProfesseur(entity);
+					break;
+				case "Personnel":
+					edtImporter.addPersonnel(entity);
+					break;
+				case "Cours":
+				case "Absence":
+					break;
+			}
+		} else {
+			switch (type) {
+				case "Cours":
+					edtImporter.addCourse(entity);
+					break;
+				case "Matiere":
+					edtImporter.addSubject(entity);
+					break;
+				case "Eleve":
+					edtImporter.addEleve(entity);
+					break;
+//				case "Professeur":
+//					edtImporter.addProfesseur(entity);
+//					break;
+				case "Classe":
+					edtImporter.addClasse(entity);
+					break;
+				case "Groupe":
+					edtImporter.addGroup(entity);
+					break;
+				case "Salle":
+					edtImporter.addRoom(entity);
+					break;
+				case "Materiel":
+					edtImporter.addEquipment(entity);
+					break;
+//				case "Personnel":
+//					edtImporter.addPersonnel(entity);
+//					break;
+				case "GrilleHoraire":
+					edtImporter.initSchedule(entity);
+					break;
+				case "AnneeScolaire":
+					edtImporter.initSchoolYear(entity);
+					break;
+			}
+		}
+	}
+
 }
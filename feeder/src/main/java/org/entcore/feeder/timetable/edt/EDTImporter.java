@@ -30,7 +30,9 @@ import org.entcore.feeder.timetable.Slot;
 import org.entcore.feeder.utils.*;
 import org.joda.time.DateTime;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -38,10 +40,11 @@ import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
-import javax.xml.bind.JAXBException;
-import java.io.StringReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
@@ -85,65 +88,72 @@ public class EDTImporter extends AbstractTimetableImporter {
 	private final Map<String, String> personnels = new HashMap<>();
 	private final Map<String, JsonObject> subClasses = new HashMap<>();
 	private final Set<String> userImportedPronoteId = new HashSet<>();
+	private final Vertx vertx;
+	private volatile boolean plainExport = false;
 
-	public EDTImporter(EDTUtils edtUtils, String uai, String path, String acceptLanguage, String mode) {
+	public EDTImporter(Vertx vertx, EDTUtils edtUtils, String uai, String path, String acceptLanguage, String mode) {
 		super(uai, path, acceptLanguage);
+		this.vertx = vertx;
 		this.edtUtils = edtUtils;
 		this.mode = mode;
 	}
 
 	public void launch(final Handler<AsyncResult<Report>> handler) throws Exception {
-		final String content;
-		if ("dev".equals(mode)) {
-			String c;
-			try {
-				c = edtUtils.decryptExport(basePath);
-			} catch (JAXBException e) {
-				log.warn("Decrypt failed : " + basePath, e);
-				c = new String(Files.readAllBytes(Paths.get(basePath)));
-			}
-			content = c;
-		} else {
-			content = edtUtils.decryptExport(basePath);
-		}
-		log.debug(content);
 		init(new Handler<AsyncResult<Void>>() {
 			@Override
 			public void handle(AsyncResult<Void> event) {
 				if (event.succeeded()) {
-					try {
-						txXDT.setAutoSend(false);
-						txXDT.add(CLEAN_IDPN, new JsonObject().put("UAI", UAI));
-						txXDT.add(CLEAN_IDPN_OTHER_STRUCTURE, new JsonObject().put("structureExternalId", structureExternalId));
-						parse(content, true);
-						if (txXDT.isEmpty()) {
-							parse(content, false);
-						} else {
-							matchAndCreatePersEducNat(new Handler<AsyncResult<Void>>() {
-								@Override
-								public void handle(AsyncResult<Void> event) {
-									if (event.succeeded()) {
-										try {
-											txXDT = TransactionManager.getTransaction();
-											parse(content, false);
-											userExternalId(new Handler<Void>(){
+					txXDT.setAutoSend(false);
+					txXDT.add(CLEAN_IDPN, new JsonObject().put("UAI", UAI));
+					txXDT.add(CLEAN_IDPN_OTHER_STRUCTURE, new JsonObject().put("structureExternalId", structureExternalId));
+					parse(true, new Handler<AsyncResult<Void>>() {
+						@Override
+						public void handle(AsyncResult<Void> event) {
+							if (event.failed()) {
+								handler.handle(new DefaultAsyncResult<Report>(event.cause()));
+							} else if (txXDT.isEmpty()) {
+								parse(false, new Handler<AsyncResult<Void>>() {
+									@Override
+									public void handle(AsyncResult<Void> event) {
+										if (event.failed()) {
+											rollback(event.cause(), handler);
+										}
+									}
+								});
+							} else {
+								matchAndCreatePersEducNat(new Handler<AsyncResult<Void>>() {
+									@Override
+									public void handle(AsyncResult<Void> event) {
+										if (event.succeeded()) {
+											try {
+												txXDT = TransactionManager.getTransaction();
+											} catch (Exception e) {
+												handler.handle(new DefaultAsyncResult<Report>(e));
+												return;
+											}
+											parse(false, new Handler<AsyncResult<Void>>() {
 												@Override
-												public void handle(Void v) {
-													commit(handler);
+												public void handle(AsyncResult<Void> event) {
+													if (event.succeeded()) {
+														userExternalId(new Handler<Void>(){
+															@Override
+															public void handle(Void v) {
+																commit(handler);
+															}
+														});
+													} else {
+														rollback(event.cause(), handler);
+													}
 												}
 											});
-										} catch (Exception e) {
-											handler.handle(new DefaultAsyncResult<Report>(e));
+										} else {
+											handler.handle(new DefaultAsyncResult<Report>(event.cause()));
 										}
-									} else {
-										handler.handle(new DefaultAsyncResult<Report>(event.cause()));
 									}
-								}
-							});
+								});
+							}
 						}
-					} catch (Exception e) {
-						handler.handle(new DefaultAsyncResult<Report>(e));
-					}
+					});
 				} else {
 					handler.handle(new DefaultAsyncResult<Report>(event.cause()));
 				}
@@ -173,12 +183,68 @@ public class EDTImporter extends AbstractTimetableImporter {
 		}
 	}
 
-	private void parse(String content, boolean persEducNatOnly) throws Exception {
-		InputSource in = new InputSource(new StringReader(content));
-		EDTHandler sh = new EDTHandler(this, persEducNatOnly);
-		XMLReader xr = XMLReaderFactory.createXMLReader();
-		xr.setContentHandler(sh);
-		xr.parse(in);
+	/**
+	 * Decrypts and parses the export on a worker thread while the parsed entities are imported on the importer
+	 * context, so the importer state is only used from its context. The hash of the export is verified at the end
+	 * of the first pass, before any course is flushed to Mongo.
+	 */
+	private void parse(final boolean persEducNatOnly, final Handler<AsyncResult<Void>> handler) {
+		final EDTHandler sh = new EDTHandler(this, persEducNatOnly, vertx.getOrCreateContext());
+		vertx.executeBlocking(new Handler<Future<Void>>() {
+			@Override
+			public void handle(Future<Void> future) {
+				try {
+					parse(sh);
+					future.complete();
+				} catch (Exception e) {
+					future.fail(e);
+				}
+			}
+		}, false, new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> event) {
+				// the batches of entities are run on the context before this handler
+				if (event.succeeded() && sh.getError() != null) {
+					handler.handle(new DefaultAsyncResult<Void>(sh.getError()));
+				} else {
+					handler.handle(event);
+				}
+			}
+		});
+	}
+
+	private void parse(EDTHandler sh) throws Exception {
+		final InputStream export = openExport();
+		try {
+			// the parser closes its input at the end of the document, the hash is verified afterwards
+			InputSource in = new InputSource(new FilterInputStream(export) {
+				@Override
+				public void close() {}
+			});
+			XMLReader xr = XMLReaderFactory.createXMLReader();
+			xr.setContentHandler(sh);
+			xr.parse(in);
+			if (export instanceof EDTDecryptedExport) {
+				((EDTDecryptedExport) export).verify();
+			}
+		} finally {
+			export.close();
+		}
+	}
+
+	private InputStream openExport() throws Exception {
+		if (!plainExport) {
+			try {
+				return edtUtils.decryptExport(basePath);
+			} catch (XMLStreamException e) {
+				if (!"dev".equals(mode)) {
+					throw e;
+				}
+				log.warn("Decrypt failed : " + basePath, e);
+				plainExport = true;
+			}
+		}
+		return new BufferedInputStream(new FileInputStream(basePath));
 	}
 
 	void initSchoolYear(JsonObject schoolYear) {
@@ -588,11 +654,11 @@ public class EDTImporter extends AbstractTimetableImporter {
 		return "IDPN";
 	}
 
-	public static void launchImport(EDTUtils edtUtils, final Message<JsonObject> message) {
-		launchImport(edtUtils, "prod", message, null);
+	public static void launchImport(Vertx vertx, EDTUtils edtUtils, final Message<JsonObject> message) {
+		launchImport(vertx, edtUtils, "prod", message, null);
 	}
 
-	public static void launchImport(EDTUtils edtUtils, final String mode, final Message<JsonObject> message, final PostImport postImport) {
+	public static void launchImport(Vertx vertx, EDTUtils edtUtils, final String mode, final Message<JsonObject> message, final PostImport postImport) {
 		final I18n i18n = I18n.getInstance();
 		final String acceptLanguage = message.body().getString("language", "fr");
 		if (edtUtils == null) {
@@ -611,7 +677,7 @@ public class EDTImporter extends AbstractTimetableImporter {
 		}
 
 		try {
-			new EDTImporter(edtUtils, uai, path, acceptLanguage, mode).launch(new Handler<AsyncResult<Report>>() {
+			new EDTImporter(vertx, edtUtils, uai, path, acceptLanguage, mode).launch(new Handler<AsyncResult<Report>>() {
 				@Override
 				public void handle(AsyncResult<Report> event) {
 					if(event.succeeded()) {
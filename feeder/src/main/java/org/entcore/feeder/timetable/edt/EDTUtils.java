@@ -20,10 +20,7 @@
 package org.entcore.feeder.timetable.edt;
 
 
-import fr.wseduc.webutils.data.XML;
-import fr.wseduc.webutils.data.ZLib;
 import fr.wseduc.webutils.security.Md5;
-import fr.wseduc.webutils.security.Sha256;
 import org.entcore.feeder.exceptions.ValidationException;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -35,9 +32,13 @@ import io.vertx.core.logging.LoggerFactory;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Unmarshaller;
-import java.io.File;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -75,48 +76,53 @@ public class EDTUtils {
 		});
 	}
 
-	public String decryptExport(String encryptedExport) throws Exception {
-		final JAXBContext jaxbContext = JAXBContext.newInstance(EDTEncryptedExport.class);
-		final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-		final EDTEncryptedExport edtEncryptedExport = (EDTEncryptedExport) unmarshaller.unmarshal(new File(encryptedExport));
-
-		String encryptedKey = null;
-		for (EDTEncryptedExport.CLES.PARTENAIRE p : edtEncryptedExport.getCLES().getPARTENAIRE()) {
-			if (p.getNOM() != null && p.getNOM().equals(partnerName)) {
-				encryptedKey = p.getValue();
-				break;
+	public EDTDecryptedExport decryptExport(String encryptedExport) throws Exception {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		final InputStream source = new BufferedInputStream(new FileInputStream(encryptedExport));
+		try {
+			final XMLStreamReader reader = factory.createXMLStreamReader(source);
+			if (reader.nextTag() != XMLStreamConstants.START_ELEMENT ||
+					!"EXPORT_INDEX_EDUCATION".equals(reader.getLocalName())) {
+				throw new XMLStreamException("Unexpected root element : " + reader.getLocalName());
+			}
+			String encryptedKey = null;
+			Boolean compressed = null;
+			while (compressed == null && reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				switch (reader.getLocalName()) {
+					case "PARTENAIRE":
+						if (partnerName.equals(reader.getAttributeValue(null, "NOM"))) {
+							encryptedKey = reader.getElementText();
+						}
+						break;
+					case "CONTENU":
+						final String c = reader.getAttributeValue(null, "CompresseAvantChiffrement");
+						compressed = (c == null || Boolean.parseBoolean(c));
+						break;
+				}
+			}
+			if (isEmpty(encryptedKey) || compressed == null) {
+				throw new ValidationException("invalid.edt.encrypted.key");
+			}
+			final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+			cipher.init(Cipher.DECRYPT_MODE, privateKey);
+			final byte[] decryptedKey = cipher.doFinal(Base64.getMimeDecoder().decode(encryptedKey));
+			final byte[] key = Arrays.copyOfRange(decryptedKey, 0, 16);
+			final byte[] iv = Arrays.copyOfRange(decryptedKey, 16, 32);
+			final byte[] sum = Arrays.copyOfRange(decryptedKey, 32, 48);
+			if (!Md5.equality(Arrays.copyOfRange(decryptedKey, 0, 32), sum)) {
+				throw new ValidationException("invalid.edt.key");
 			}
-		}
-		if (isEmpty(encryptedKey)) {
-			throw new ValidationException("invalid.edt.encrypted.key");
-		}
-		final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-		cipher.init(Cipher.DECRYPT_MODE, privateKey);
-		final byte[] decryptedKey = cipher.doFinal(Base64.getDecoder().decode(encryptedKey));
-		final byte[] key = Arrays.copyOfRange(decryptedKey, 0, 16);
-		final byte[] iv = Arrays.copyOfRange(decryptedKey, 16, 32);
-		final byte[] sum = Arrays.copyOfRange(decryptedKey, 32, 48);
-		if (!Md5.equality(Arrays.copyOfRange(decryptedKey, 0, 32), sum)) {
-			throw new ValidationException("invalid.edt.key");
-		}
-
-		final Cipher cipher2 = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		cipher2.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
-		final byte[] content = cipher2.doFinal(edtEncryptedExport.getCONTENU().getValue());
-
-		byte[] decompressedContent;
-		if (edtEncryptedExport.getCONTENU().isCompresseAvantChiffrement()) {
-			decompressedContent = ZLib.decompress(content);
-		} else {
-			decompressedContent = content;
-		}
-
-		final String xmlContent = XML.format(new String(decompressedContent), 0, true);
 
-		if (!Sha256.equality(content, edtEncryptedExport.getVERIFICATION())) {
-			throw new ValidationException("invalid.content.hash");
+			final Cipher cipher2 = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			cipher2.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			return new EDTDecryptedExport(reader, source, cipher2, compressed);
+		} catch (Exception e) {
+			source.close();
+			throw e;
 		}
-		return xmlContent;
 	}
 
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.feeder.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded queue of the feeder actions received while an import is running.
+ * Each queued action is appended to a journal file and acknowledged in the same file when it is taken,
+ * so the actions still pending when the feeder stops are replayed at the next start.
+ * The journal writes are run in order on worker threads, the journal writer being kept open between appends.
+ * Not thread safe : it must only be used from the feeder verticle.
+ */
+public class EventQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(EventQueue.class);
+	private final Deque<Entry> queue = new ArrayDeque<>();
+	private final Vertx vertx;
+	private final File file;
+	private final int maxSize;
+	private Writer journal;
+	private long sequence = 0;
+	private long queued = 0;
+	private long taken = 0;
+	private long rejected = 0;
+	private long replayed = 0;
+
+	public EventQueue(Vertx vertx, String path, int maxSize) {
+		this.vertx = vertx;
+		this.file = new File(path);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Loads the actions not acknowledged in the journal and rewrites it with only these actions.
+	 * Their replies are logged as the original senders are gone.
+	 */
+	public void replay() {
+		final Map<Long, JsonObject> pending = new LinkedHashMap<>();
+		if (file.exists()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.trim().isEmpty()) continue;
+					try {
+						final JsonObject j = new JsonObject(line);
+						final Long seq = j.getLong("seq");
+						if (seq == null) continue;
+						if (j.containsKey("body")) {
+							pending.put(seq, j.getJsonObject("body"));
+						} else {
+							pending.remove(seq);
+						}
+					} catch (RuntimeException e) {
+						// truncated last line if the feeder was killed while writing
+						log.warn("Ignore invalid event queue line : " + line);
+					}
+				}
+			} catch (IOException e) {
+				log.error("Error reading event queue journal " + file.getPath(), e);
+			}
+		}
+		for (final JsonObject body : pending.values()) {
+			final Entry entry = new Entry(++sequence, new ReplayedMessage(body));
+			queue.add(entry);
+		}
+		replayed = queue.size();
+		if (replayed > 0) {
+			log.info("Replay " + replayed + " feeder events from " + file.getPath());
+		}
+		compact();
+	}
+
+	/**
+	 * @return false if the queue is full, the action must then be rejected.
+	 */
+	public boolean add(Message<JsonObject> message) {
+		if (queue.size() >= maxSize) {
+			rejected++;
+			return false;
+		}
+		final Entry entry = new Entry(++sequence, message);
+		append(new JsonObject().put("seq", entry.seq).put("body", message.body()));
+		queue.add(entry);
+		queued++;
+		return true;
+	}
+
+	public Message<JsonObject> peek() {
+		final Entry entry = queue.peek();
+		return entry != null ? entry.message : null;
+	}
+
+	public Message<JsonObject> poll() {
+		final Entry entry = queue.poll();
+		if (entry == null) {
+			return null;
+		}
+		taken++;
+		if (queue.isEmpty()) {
+			compact();
+		} else {
+			append(new JsonObject().put("seq", entry.seq));
+		}
+		return entry.message;
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+				.put("depth", queue.size())
+				.put("maxSize", maxSize)
+				.put("queued", queued)
+				.put("taken", taken)
+				.put("rejected", rejected)
+				.put("replayed", replayed);
+	}
+
+	private void append(JsonObject line) {
+		final String l = line.encode();
+		write(new Handler<Future<Void>>() {
+			@Override
+			public void handle(Future<Void> future) {
+				try {
+					if (journal == null) {
+						journal = new BufferedWriter(new OutputStreamWriter(
+								new FileOutputStream(file, true), StandardCharsets.UTF_8));
+					}
+					journal.write(l);
+					journal.write('\n');
+					journal.flush();
+				} catch (IOException e) {
+					log.error("Error writing event queue journal " + file.getPath(), e);
+				}
+				future.complete();
+			}
+		});
+	}
+
+	private void compact() {
+		final List<String> lines = new ArrayList<>(queue.size());
+		for (Entry e : queue) {
+			lines.add(new JsonObject().put("seq", e.seq).put("body", e.message.body()).encode());
+		}
+		write(new Handler<Future<Void>>() {
+			@Override
+			public void handle(Future<Void> future) {
+				closeJournal();
+				final File tmp = new File(file.getPath() + ".tmp");
+				try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+					for (String line : lines) {
+						w.write(line);
+						w.write('\n');
+					}
+				} catch (IOException e) {
+					log.error("Error compacting event queue journal " + file.getPath(), e);
+					future.complete();
+					return;
+				}
+				if (!tmp.renameTo(file)) {
+					log.error("Error replacing event queue journal " + file.getPath());
+				}
+				future.complete();
+			}
+		});
+	}
+
+	/**
+	 * Runs the journal write on a worker thread, after the previous ones (ordered blocking code).
+	 */
+	private void write(Handler<Future<Void>> blockingWrite) {
+		vertx.executeBlocking(blockingWrite, true, new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> ar) {
+				if (ar.failed()) {
+					log.error("Error writing event queue journal " + file.getPath(), ar.cause());
+				}
+			}
+		});
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				log.error("Error closing event queue journal " + file.getPath(), e);
+			}
+			journal = null;
+		}
+	}
+
+	private static class Entry {
+
+		private final long seq;
+		private final Message<JsonObject> message;
+
+		private Entry(long seq, Message<JsonObject> message) {
+			this.seq = seq;
+			this.message = message;
+		}
+
+	}
+
+	private static class ReplayedMessage extends ResultMessage {
+
+		private final JsonObject body;
+
+		private ReplayedMessage(final JsonObject body) {
+			super(new Handler<JsonObject>() {
+				@Override
+				public void handle(JsonObject reply) {
+					log.info("Replayed feeder event " + body.getString("action") + " : " +
+							(reply != null ? reply.encode() : "no reply"));
+				}
+			});
+			this.body = body;
+		}
+
+		@Override
+		public JsonObject body() {
+			return body;
+		}
+
+	}
+
+}
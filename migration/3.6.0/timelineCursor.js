@@ -0,0 +1 @@
+db.timeline.createIndex({ "recipients.userId": 1, created: -1, _id: -1 }, { background: true, name: "idx_recipients_created" });
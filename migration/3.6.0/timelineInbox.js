@@ -0,0 +1,37 @@
+db["timeline.inbox"].createIndex({ userId: 1, created: -1, _id: -1 }, { background: true, name: "idx_inbox_user_created" });
+db["timeline.inbox"].createIndex({ eventRef: 1 }, { background: true, name: "idx_inbox_eventref" });
+
+var entries = [];
+var flush = function () {
+	if (entries.length > 0) {
+		try {
+			db["timeline.inbox"].insertMany(entries, { ordered: false });
+		} catch (e) {
+			// duplicate keys when the script is run again
+		}
+		entries = [];
+	}
+};
+db.timeline.find({ deleted: { $exists: false } }, { recipients: 1, created: 1, type: 1, "event-type": 1, preview: 1 }).forEach(function (event) {
+	if (!event.recipients) return;
+	event.recipients.forEach(function (r) {
+		if (!r || !r.userId) return;
+		var entry = {
+			_id: event._id + "_" + r.userId,
+			userId: r.userId,
+			created: event.created,
+			eventRef: event._id,
+			unread: r.unread === undefined ? 1 : r.unread,
+			type: event.type,
+			"event-type": event["event-type"]
+		};
+		if (event.preview) {
+			entry.preview = true;
+		}
+		entries.push(entry);
+		if (entries.length >= 1000) {
+			flush();
+		}
+	});
+});
+flush();
@@ -0,0 +1,31 @@
+db.documents.createIndex({ ancestors: 1 }, { background: true, name: "idx_ancestors" });
+
+// ancestors follow the eParent links : roots and detached documents have no ancestors
+db.documents.updateMany({ $or: [{ eParent: { $exists: false } }, { eParent: null }] }, { $set: { ancestors: [] } });
+
+var operations = [];
+var flush = function () {
+	if (operations.length > 0) {
+		db.documents.bulkWrite(operations, { ordered: false });
+		operations = [];
+	}
+};
+var level = db.documents.find({ eType: "folder", ancestors: [], $or: [{ eParent: { $exists: false } }, { eParent: null }] }, { _id: 1 })
+	.map(function (folder) { return { _id: folder._id, ancestors: [] }; });
+var depth = 0;
+while (level.length > 0 && depth < 100) {
+	var next = [];
+	level.forEach(function (folder) {
+		var ancestors = folder.ancestors.concat([folder._id]);
+		operations.push({ updateMany: { filter: { eParent: folder._id }, update: { $set: { ancestors: ancestors } } } });
+		if (operations.length >= 1000) {
+			flush();
+		}
+		db.documents.find({ eParent: folder._id, eType: "folder" }, { _id: 1 }).forEach(function (child) {
+			next.push({ _id: child._id, ancestors: ancestors });
+		});
+	});
+	flush();
+	level = next;
+	depth++;
+}
@@ -1,6 +1,7 @@
 db.documents.ensureIndex({ "owner" : 1 });
 db.documents.ensureIndex({ "folder" : 1 });
 db.documents.ensureIndex({ "old-folder" : 1 });
+db.documents.ensureIndex({ "ancestors" : 1 });
 db.events.ensureIndex({ "resource" : 1 });
 db.events.ensureIndex({ "event-type" : 1 });
 db.events.ensureIndex({ "module" : 1 });
@@ -145,6 +145,9 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		case "addAttribute":
 			doAddAttribute(message);
 			break;
+		case "addAttributes":
+			doAddAttributes(message);
+			break;
 		case "removeAttribute":
 			doRemoveAttribute(message);
 			break;
@@ -554,6 +557,46 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		sendOK(message);
 	}
 
+	/**
+	 * Sets the same attribute in the sessions of several users, with a value by user id.
+	 * Disconnected users are ignored.
+	 */
+	private void doAddAttributes(Message<JsonObject> message) {
+		String key = message.body().getString("key");
+		JsonObject values = message.body().getJsonObject("values");
+		if (key == null || key.trim().isEmpty() || values == null) {
+			sendError(message, "Invalid key or values.");
+			return;
+		}
+
+		for (String userId : values.fieldNames()) {
+			Object value = values.getValue(userId);
+			LoginInfo info = getLoginInfo(userId);
+			if (info == null || value == null) {
+				continue;
+			}
+			JsonObject session = null;
+			try {
+				session = unmarshal(sessions.get(info.sessionId));
+			} catch (Exception e) {
+				logger.error("Error in deserializing hazelcast session " + info.sessionId, e);
+			}
+			if (session == null) {
+				continue;
+			}
+			session.getJsonObject("cache").put(key, value);
+			String encoded = session.encode();
+			for (LoginInfo i : logins.get(userId)) {
+				try {
+					sessions.put(i.sessionId, encoded);
+				} catch (Exception e) {
+					logger.error("Error putting session in hazelcast map : " + i.sessionId, e);
+				}
+			}
+		}
+		sendOK(message);
+	}
+
 	private JsonObject getSessionByUserId(Message<JsonObject> message) {
 		final String userId = message.body().getString("userId");
 		if (userId == null || userId.trim().isEmpty()) {
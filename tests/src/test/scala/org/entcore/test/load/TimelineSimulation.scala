@@ -0,0 +1,47 @@
+package org.entcore.test.load
+
+import Auth._
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+
+/**
+ * Compares the latency of the first and the 50th page of the news feed,
+ * paginated with an offset and with the keyset cursor.
+ */
+class TimelineSimulation extends Simulation {
+
+	val httpProtocol = http
+		.baseURL("http://one")
+		.disableFollowRedirect
+		.acceptEncodingHeader("gzip, deflate")
+		.acceptLanguageHeader("fr,fr-fr;q=0.8,en-us;q=0.5,en;q=0.3")
+		.userAgentHeader("Mozilla/5.0 (X11; Linux i686; rv:17.0) Gecko/20131030 Firefox/17.0 Iceweasel/17.0.10")
+
+	val headers = Map("""Accept""" -> """application/json;version=2.0""")
+
+	def cursorPage(name: String) =
+		exec(http(name)
+		.get("""/timeline/lastNotifications""")
+		.queryParam("cursor", "${cursor}")
+		.headers(headers)
+		.check(status.is(200), jsonPath("$.cursor").saveAs("cursor")))
+
+	val scn = scenario("Pagination du fil de nouveautés")
+		.feed(csv("timeline_users.csv").circular)
+		.exec(login("${login}", "${password}"))
+		.exec(http("Fil de nouveautés page 1 (offset)")
+		.get("""/timeline/lastNotifications?page=0""")
+		.headers(headers))
+		.exec(http("Fil de nouveautés page 50 (offset)")
+		.get("""/timeline/lastNotifications?page=49""")
+		.headers(headers))
+		.exec(session => session.set("cursor", ""))
+		.exec(cursorPage("Fil de nouveautés page 1 (curseur)"))
+		.repeat(48) {
+			exec(cursorPage("Fil de nouveautés pages 2 à 49 (curseur)"))
+		}
+		.exec(cursorPage("Fil de nouveautés page 50 (curseur)"))
+
+	setUp(scn.inject(atOnceUsers(10))).protocols(httpProtocol)
+
+}
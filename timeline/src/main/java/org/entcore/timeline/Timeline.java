@@ -54,6 +54,7 @@ public class Timeline extends BaseServer {
 
 		final DefaultTimelineConfigService configService = new DefaultTimelineConfigService("timeline.config");
 		configService.setRegisteredNotifications(registeredNotifications);
+		configService.init(vertx);
 		final DefaultTimelineMailerService mailerService = new DefaultTimelineMailerService(vertx, config);
 		mailerService.setConfigService(configService);
 		mailerService.setRegisteredNotifications(registeredNotifications);
@@ -74,12 +75,15 @@ public class Timeline extends BaseServer {
 
 		if(pushNotif != null){
 
-			OAuth2Client googleOAuth2SSO = new OAuth2Client(URI.create(pushNotif.getString("uri")),
+			final URI pushNotifUri = URI.create(pushNotif.getString("uri"));
+			final int poolSize = pushNotif.getInteger("poolSize", 16);
+			OAuth2Client googleOAuth2SSO = new OAuth2Client(pushNotifUri,
 					null, null, null,
 					pushNotif.getString("tokenUrn"), null, vertx,
-					pushNotif.getInteger("poolSize", 16), true);
-			OssFcm oss = new OssFcm(googleOAuth2SSO, pushNotif.getString("client_mail") , pushNotif.getString("scope"),
-					pushNotif.getString("aud"), pushNotif.getString("url"), pushNotif.getString("key"));
+					poolSize, true);
+			OssFcm oss = new OssFcm(vertx, googleOAuth2SSO, pushNotifUri, pushNotif.getString("client_mail"),
+					pushNotif.getString("scope"), pushNotif.getString("aud"), pushNotif.getString("url"),
+					pushNotif.getString("key"), poolSize);
 
 			final DefaultPushNotifService pushNotifService = new DefaultPushNotifService(vertx, config, oss);
 			pushNotifService.setEventsI18n(eventsI18n);
@@ -20,6 +20,7 @@
 package org.entcore.timeline.controllers;
 
 import fr.wseduc.bus.BusAddress;
+import fr.wseduc.cron.CronTrigger;
 import fr.wseduc.rs.Delete;
 import fr.wseduc.rs.Get;
 import fr.wseduc.rs.Post;
@@ -60,6 +61,7 @@ import org.vertx.java.core.http.RouteMatcher;
 
 import java.io.StringReader;
 import java.io.Writer;
+import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -86,7 +88,27 @@ public class TimelineController extends BaseController {
 	public void init(Vertx vertx, JsonObject config, RouteMatcher rm,
 			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
 		super.init(vertx, config, rm, securedActions);
-		store = new DefaultTimelineEventStore();
+		final DefaultTimelineEventStore eventStore = new DefaultTimelineEventStore(config.getBoolean("inbox", false));
+		store = eventStore;
+		// full scan of the timeline collection : opt-in and scheduled, never at start
+		final String typesReconciliationCron = config.getString("typesReconciliationCron");
+		if (typesReconciliationCron != null) {
+			try {
+				new CronTrigger(vertx, typesReconciliationCron).schedule(new Handler<Long>() {
+					@Override
+					public void handle(Long timerId) {
+						eventStore.reconcileTypes(new Handler<Void>() {
+							@Override
+							public void handle(Void v) {
+								eventTypes = null;
+							}
+						});
+					}
+				});
+			} catch (ParseException e) {
+				log.error("Invalid cron expression.", e);
+			}
+		}
 		timelineHelper = new TimelineHelper(vertx, eb, config);
 		antiFlood = new TTLSet<>(config.getLong("antiFloodDelay", 3000l),
 				vertx, config.getLong("antiFloodClear", 3600 * 1000l));
@@ -175,7 +197,7 @@ public class TimelineController extends BaseController {
 								offset = 25 * Integer.parseInt(page);
 							} catch (NumberFormatException e) {}
 
-							store.get(user, types, offset, 25, notifs.right().getValue(), mine, version, new Handler<JsonObject>() {
+							final Handler<JsonObject> handler = new Handler<JsonObject>() {
 								public void handle(final JsonObject res) {
 									if (res != null && "ok".equals(res.getString("status"))) {
 										if ("2.0".equals(version)) {
@@ -230,7 +252,13 @@ public class TimelineController extends BaseController {
 										renderError(request, res);
 									}
 								}
-							});
+							};
+							if (request.params().contains("cursor")) {
+								store.get(user, types, request.params().get("cursor"), 25, notifs.right().getValue(),
+										mine, version, handler);
+							} else {
+								store.get(user, types, offset, 25, notifs.right().getValue(), mine, version, handler);
+							}
 						}
 					});
 
@@ -725,8 +753,13 @@ public class TimelineController extends BaseController {
 			UserInfos u = new UserInfos();
 			u.setUserId(json.getString("recipient"));
 			u.setExternalId(json.getString("externalId"));
-			store.get(u, null, json.getInteger("offset", 0),
-					json.getInteger("limit", 25), null, false, "", handler);
+			if (json.containsKey("cursor")) {
+				store.get(u, null, json.getString("cursor"),
+						json.getInteger("limit", 25), null, false, "", handler);
+			} else {
+				store.get(u, null, json.getInteger("offset", 0),
+						json.getInteger("limit", 25), null, false, "", handler);
+			}
 			break;
 		case "delete":
 			store.delete(json.getString("resource"), handler);
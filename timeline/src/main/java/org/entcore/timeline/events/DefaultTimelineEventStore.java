@@ -22,48 +22,204 @@ package org.entcore.timeline.events;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.webutils.Either;
 
+import org.entcore.common.mongodb.MongoCursor;
 import org.entcore.common.mongodb.MongoDbResult;
 import org.entcore.common.user.UserInfos;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Base64;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class DefaultTimelineEventStore implements TimelineEventStore {
 
+	private static final Logger log = LoggerFactory.getLogger(DefaultTimelineEventStore.class);
 	private static final String TIMELINE_COLLECTION = "timeline";
+	private static final String INBOX_COLLECTION = "timeline.inbox";
+	private static final String TYPES_COLLECTION = "timelineTypes";
+	private static final int INBOX_BATCH_SIZE = 1000;
 
 	private MongoDb mongo = MongoDb.getInstance();
 
 	private final DateFormat mongoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmX", Locale.getDefault());
+	private final boolean inbox;
+	private final Set<String> knownTypes = ConcurrentHashMap.newKeySet();
+
+	public DefaultTimelineEventStore() {
+		this(false);
+	}
+
+	/**
+	 * @param inbox if true, the notifications are also written in a per recipient inbox collection
+	 * which is used to list the notifications of a user instead of the recipients array of the timeline collection.
+	 */
+	public DefaultTimelineEventStore(boolean inbox) {
+		this.inbox = inbox;
+	}
 
 	@Override
 	public void add(JsonObject event, final Handler<JsonObject> result) {
-		JsonObject doc = validAndGet(event);
+		final JsonObject doc = validAndGet(event);
 		if (doc != null) {
 			if (!doc.containsKey("date")) {
 				doc.put("date", MongoDb.now());
 			}
 			doc.put("created", doc.getJsonObject("date"));
-			mongo.save(TIMELINE_COLLECTION, doc, resultHandler(result));
+			registerType(doc.getString("type"), doc.getString("event-type"));
+			if (inbox) {
+				doc.put("_id", UUID.randomUUID().toString());
+				mongo.save(TIMELINE_COLLECTION, doc, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(final Message<JsonObject> message) {
+						if ("ok".equals(message.body().getString("status"))) {
+							addToInbox(doc, new Handler<Void>() {
+								@Override
+								public void handle(Void v) {
+									result.handle(message.body());
+								}
+							});
+						} else {
+							result.handle(message.body());
+						}
+					}
+				});
+			} else {
+				mongo.save(TIMELINE_COLLECTION, doc, resultHandler(result));
+			}
 		} else {
 			result.handle(invalidArguments());
 		}
 	}
 
+	private void addToInbox(final JsonObject event, final Handler<Void> handler) {
+		final JsonArray recipients = event.getJsonArray("recipients", new fr.wseduc.webutils.collections.JsonArray());
+		addToInbox(event, recipients, 0, handler);
+	}
+
+	/**
+	 * Inserts the inbox entries of the recipients by chunks of INBOX_BATCH_SIZE, one chunk after the other.
+	 */
+	private void addToInbox(final JsonObject event, final JsonArray recipients, final int from,
+			final Handler<Void> handler) {
+		final JsonArray operations = new fr.wseduc.webutils.collections.JsonArray();
+		int i = from;
+		for (; i < recipients.size() && operations.size() < INBOX_BATCH_SIZE; i++) {
+			final Object o = recipients.getValue(i);
+			if (!(o instanceof JsonObject) || ((JsonObject) o).getString("userId") == null) continue;
+			operations.add(new JsonObject()
+					.put("operation", "insert")
+					.put("document", inboxEntry(event, (JsonObject) o)));
+		}
+		if (operations.size() == 0) {
+			handler.handle(null);
+			return;
+		}
+		final int next = i;
+		mongo.bulk(INBOX_COLLECTION, operations, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					log.error("Error adding event " + event.getString("_id") + " in timeline inbox : " +
+							message.body().getString("message"));
+				}
+				addToInbox(event, recipients, next, handler);
+			}
+		});
+	}
+
+	private static JsonObject inboxEntry(JsonObject event, JsonObject recipient) {
+		final String userId = recipient.getString("userId");
+		final JsonObject entry = new JsonObject()
+				.put("_id", event.getString("_id") + "_" + userId)
+				.put("userId", userId)
+				.put("created", event.getJsonObject("created"))
+				.put("eventRef", event.getString("_id"))
+				.put("unread", recipient.getInteger("unread", 1))
+				.put("type", event.getString("type"))
+				.put("event-type", event.getString("event-type"));
+		if (event.containsKey("preview")) {
+			entry.put("preview", true);
+		}
+		return entry;
+	}
+
+	/**
+	 * Deletes the events matching the query and their inbox entries.
+	 */
+	private void deleteEvents(final JsonObject query, final Handler<Message<JsonObject>> handler) {
+		if (!inbox) {
+			mongo.delete(TIMELINE_COLLECTION, query, handler);
+			return;
+		}
+		mongo.find(TIMELINE_COLLECTION, query, null, new JsonObject().put("_id", 1), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : message.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray())) {
+					if (!(o instanceof JsonObject)) continue;
+					ids.add(((JsonObject) o).getString("_id"));
+				}
+				if (ids.size() > 0) {
+					deleteFromInbox(new JsonObject().put("eventRef", new JsonObject().put("$in", ids)));
+				}
+				mongo.delete(TIMELINE_COLLECTION, query, handler);
+			}
+		});
+	}
+
+	private void deleteFromInbox(final JsonObject query) {
+		mongo.delete(INBOX_COLLECTION, query, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					log.error("Error deleting timeline inbox entries : " + message.body().getString("message"));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes the inbox entries matching the query once the timeline update has modified an event.
+	 */
+	private Handler<Message<JsonObject>> deleteFromInboxAfter(final JsonObject inboxQuery,
+			final Handler<Message<JsonObject>> handler) {
+		if (!inbox) {
+			return handler;
+		}
+		return new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if ("ok".equals(message.body().getString("status")) && message.body().getInteger("number", 0) > 0) {
+					deleteFromInbox(inboxQuery);
+				}
+				handler.handle(message);
+			}
+		};
+	}
+
 	@Override
 	public void delete(String resource, Handler<JsonObject> result) {
 		if (resource != null && !resource.trim().isEmpty()) {
 			JsonObject query = new JsonObject()
 					.put("resource", resource);
-			mongo.delete(TIMELINE_COLLECTION, query, resultHandler(result));
+			deleteEvents(query, resultHandler(result));
 		} else {
 			result.handle(invalidArguments());
 		}
@@ -72,9 +228,35 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 	@Override
 	public void get(final UserInfos user, List<String> types, int offset, int limit, JsonObject restrictionFilter,
 			boolean mine, String version, final Handler<JsonObject> result) {
+		get(user, types, offset, null, limit, restrictionFilter, mine, version, result);
+	}
+
+	@Override
+	public void get(UserInfos user, List<String> types, String cursor, int limit, JsonObject restrictionFilter,
+			boolean mine, String version, Handler<JsonObject> result) {
+		final JsonObject after;
+		if (cursor == null || cursor.isEmpty()) {
+			after = new JsonObject();
+		} else {
+			after = decodeCursor(cursor);
+			if (after == null) {
+				result.handle(invalidArguments());
+				return;
+			}
+		}
+		get(user, types, 0, after, limit, restrictionFilter, mine, version, result);
+	}
+
+	/**
+	 * @param after null to page with the offset, else the decoded cursor (empty for the first page).
+	 */
+	private void get(final UserInfos user, List<String> types, int offset, final JsonObject after, final int limit,
+			JsonObject restrictionFilter, boolean mine, String version, final Handler<JsonObject> result) {
 		final String recipient = user.getUserId();
 		final String externalId = user.getExternalId();
-		if (recipient != null && !recipient.trim().isEmpty()) {
+		if (inbox && !mine && recipient != null && !recipient.trim().isEmpty()) {
+			getFromInbox(user, types, offset, after, limit, restrictionFilter, version, result);
+		} else if (recipient != null && !recipient.trim().isEmpty()) {
 			final JsonObject query = new JsonObject()
 					.put("deleted", new JsonObject()
 						.put("$exists", false))
@@ -86,40 +268,10 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 						.put("$in", new fr.wseduc.webutils.collections.JsonArray().add(recipient).add(externalId)));
 			}
 			query.put("reportAction.action", new JsonObject().put("$ne", "DELETE"));
-			if (types != null && !types.isEmpty()) {
-				if (types.size() == 1) {
-					query.put("type", types.get(0));
-				} else {
-					JsonArray typesFilter = new fr.wseduc.webutils.collections.JsonArray();
-					for (String t: types) {
-						typesFilter.add(new JsonObject().put("type", t));
-					}
-					query.put("$or", typesFilter);
-				}
-			}
-			if(restrictionFilter != null && restrictionFilter.size() > 0){
-				JsonArray nor = new fr.wseduc.webutils.collections.JsonArray();
-				for(String type : restrictionFilter.getMap().keySet()){
-					for(Object eventType : restrictionFilter.getJsonArray(type, new fr.wseduc.webutils.collections.JsonArray())){
-						nor.add(new JsonObject()
-							.put("type", type)
-							.put("event-type", eventType.toString()));
-					}
-					query.put("$nor", nor);
-				}
-			}
-			JsonObject sort = new JsonObject().put("created", -1);
-			JsonObject keys = new JsonObject()
-				.put("message", 1)
-				.put("params", 1)
-				.put("date", 1)
-				.put("sender", 1)
-				.put("comments", 1)
-				.put("type", 1)
-				.put("event-type", 1)
-				.put("resource", 1)
-				.put("sub-resource", 1)
-				.put("add-comment", 1);
+			addTypesFilter(query, types, restrictionFilter);
+			addCursorFilter(query, after);
+			JsonObject sort = new JsonObject().put("created", -1).put("_id", -1);
+			JsonObject keys = eventKeys(false);
 			if(!mine){
 				keys.put("recipients", new JsonObject()
 						.put("$elemMatch", new JsonObject()
@@ -137,6 +289,9 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 					offset, limit, 100, new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
+					if (after != null) {
+						addNextCursor(message.body(), message.body().getJsonArray("results"), limit);
+					}
 					result.handle(message.body());
 				}
 			});
@@ -145,12 +300,195 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		}
 	}
 
+	private static void addTypesFilter(JsonObject query, List<String> types, JsonObject restrictionFilter) {
+		if (types != null && !types.isEmpty()) {
+			if (types.size() == 1) {
+				query.put("type", types.get(0));
+			} else {
+				JsonArray typesFilter = new fr.wseduc.webutils.collections.JsonArray();
+				for (String t: types) {
+					typesFilter.add(new JsonObject().put("type", t));
+				}
+				query.put("$or", typesFilter);
+			}
+		}
+		if(restrictionFilter != null && restrictionFilter.size() > 0){
+			JsonArray nor = new fr.wseduc.webutils.collections.JsonArray();
+			for(String type : restrictionFilter.getMap().keySet()){
+				for(Object eventType : restrictionFilter.getJsonArray(type, new fr.wseduc.webutils.collections.JsonArray())){
+					nor.add(new JsonObject()
+						.put("type", type)
+						.put("event-type", eventType.toString()));
+				}
+				query.put("$nor", nor);
+			}
+		}
+	}
+
+	/**
+	 * Restricts the query to the documents sorted after the cursor with the (created desc, _id desc) order.
+	 */
+	private static void addCursorFilter(JsonObject query, JsonObject after) {
+		if (after == null || !after.containsKey("_id")) {
+			return;
+		}
+		final JsonObject created = new JsonObject().put("$date", after.getLong("created"));
+		final JsonArray or = new fr.wseduc.webutils.collections.JsonArray()
+				.add(new JsonObject().put("created", new JsonObject().put("$lt", created)))
+				.add(new JsonObject().put("created", created)
+						.put("_id", new JsonObject().put("$lt", after.getString("_id"))));
+		query.put("$and", new fr.wseduc.webutils.collections.JsonArray().add(new JsonObject().put("$or", or)));
+	}
+
+	/**
+	 * Adds the cursor of the next page to the reply, from the last document of a full page.
+	 */
+	private static void addNextCursor(JsonObject reply, JsonArray page, int limit) {
+		String next = null;
+		if ("ok".equals(reply.getString("status")) && page != null && page.size() >= limit && limit > 0) {
+			final JsonObject last = page.getJsonObject(page.size() - 1);
+			final Object created = last.getValue("created");
+			if (created instanceof JsonObject && ((JsonObject) created).getValue("$date") instanceof Number) {
+				next = encodeCursor(((JsonObject) created).getLong("$date"), last.getString("_id"));
+			}
+		}
+		reply.put("cursor", next);
+	}
+
+	private static String encodeCursor(long created, String id) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((created + ":" + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static JsonObject decodeCursor(String cursor) {
+		try {
+			final String c = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			final int i = c.indexOf(':');
+			if (i <= 0 || i == c.length() - 1) {
+				return null;
+			}
+			return new JsonObject().put("created", Long.parseLong(c.substring(0, i))).put("_id", c.substring(i + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static JsonObject eventKeys(boolean preview) {
+		JsonObject keys = new JsonObject()
+			.put("message", 1)
+			.put("params", 1)
+			.put("date", 1)
+			.put("sender", 1)
+			.put("comments", 1)
+			.put("type", 1)
+			.put("event-type", 1)
+			.put("resource", 1)
+			.put("sub-resource", 1)
+			.put("add-comment", 1)
+			.put("created", 1);
+		if (preview) {
+			keys.put("preview", 1);
+		}
+		return keys;
+	}
+
+	private void getFromInbox(final UserInfos user, List<String> types, int offset, final JsonObject after,
+			final int limit, JsonObject restrictionFilter, final String version, final Handler<JsonObject> result) {
+		final Object userIds = recipientFilter(user);
+		final JsonObject query = new JsonObject()
+				.put("userId", userIds)
+				.put("created", new JsonObject().put("$lt", MongoDb.now()));
+		addTypesFilter(query, types, restrictionFilter);
+		addCursorFilter(query, after);
+		if ("2.0".equals(version)) {
+			query.put("preview", true);
+		}
+		final JsonObject sort = new JsonObject().put("created", -1).put("_id", -1);
+		final JsonObject keys = new JsonObject().put("eventRef", 1).put("userId", 1).put("unread", 1).put("created", 1);
+		mongo.find(INBOX_COLLECTION, query, sort, keys, offset, limit, 100, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					result.handle(message.body());
+					return;
+				}
+				final Map<String, JsonObject> entries = new HashMap<>();
+				final JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
+				final JsonArray page = message.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray());
+				for (Object o : page) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject entry = (JsonObject) o;
+					entries.put(entry.getString("eventRef"), entry);
+					ids.add(entry.getString("eventRef"));
+				}
+				Handler<JsonObject> handler = result;
+				if (after != null) {
+					// the next page starts after the last inbox entry, even if its event has been filtered
+					handler = new Handler<JsonObject>() {
+						@Override
+						public void handle(JsonObject reply) {
+							addNextCursor(reply, page, limit);
+							result.handle(reply);
+						}
+					};
+				}
+				getInboxEvents(user, userIds, ids, entries, version, handler);
+			}
+		});
+	}
+
+	private void getInboxEvents(UserInfos user, Object userIds, JsonArray ids, final Map<String, JsonObject> entries,
+			String version, final Handler<JsonObject> result) {
+		if (ids.size() == 0) {
+			result.handle(new JsonObject().put("status", "ok")
+					.put("results", new fr.wseduc.webutils.collections.JsonArray()));
+			return;
+		}
+		final JsonObject query = new JsonObject()
+				.put("_id", new JsonObject().put("$in", ids))
+				.put("recipients.userId", userIds)
+				.put("deleted", new JsonObject().put("$exists", false))
+				.put("reportAction.action", new JsonObject().put("$ne", "DELETE"));
+		final JsonObject keys = eventKeys("2.0".equals(version));
+		keys.put("reporters", new JsonObject()
+				.put("$elemMatch", new JsonObject()
+					.put("userId", user.getUserId())));
+		mongo.find(TIMELINE_COLLECTION, query, new JsonObject().put("created", -1), keys, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final JsonArray results = message.body().getJsonArray("results");
+				if ("ok".equals(message.body().getString("status")) && results != null) {
+					for (Object o : results) {
+						if (!(o instanceof JsonObject)) continue;
+						final JsonObject event = (JsonObject) o;
+						final JsonObject entry = entries.get(event.getString("_id"));
+						if (entry != null) {
+							event.put("recipients", new fr.wseduc.webutils.collections.JsonArray().add(new JsonObject()
+									.put("userId", entry.getString("userId"))
+									.put("unread", entry.getInteger("unread", 0))));
+						}
+					}
+				}
+				result.handle(message.body());
+			}
+		});
+	}
+
+	private static Object recipientFilter(UserInfos user) {
+		final String externalId = user.getExternalId();
+		if (externalId == null || externalId.trim().isEmpty()) {
+			return user.getUserId();
+		}
+		return new JsonObject().put("$in", new fr.wseduc.webutils.collections.JsonArray()
+				.add(user.getUserId()).add(externalId));
+	}
+
 	@Override
 	public void deleteSubResource(String resource, Handler<JsonObject> result) {
 		if (resource != null && !resource.trim().isEmpty()) {
 			JsonObject query = new JsonObject()
 					.put("sub-resource", resource);
-			mongo.delete(TIMELINE_COLLECTION, query, resultHandler(result));
+			deleteEvents(query, resultHandler(result));
 		} else {
 			result.handle(invalidArguments());
 		}
@@ -158,6 +496,21 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 
 	@Override
 	public void listTypes(final Handler<JsonArray> result) {
+		mongo.distinct(TYPES_COLLECTION, "type", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonArray types = event.body().getJsonArray("values");
+				if ("ok".equals(event.body().getString("status")) && types != null && types.size() > 0) {
+					result.handle(types);
+				} else {
+					// registry not reconciled yet
+					listTimelineTypes(result);
+				}
+			}
+		});
+	}
+
+	private void listTimelineTypes(final Handler<JsonArray> result) {
 		mongo.distinct(TIMELINE_COLLECTION, "type", new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
@@ -170,14 +523,115 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		});
 	}
 
+	/**
+	 * Adds the type and event type to the registry the first time they are stored by this node.
+	 */
+	private void registerType(String type, String eventType) {
+		if (type == null) {
+			return;
+		}
+		final String key = typeKey(type, eventType);
+		if (!knownTypes.add(key)) {
+			return;
+		}
+		mongo.update(TYPES_COLLECTION, new JsonObject().put("_id", key), new JsonObject().put("$set", new JsonObject()
+				.put("type", type).put("event-type", eventType).put("modified", MongoDb.now())),
+				true, false, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					knownTypes.remove(key);
+					log.error("Error registering timeline type " + key + " : " + message.body().getString("message"));
+				}
+			}
+		});
+	}
+
+	private static String typeKey(String type, String eventType) {
+		return eventType != null ? type + "." + eventType : type;
+	}
+
+	/**
+	 * Rebuilds the types registry from the timeline collection, to catch the types
+	 * missed by {@link #registerType} or whose events have all been deleted.
+	 */
+	public void reconcileTypes(final Handler<Void> handler) {
+		final JsonObject reconciliationStart = MongoDb.now();
+		final JsonObject aggregation = new JsonObject()
+				.put("aggregate", TIMELINE_COLLECTION)
+				.put("allowDiskUse", true)
+				.put("pipeline", new fr.wseduc.webutils.collections.JsonArray()
+						.add(new JsonObject().put("$group", new JsonObject().put("_id", new JsonObject()
+								.put("type", "$type").put("event-type", "$event-type")))));
+		final JsonArray operations = new fr.wseduc.webutils.collections.JsonArray();
+		final Set<String> found = new HashSet<>();
+		new MongoCursor(mongo, TIMELINE_COLLECTION, MongoCursor.DEFAULT_BATCH_SIZE).read(aggregation, new Handler<JsonArray>() {
+			@Override
+			public void handle(JsonArray groups) {
+				for (Object o : groups) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject t = ((JsonObject) o).getJsonObject("_id", new JsonObject());
+					final String type = t.getString("type");
+					if (type == null) continue;
+					final String key = typeKey(type, t.getString("event-type"));
+					found.add(key);
+					knownTypes.add(key);
+					operations.add(new JsonObject()
+							.put("operation", "upsert")
+							.put("criteria", new JsonObject().put("_id", key))
+							.put("document", new JsonObject().put("$set", new JsonObject()
+									.put("type", type).put("event-type", t.getString("event-type"))
+									.put("modified", MongoDb.now()))));
+				}
+			}
+		}).setHandler(new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> ar) {
+				if (ar.failed()) {
+					log.error("Error aggregating timeline types : " + ar.cause().getMessage());
+					handler.handle(null);
+					return;
+				}
+				if (operations.size() == 0) {
+					handler.handle(null);
+					return;
+				}
+				mongo.bulk(TYPES_COLLECTION, operations, new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						if (!"ok".equals(message.body().getString("status"))) {
+							log.error("Error reconciling timeline types : " + message.body().getString("message"));
+							handler.handle(null);
+							return;
+						}
+						// types registered before the aggregation and not found by it have no more events
+						mongo.delete(TYPES_COLLECTION, new JsonObject().put("modified",
+								new JsonObject().put("$lt", reconciliationStart)), new Handler<Message<JsonObject>>() {
+							@Override
+							public void handle(Message<JsonObject> message) {
+								knownTypes.retainAll(found);
+								log.info("Timeline types reconciled : " + found.size() + " types.");
+								handler.handle(null);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
 	private JsonObject validAndGet(JsonObject json) {
 		if (json != null) {
-			JsonObject e = json.copy();
+			JsonObject e = new JsonObject();
 			for (String attr: json.fieldNames()) {
-				if (!FIELDS.contains(attr) || e.getValue(attr) == null) {
-					e.remove(attr);
+				if (FIELDS.contains(attr) && json.getValue(attr) != null) {
+					e.put(attr, json.getValue(attr));
 				}
 			}
+			e = e.copy();
+			if (!e.containsKey("recipients") && json.getJsonArray("recipientsIds") != null) {
+				e.put("recipients", expandRecipients(json.getJsonArray("recipientsIds")));
+			}
 			if (e.getMap().keySet().containsAll(REQUIRED_FIELDS)) {
 				return e;
 			}
@@ -185,6 +639,19 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		return null;
 	}
 
+	/**
+	 * Expands the compact recipients ids sent by the timeline helper.
+	 */
+	private static JsonArray expandRecipients(JsonArray recipientsIds) {
+		final JsonArray recipients = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object id : recipientsIds) {
+			if (id instanceof String) {
+				recipients.add(new JsonObject().put("userId", id).put("unread", 1));
+			}
+		}
+		return recipients;
+	}
+
 	private JsonObject invalidArguments() {
 		return new JsonObject().put("status", "error")
 				.put("message", "Invalid arguments.");
@@ -217,6 +684,12 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 					));
 			mongo.update(TIMELINE_COLLECTION, q, new JsonObject().put("$set",
 					new JsonObject().put("recipients.$.unread", 0)), false, true);
+			if (inbox) {
+				mongo.update(INBOX_COLLECTION, new JsonObject()
+						.put("eventRef", new JsonObject().put("$in", ids))
+						.put("userId", recipient).put("unread", 1),
+						new JsonObject().put("$set", new JsonObject().put("unread", 0)), false, true);
+			}
 		}
 	}
 
@@ -230,7 +703,8 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 			.put("recipients", new fr.wseduc.webutils.collections.JsonArray())
 			.put("deleted", 1));
 
-		mongo.update(TIMELINE_COLLECTION, matcher, objNew, MongoDbResult.validActionResultHandler(result));
+		mongo.update(TIMELINE_COLLECTION, matcher, objNew, deleteFromInboxAfter(
+				new JsonObject().put("eventRef", id), MongoDbResult.validActionResultHandler(result)));
 	}
 
 	@Override
@@ -243,7 +717,9 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 					.put("recipients", new JsonObject()
 						.put("userId", recipient)));
 
-		mongo.update(TIMELINE_COLLECTION, criteria, objNew, MongoDbResult.validActionResultHandler(result));
+		mongo.update(TIMELINE_COLLECTION, criteria, objNew, deleteFromInboxAfter(
+				new JsonObject().put("eventRef", id).put("userId", recipient),
+				MongoDbResult.validActionResultHandler(result)));
 	}
 
 	@Override
@@ -309,9 +785,11 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 
 		if(action == AdminAction.DELETE) {
 			objSet.put("recipients", new fr.wseduc.webutils.collections.JsonArray());
+			mongo.update(TIMELINE_COLLECTION, criteria, objNew, deleteFromInboxAfter(
+					new JsonObject().put("eventRef", id), MongoDbResult.validActionResultHandler(result)));
+		} else {
+			mongo.update(TIMELINE_COLLECTION, criteria, objNew, MongoDbResult.validActionResultHandler(result));
 		}
-
-		mongo.update(TIMELINE_COLLECTION, criteria, objNew, MongoDbResult.validActionResultHandler(result));
 	}
 
 	@Override
@@ -321,7 +799,7 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 			.put("event-type", "NOTIFY-REPORT")
 			.put("resource", resourceId);
 
-		mongo.delete(TIMELINE_COLLECTION, matcher, MongoDbResult.validActionResultHandler(result));
+		deleteEvents(matcher, MongoDbResult.validActionResultHandler(result));
 	}
 
 }
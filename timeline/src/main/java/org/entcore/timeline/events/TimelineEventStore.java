@@ -48,6 +48,14 @@ public interface TimelineEventStore {
 	void get(UserInfos recipient, List<String> types, int offset, int limit,
 			JsonObject restrictionFilter, boolean mine, String version, Handler<JsonObject> result);
 
+	/**
+	 * Keyset paginated variant of get : the page starts after the cursor returned with the previous page
+	 * (first page if the cursor is null or empty). The reply contains the cursor of the next page,
+	 * or null on the last page.
+	 */
+	void get(UserInfos recipient, List<String> types, String cursor, int limit,
+			JsonObject restrictionFilter, boolean mine, String version, Handler<JsonObject> result);
+
 	void deleteSubResource(String resource, Handler<JsonObject> result);
 
 	void listTypes(Handler<JsonArray> result);
@@ -37,6 +37,13 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static fr.wseduc.webutils.Utils.getOrElse;
 
 
@@ -130,6 +137,9 @@ public class DefaultPushNotifService extends Renders implements TimelinePushNoti
 
     private void sendUsers(final String notificationName,final JsonObject notification, final JsonArray userList, final JsonObject notificationProperties, boolean typeNotification, boolean typeData){
 
+        // tokens grouped by language, so the message is built once per language and sent by batches
+        final Map<String, List<String>> tokensByLanguage = new HashMap<>();
+        final Map<String, String> usersByToken = new HashMap<>();
         for(Object userObj : userList){
             final JsonObject userPref = ((JsonObject) userObj);
 
@@ -144,22 +154,63 @@ public class DefaultPushNotifService extends Renders implements TimelinePushNoti
                     !TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
                             notificationPreference.getString("restriction", notificationProperties.getString("restriction"))) &&
                     userPref.getJsonArray("tokens") != null && userPref.getJsonArray("tokens").size() > 0){
+                final String language = this.getUserLanguage(userPref);
+                List<String> tokens = tokensByLanguage.get(language);
+                if (tokens == null) {
+                    tokens = new ArrayList<>();
+                    tokensByLanguage.put(language, tokens);
+                }
                 for(Object token : userPref.getJsonArray("tokens")){
-                    processMessage(notification, this.getUserLanguage(userPref), typeNotification, typeData, new Handler<JsonObject>() {
-                        @Override
-                        public void handle(final JsonObject message) {
-                            try {
-                                ossFcm.sendNotifications(new JsonObject().put("message", message.put("token", (String) token)));
-                            } catch (Exception e) {
-                                log.error("[sendNotificationToUsers] Issue while sending notification (" + notificationName + ").", e);
-
+                    if (!(token instanceof String) || usersByToken.containsKey(token)) continue;
+                    tokens.add((String) token);
+                    usersByToken.put((String) token, userPref.getString("userId"));
+                }
+            }
+        }
+        for (final Map.Entry<String, List<String>> e : tokensByLanguage.entrySet()) {
+            if (e.getValue().isEmpty()) continue;
+            processMessage(notification, e.getKey(), typeNotification, typeData, new Handler<JsonObject>() {
+                @Override
+                public void handle(final JsonObject message) {
+                    try {
+                        ossFcm.sendMulticast(message, e.getValue(), new Handler<List<String>>() {
+                            @Override
+                            public void handle(List<String> invalidTokens) {
+                                pruneTokens(invalidTokens, usersByToken);
                             }
-                        }
-                    });
+                        });
+                    } catch (Exception ex) {
+                        log.error("[sendNotificationToUsers] Issue while sending notification (" + notificationName + ").", ex);
+                    }
                 }
+            });
+        }
+    }
 
+    /**
+     * Removes the tokens reported as unregistered or invalid by the provider from the users preferences.
+     */
+    private void pruneTokens(List<String> invalidTokens, Map<String, String> usersByToken) {
+        final Set<String> userIds = new HashSet<>();
+        for (String token : invalidTokens) {
+            if (usersByToken.get(token) != null) {
+                userIds.add(usersByToken.get(token));
             }
         }
+        if (userIds.isEmpty()) {
+            return;
+        }
+        NotificationUtils.deleteFcmTokens(new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(userIds)),
+                new fr.wseduc.webutils.collections.JsonArray(invalidTokens), new Handler<Either<String, JsonObject>>() {
+            @Override
+            public void handle(Either<String, JsonObject> event) {
+                if (event.isLeft()) {
+                    log.error("[pruneTokens] Issue while removing invalid tokens : " + event.left().getValue());
+                } else {
+                    log.info("[pruneTokens] " + invalidTokens.size() + " invalid tokens removed.");
+                }
+            }
+        });
     }
 
     private void sendTopic(final String notificationName,final JsonObject notification,final String topic, boolean typeNotification, boolean typeData){
@@ -23,33 +23,103 @@ import static org.entcore.common.mongodb.MongoDbResult.*;
 import org.entcore.common.service.impl.MongoDbCrudService;
 import org.entcore.timeline.services.TimelineConfigService;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
 import fr.wseduc.webutils.Either;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 public class DefaultTimelineConfigService extends MongoDbCrudService implements TimelineConfigService {
 
+	public static final String REFRESH_ADDRESS = "timeline.config.refresh";
+	private static final Logger log = LoggerFactory.getLogger(DefaultTimelineConfigService.class);
 	private Map<String, String> registeredNotifications;
+	private EventBus eb;
+	// immutable snapshots of the collection, replaced on each refresh
+	private volatile JsonArray configs;
+	private volatile Map<String, JsonObject> configsByKey = Collections.emptyMap();
 
 	public DefaultTimelineConfigService(String collection) {
 		super(collection);
 	}
 
+	/**
+	 * Loads the notifications configuration in memory and reloads it each time
+	 * a configuration is updated on any node.
+	 */
+	public void init(Vertx vertx) {
+		this.eb = vertx.eventBus();
+		eb.consumer(REFRESH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				refresh();
+			}
+		});
+		refresh();
+	}
+
+	private void refresh() {
+		listFromDb(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					log.error("Error loading timeline notifications configuration : " + event.left().getValue());
+					return;
+				}
+				final JsonArray list = event.right().getValue();
+				final Map<String, JsonObject> byKey = new HashMap<>();
+				for (Object o : list) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject notifConfig = (JsonObject) o;
+					final String key = notifConfig.getString("key", "");
+					if (!byKey.containsKey(key)) {
+						byKey.put(key, notifConfig);
+					}
+				}
+				configsByKey = Collections.unmodifiableMap(byKey);
+				configs = list;
+			}
+		});
+	}
+
 	@Override
-	public void upsert(JsonObject data, Handler<Either<String, JsonObject>> handler) {
+	public void upsert(JsonObject data, final Handler<Either<String, JsonObject>> handler) {
 		final String key = data.getString("key");
 		if(key == null){
 			handler.handle(new Either.Left<String, JsonObject>("invalid.key"));
 			return;
 		}
-		mongo.update(collection, new JsonObject().put("key", key), data, true, false, validActionResultHandler(handler));
+		mongo.update(collection, new JsonObject().put("key", key), data, true, false, validActionResultHandler(
+				new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isRight() && eb != null) {
+							eb.publish(REFRESH_ADDRESS, new JsonObject().put("key", key));
+						}
+						handler.handle(event);
+					}
+				}));
 	}
 
 	@Override
 	public void list(Handler<Either<String, JsonArray>> handler) {
+		final JsonArray list = configs;
+		if (list != null) {
+			handler.handle(new Either.Right<String, JsonArray>(list.copy()));
+		} else {
+			listFromDb(handler);
+		}
+	}
+
+	private void listFromDb(Handler<Either<String, JsonArray>> handler) {
 		JsonObject sort = new JsonObject().put("modified", -1);
 		mongo.find(collection, new JsonObject("{}"), sort, defaultListProjection, validResultsHandler(handler));
 	}
@@ -62,6 +132,10 @@ public class DefaultTimelineConfigService extends MongoDbCrudService implements
 	 */
 	@Override
 	public void getNotificationProperties(final String notificationKey, final Handler<Either<String, JsonObject>> handler) {
+		if (configs != null) {
+			handler.handle(notificationProperties(notificationKey, configsByKey));
+			return;
+		}
 		this.list(new Handler<Either<String, JsonArray>>() {
 			public void handle(Either<String, JsonArray> event) {
 				if (event.isLeft()) {
@@ -69,33 +143,37 @@ public class DefaultTimelineConfigService extends MongoDbCrudService implements
 							event.left().getValue()));
 					return;
 				}
-				final String notificationStr = registeredNotifications
-						.get(notificationKey.toLowerCase());
-				if (notificationStr == null) {
-					handler.handle(new Either.Left<String, JsonObject>(
-							"invalid.notification.key"));
-					return;
-				}
-				final JsonObject notification = new JsonObject(notificationStr);
+				final Map<String, JsonObject> byKey = new HashMap<>();
 				for (Object notifConfigObj : event.right().getValue()) {
 					JsonObject notifConfig = (JsonObject) notifConfigObj;
-					if (notifConfig.getString("key", "")
-							.equals(notificationKey.toLowerCase())) {
-						notification.put("defaultFrequency",
-								notifConfig.getString("defaultFrequency", ""));
-						notification.put("push-notif",
-								notifConfig.getBoolean("push-notif", notification.getBoolean("push-notif")));
-						notification.put("restriction",
-								notifConfig.getString("restriction", ""));
-						break;
+					if (!byKey.containsKey(notifConfig.getString("key", ""))) {
+						byKey.put(notifConfig.getString("key", ""), notifConfig);
 					}
 				}
-				handler.handle(
-						new Either.Right<String, JsonObject>(notification));
+				handler.handle(notificationProperties(notificationKey, byKey));
 			}
 		});
 	}
 
+	private Either<String, JsonObject> notificationProperties(String notificationKey, Map<String, JsonObject> byKey) {
+		final String notificationStr = registeredNotifications
+				.get(notificationKey.toLowerCase());
+		if (notificationStr == null) {
+			return new Either.Left<>("invalid.notification.key");
+		}
+		final JsonObject notification = new JsonObject(notificationStr);
+		final JsonObject notifConfig = byKey.get(notificationKey.toLowerCase());
+		if (notifConfig != null) {
+			notification.put("defaultFrequency",
+					notifConfig.getString("defaultFrequency", ""));
+			notification.put("push-notif",
+					notifConfig.getBoolean("push-notif", notification.getBoolean("push-notif")));
+			notification.put("restriction",
+					notifConfig.getString("restriction", ""));
+		}
+		return new Either.Right<>(notification);
+	}
+
 	public void setRegisteredNotifications(Map<String, String> registeredNotifications) {
 		this.registeredNotifications = registeredNotifications;
 	}
@@ -31,6 +31,7 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.shareddata.LocalMap;
 import org.entcore.common.email.EmailFactory;
 import org.entcore.common.http.request.JsonHttpServerRequest;
+import org.entcore.common.mongodb.MongoCursor;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.Neo4jResult;
 import org.entcore.common.notification.NotificationUtils;
@@ -67,6 +68,8 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 	private HashMap<String, JsonObject> lazyEventsI18n;
 	private final EmailSender emailSender;
 	private final int USERS_LIMIT;
+	private final int USERS_CONCURRENCY;
+	private final Map<String, TimelineI18n> timelineI18nCache = new HashMap<>();
 	private final MongoDb mongo = MongoDb.getInstance();
 	private final Neo4j neo4j = Neo4j.getInstance();
 
@@ -76,6 +79,7 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		EmailFactory emailFactory = new EmailFactory(this.vertx, config);
 		emailSender = emailFactory.getSender();
 		USERS_LIMIT = config.getInteger("users-loop-limit", 25);
+		USERS_CONCURRENCY = config.getInteger("users-loop-concurrency", 4);
 	}
 
 	/* Override i18n to use additional timeline translations and nested templates */
@@ -211,14 +215,7 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 
 	@Override
 	public void translateTimeline(JsonArray i18nKeys, String domain, String language, Handler<JsonArray> handler) {
-		String i18n = eventsI18n.get(language.split(",")[0].split("-")[0]);
-		final JsonObject timelineI18n;
-		if (i18n == null) {
-			timelineI18n = new JsonObject();
-		} else {
-			timelineI18n = new JsonObject("{" + i18n.substring(0, i18n.length() - 1) + "}");
-		}
-		timelineI18n.mergeIn(I18n.getInstance().load(language, domain));
+		final JsonObject timelineI18n = timelineI18n(domain, language);
 		JsonArray translations = new fr.wseduc.webutils.collections.JsonArray();
 		for(Object keyObj : i18nKeys){
 			String key = (String) keyObj;
@@ -227,6 +224,40 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		handler.handle(translations);
 	}
 
+	/**
+	 * Returns the timeline translations merged with the domain ones, parsed once per domain and language
+	 * and parsed again only when the timeline translations of the language change.
+	 */
+	private JsonObject timelineI18n(String domain, String language) {
+		final String i18n = eventsI18n.get(language.split(",")[0].split("-")[0]);
+		final String key = domain + "|" + language;
+		TimelineI18n cached = timelineI18nCache.get(key);
+		if (cached == null || !Objects.equals(cached.source, i18n)) {
+			final JsonObject timelineI18n;
+			if (i18n == null) {
+				timelineI18n = new JsonObject();
+			} else {
+				timelineI18n = new JsonObject("{" + i18n.substring(0, i18n.length() - 1) + "}");
+			}
+			timelineI18n.mergeIn(I18n.getInstance().load(language, domain));
+			cached = new TimelineI18n(i18n, timelineI18n);
+			timelineI18nCache.put(key, cached);
+		}
+		return cached.translations;
+	}
+
+	private static class TimelineI18n {
+
+		private final String source;
+		private final JsonObject translations;
+
+		private TimelineI18n(String source, JsonObject translations) {
+			this.source = source;
+			this.translations = translations;
+		}
+
+	}
+
 	@Override
 	public void processTimelineTemplate(JsonObject parameters, String resourceName,
 			String template, String domain, String scheme, String language, boolean reader, final Handler<String> handler) {
@@ -253,8 +284,6 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 	public void sendDailyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler){
 
 		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
-		final AtomicInteger endPage = new AtomicInteger(0);
 		final Calendar dayDate = Calendar.getInstance();
 		dayDate.add(Calendar.DAY_OF_MONTH, dayDelta);
 		dayDate.set(Calendar.HOUR_OF_DAY, 0);
@@ -266,157 +295,41 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 				.put("mails.sent", 0)
 				.put("users.ko", 0);
 		final JsonObject notificationsDefaults = new JsonObject();
-		final List<String> notifiedUsers = new ArrayList<>();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if(nbUsers == 0){
-						log.info("[DailyMails] Page0 : " + userPagination.get() + "/" + endPage.get());
-						continuation.handle(userPagination.get() != endPage.get());
-						return;
-					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
-
-					final Handler<Void> usersEndHandler = new Handler<Void>() {
-						public void handle(Void v) {
-							if(usersCountdown.decrementAndGet() <= 0){
-								log.info("[DailyMails] Page : " + userPagination.get() + "/" + endPage.get());
-								continuation.handle(userPagination.get() != endPage.get());
-							}
-						}
-					};
-
-					final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
-					for(Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>(){
-						public void handle(JsonArray preferences) {
-							for(Object userObj : preferences){
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
-								} catch(Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
-								}
-								final String userLanguage = mutableUserLanguage;
-
-								getUserNotifications(userPrefs.getString("userId", ""), dayDate.getTime(), new Handler<JsonArray>(){
-									public void handle(JsonArray notifications) {
-										if(notifications.size() == 0){
-											usersEndHandler.handle(null);
-											return;
-										}
 
-										SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(userLanguage));
-										final JsonArray dates = new fr.wseduc.webutils.collections.JsonArray();
-										final JsonArray templates = new fr.wseduc.webutils.collections.JsonArray();
-
-										for(Object notificationObj : notifications){
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-													notification.getString("type","").toLowerCase() + "." +
-															notification.getString("event-type", "").toLowerCase();
-											if(notificationsDefaults.getJsonObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getJsonObject("preferences", new JsonObject())
-													.getJsonObject("config", new JsonObject())
-													.getJsonObject(notificationName, new JsonObject());
-											if(TimelineNotificationsLoader.Frequencies.DAILY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))){
-												templates.add(new JsonObject()
-														.put("template", notificationsDefaults.getJsonObject(notificationName, new JsonObject()).getString("template", ""))
-														.put("params", notification.getJsonObject("params", new JsonObject())));
-												dates.add(formatter.format(MongoDb.parseIsoDate(notification.getJsonObject("date"))));
-											}
+		final UsersPageProcessor pageProcessor = new UsersPageProcessor() {
+			public void process(final JsonArray userIds, final Handler<Void> pageEndHandler) {
+				NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>(){
+					public void handle(final JsonArray preferences) {
+						getUsersNotifications(userIds, dayDate.getTime(), false, new Handler<Map<String, JsonArray>>() {
+							public void handle(Map<String, JsonArray> notificationsByUser) {
+								final AtomicInteger usersCountdown = new AtomicInteger(preferences.size());
+								final Handler<Void> usersEndHandler = new Handler<Void>() {
+									public void handle(Void v) {
+										if(usersCountdown.decrementAndGet() <= 0){
+											pageEndHandler.handle(null);
 										}
-										if(templates.size() > 0){
-											JsonObject templateParams = new JsonObject()
-													.put("nestedTemplatesArray", templates)
-													.put("notificationDates", dates);
-											processTimelineTemplate(templateParams, "", "notifications/daily-mail.html",
-													userDomain, userScheme, userLanguage, false, new Handler<String>() {
-														public void handle(final String processedTemplate) {
-															//On completion : log
-															final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
-																if(event.failed() || "error".equals(event.result().body().getString("status", "error"))){
-																	log.error("[Timeline daily emails] Error while sending mail : ", event.cause());
-																	results.put("users.ko", results.getInteger("users.ko") + 1);
-																} else {
-																	results.put("mails.sent", results.getInteger("mails.sent") + 1);
-																}
-																usersEndHandler.handle(null);
-															};
-
-															//Translate mail title
-															JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
-																	.add("timeline.daily.mail.subject.header");
-															translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-																public void handle(JsonArray translations) {
-																	//Send mail containing the "daily" notifications
-																	emailSender.sendEmail(request,
-																			userPrefs.getString("userMail", ""),
-																			null,
-																			null,
-																			translations.getString(0),
-																			processedTemplate,
-																			null,
-																			false,
-																			completionHandler);
-																}
-															});
-														}
-													});
-										} else {
-											usersEndHandler.handle(null);
-										}
-
 									}
-								});
-							}
-						}
-					});
-				}
-			};
-
-			public void handle(Boolean continuation) {
-				if(continuation){
-					getImpactedUsers(notifiedUsers, userPagination.getAndIncrement(), new Handler<Either<String,JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if(event.isLeft()){
-								log.error("[sendDailyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
+								};
+								if (preferences.size() == 0) {
+									pageEndHandler.handle(null);
+									return;
+								}
+								for(Object userObj : preferences){
+									final JsonObject userPrefs = (JsonObject) userObj;
+									final JsonArray notifications = notificationsByUser.get(userPrefs.getString("userId", ""));
+									sendDailyMail(request, userPrefs, notifications, notificationsDefaults, results, usersEndHandler);
+								}
 							}
-						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
-				}
+						});
+					}
+				});
 			}
 		};
 
 		getRecipientsUsers(dayDate.getTime(), new Handler<JsonArray>() {
 			@Override
-			public void handle(JsonArray event) {
-				if (event != null && event.size() > 0) {
-					notifiedUsers.addAll(event.getList());
-					endPage.set((event.size() / USERS_LIMIT) + (event.size() % USERS_LIMIT != 0 ? 1 : 0));
-				} else {
+			public void handle(final JsonArray event) {
+				if (event == null || event.size() == 0) {
 					handler.handle(new Either.Right<String, JsonObject>(results));
 					return;
 				}
@@ -429,7 +342,7 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 								final JsonObject notif = (JsonObject) notifObj;
 								notificationsDefaults.put(notif.getString("key", ""), notif);
 							}
-							userContinuationHandler.handle(true);
+							processUsersPages("[DailyMails]", event.getList(), pageProcessor, results, handler);
 						}
 					}
 				});
@@ -437,11 +350,89 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		});
 	}
 
+	private void sendDailyMail(final HttpServerRequest request, final JsonObject userPrefs, JsonArray notifications,
+			JsonObject notificationsDefaults, final JsonObject results, final Handler<Void> usersEndHandler) {
+		if(notifications == null || notifications.size() == 0){
+			usersEndHandler.handle(null);
+			return;
+		}
+		final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
+		final String userScheme = userPrefs.getString("lastScheme", "http");
+		final String userLanguage = userLanguage(userPrefs);
+
+		SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(userLanguage));
+		final JsonArray dates = new fr.wseduc.webutils.collections.JsonArray();
+		final JsonArray templates = new fr.wseduc.webutils.collections.JsonArray();
+
+		for(Object notificationObj : notifications){
+			JsonObject notification = (JsonObject) notificationObj;
+			final String notificationName =
+					notification.getString("type","").toLowerCase() + "." +
+							notification.getString("event-type", "").toLowerCase();
+			if(notificationsDefaults.getJsonObject(notificationName) == null)
+				continue;
+
+			JsonObject notificationPreference = userPrefs
+					.getJsonObject("preferences", new JsonObject())
+					.getJsonObject("config", new JsonObject())
+					.getJsonObject(notificationName, new JsonObject());
+			if(TimelineNotificationsLoader.Frequencies.DAILY.name().equals(
+					notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
+					!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
+					!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))){
+				templates.add(new JsonObject()
+						.put("template", notificationsDefaults.getJsonObject(notificationName, new JsonObject()).getString("template", ""))
+						.put("params", notification.getJsonObject("params", new JsonObject())));
+				dates.add(formatter.format(MongoDb.parseIsoDate(notification.getJsonObject("date"))));
+			}
+		}
+		if(templates.size() > 0){
+			JsonObject templateParams = new JsonObject()
+					.put("nestedTemplatesArray", templates)
+					.put("notificationDates", dates);
+			processTimelineTemplate(templateParams, "", "notifications/daily-mail.html",
+					userDomain, userScheme, userLanguage, false, new Handler<String>() {
+						public void handle(final String processedTemplate) {
+							//On completion : log
+							final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
+								if(event.failed() || "error".equals(event.result().body().getString("status", "error"))){
+									log.error("[Timeline daily emails] Error while sending mail : ", event.cause());
+									results.put("users.ko", results.getInteger("users.ko") + 1);
+								} else {
+									results.put("mails.sent", results.getInteger("mails.sent") + 1);
+								}
+								usersEndHandler.handle(null);
+							};
+
+							//Translate mail title
+							JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
+									.add("timeline.daily.mail.subject.header");
+							translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
+								public void handle(JsonArray translations) {
+									//Send mail containing the "daily" notifications
+									emailSender.sendEmail(request,
+											userPrefs.getString("userMail", ""),
+											null,
+											null,
+											translations.getString(0),
+											processedTemplate,
+											null,
+											false,
+											completionHandler);
+								}
+							});
+						}
+					});
+		} else {
+			usersEndHandler.handle(null);
+		}
+	}
+
 	public void sendWeeklyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler) {
 
 		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
-		final AtomicInteger endPage = new AtomicInteger(0);
 		final Calendar weekDate = Calendar.getInstance();
 		weekDate.add(Calendar.DAY_OF_MONTH, dayDelta - 6);
 		weekDate.set(Calendar.HOUR_OF_DAY, 0);
@@ -453,173 +444,41 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 				.put("mails.sent", 0)
 				.put("users.ko", 0);
 		final JsonObject notificationsDefaults = new JsonObject();
-		final List<String> notifiedUsers = new ArrayList<>();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if (nbUsers == 0) {
-						log.info("[WeeklyMails] Page0 : " + userPagination.get() + "/" + endPage.get());
-						continuation.handle(userPagination.get() != endPage.get());
-						return;
-					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
-
-					final Handler<Void> usersEndHandler = new Handler<Void>() {
-						public void handle(Void v) {
-							if (usersCountdown.decrementAndGet() <= 0) {
-								log.info("[WeeklyMails] Page : " + userPagination.get() + "/" + endPage.get());
-								continuation.handle(userPagination.get() != endPage.get());
-							}
-						}
-					};
-
-					final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
-					for (Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>() {
-						public void handle(JsonArray preferences) {
-							for (Object userObj : preferences) {
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
-								} catch (Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
-								}
-								final String userLanguage = mutableUserLanguage;
-
-								getAggregatedUserNotifications(userPrefs.getString("userId", ""), weekDate.getTime(), new Handler<JsonArray>() {
-									public void handle(JsonArray notifications) {
-										if (notifications.size() == 0) {
-											usersEndHandler.handle(null);
-											return;
-										}
 
-										final JsonArray weeklyNotifications = new fr.wseduc.webutils.collections.JsonArray();
-
-										for (Object notificationObj : notifications) {
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-													notification.getString("type", "").toLowerCase() + "." +
-															notification.getString("event-type", "").toLowerCase();
-											if (notificationsDefaults.getJsonObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getJsonObject("preferences", new JsonObject())
-													.getJsonObject("config", new JsonObject())
-													.getJsonObject(notificationName, new JsonObject());
-											if (TimelineNotificationsLoader.Frequencies.WEEKLY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))) {
-												notification.put("notificationName", notificationName);
-												weeklyNotifications.add(notification);
-											}
+		final UsersPageProcessor pageProcessor = new UsersPageProcessor() {
+			public void process(final JsonArray userIds, final Handler<Void> pageEndHandler) {
+				NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>() {
+					public void handle(final JsonArray preferences) {
+						getUsersNotifications(userIds, weekDate.getTime(), true, new Handler<Map<String, JsonArray>>() {
+							public void handle(Map<String, JsonArray> notificationsByUser) {
+								final AtomicInteger usersCountdown = new AtomicInteger(preferences.size());
+								final Handler<Void> usersEndHandler = new Handler<Void>() {
+									public void handle(Void v) {
+										if (usersCountdown.decrementAndGet() <= 0) {
+											pageEndHandler.handle(null);
 										}
-
-										final JsonObject weeklyNotificationsObj = new JsonObject();
-										final JsonArray weeklyNotificationsGroupedArray = new fr.wseduc.webutils.collections.JsonArray();
-										for (Object notif : weeklyNotifications) {
-											JsonObject notification = (JsonObject) notif;
-											if (!weeklyNotificationsObj.containsKey(notification.getString("type").toLowerCase()))
-												weeklyNotificationsObj.put(notification.getString("type").toLowerCase(), new JsonObject()
-														.put("link", notificationsDefaults
-																.getJsonObject(notification.getString("notificationName")).getString("app-address", ""))
-														.put("event-types", new fr.wseduc.webutils.collections.JsonArray()));
-											weeklyNotificationsObj
-													.getJsonObject(notification.getString("type").toLowerCase())
-													.getJsonArray(("event-types"), new fr.wseduc.webutils.collections.JsonArray())
-													.add(notification);
-										}
-
-										for (String key : weeklyNotificationsObj.getMap().keySet()) {
-											weeklyNotificationsGroupedArray.add(new JsonObject()
-													.put("type", key)
-													.put("link", weeklyNotificationsObj.getJsonObject(key).getString("link", ""))
-													.put("event-types", weeklyNotificationsObj.getJsonObject(key).getJsonArray("event-types")));
-										}
-
-										if (weeklyNotifications.size() > 0) {
-											JsonObject templateParams = new JsonObject().put("notifications", weeklyNotificationsGroupedArray);
-											processTimelineTemplate(templateParams, "", "notifications/weekly-mail.html",
-													userDomain, userScheme, userLanguage, false, new Handler<String>() {
-														public void handle(final String processedTemplate) {
-															//On completion : log
-															final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
-																if (event.failed() || "error".equals(event.result().body().getString("status", "error"))) {
-																	log.error("[Timeline weekly emails] Error while sending mail : ", event.cause());
-																	results.put("users.ko", results.getInteger("users.ko") + 1);
-																} else {
-																	results.put("mails.sent", results.getInteger("mails.sent") + 1);
-																}
-																usersEndHandler.handle(null);
-															};
-
-															//Translate mail title
-															JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
-																	.add("timeline.weekly.mail.subject.header");
-															translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-																public void handle(JsonArray translations) {
-																	//Send mail containing the "weekly" notifications
-																	emailSender.sendEmail(request,
-																			userPrefs.getString("userMail", ""),
-																			null,
-																			null,
-																			translations.getString(0),
-																			processedTemplate,
-																			null,
-																			false,
-																			completionHandler);
-																}
-															});
-														}
-													});
-										} else {
-											usersEndHandler.handle(null);
-										}
-
 									}
-								});
-							}
-						}
-					});
-				}
-			};
-
-			public void handle(Boolean continuation) {
-				if (continuation) {
-					getImpactedUsers(notifiedUsers, userPagination.getAndIncrement(), new Handler<Either<String, JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if (event.isLeft()) {
-								log.error("[sendWeeklyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
+								};
+								if (preferences.size() == 0) {
+									pageEndHandler.handle(null);
+									return;
+								}
+								for (Object userObj : preferences) {
+									final JsonObject userPrefs = (JsonObject) userObj;
+									final JsonArray notifications = notificationsByUser.get(userPrefs.getString("userId", ""));
+									sendWeeklyMail(request, userPrefs, notifications, notificationsDefaults, results, usersEndHandler);
+								}
 							}
-						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
-				}
+						});
+					}
+				});
 			}
 		};
+
 		getRecipientsUsers(weekDate.getTime(), new Handler<JsonArray>() {
 			@Override
-			public void handle(JsonArray event) {
-				if (event != null && event.size() > 0) {
-					notifiedUsers.addAll(event.getList());
-					endPage.set((event.size() / USERS_LIMIT) + (event.size() % USERS_LIMIT != 0 ? 1 : 0));
-				} else {
+			public void handle(final JsonArray event) {
+				if (event == null || event.size() == 0) {
 					handler.handle(new Either.Right<String, JsonObject>(results));
 					return;
 				}
@@ -632,7 +491,7 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 								final JsonObject notif = (JsonObject) notifObj;
 								notificationsDefaults.put(notif.getString("key", ""), notif);
 							}
-							userContinuationHandler.handle(true);
+							processUsersPages("[WeeklyMails]", event.getList(), pageProcessor, results, handler);
 						}
 					}
 				});
@@ -641,6 +500,188 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		});
 	}
 
+	private void sendWeeklyMail(final HttpServerRequest request, final JsonObject userPrefs, JsonArray notifications,
+			JsonObject notificationsDefaults, final JsonObject results, final Handler<Void> usersEndHandler) {
+		if (notifications == null || notifications.size() == 0) {
+			usersEndHandler.handle(null);
+			return;
+		}
+		final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
+		final String userScheme = userPrefs.getString("lastScheme", "http");
+		final String userLanguage = userLanguage(userPrefs);
+
+		final JsonArray weeklyNotifications = new fr.wseduc.webutils.collections.JsonArray();
+
+		for (Object notificationObj : notifications) {
+			JsonObject notification = (JsonObject) notificationObj;
+			final String notificationName =
+					notification.getString("type", "").toLowerCase() + "." +
+							notification.getString("event-type", "").toLowerCase();
+			if (notificationsDefaults.getJsonObject(notificationName) == null)
+				continue;
+
+			JsonObject notificationPreference = userPrefs
+					.getJsonObject("preferences", new JsonObject())
+					.getJsonObject("config", new JsonObject())
+					.getJsonObject(notificationName, new JsonObject());
+			if (TimelineNotificationsLoader.Frequencies.WEEKLY.name().equals(
+					notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
+					!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
+					!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))) {
+				notification.put("notificationName", notificationName);
+				weeklyNotifications.add(notification);
+			}
+		}
+
+		final JsonObject weeklyNotificationsObj = new JsonObject();
+		final JsonArray weeklyNotificationsGroupedArray = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object notif : weeklyNotifications) {
+			JsonObject notification = (JsonObject) notif;
+			if (!weeklyNotificationsObj.containsKey(notification.getString("type").toLowerCase()))
+				weeklyNotificationsObj.put(notification.getString("type").toLowerCase(), new JsonObject()
+						.put("link", notificationsDefaults
+								.getJsonObject(notification.getString("notificationName")).getString("app-address", ""))
+						.put("event-types", new fr.wseduc.webutils.collections.JsonArray()));
+			weeklyNotificationsObj
+					.getJsonObject(notification.getString("type").toLowerCase())
+					.getJsonArray(("event-types"), new fr.wseduc.webutils.collections.JsonArray())
+					.add(notification);
+		}
+
+		for (String key : weeklyNotificationsObj.getMap().keySet()) {
+			weeklyNotificationsGroupedArray.add(new JsonObject()
+					.put("type", key)
+					.put("link", weeklyNotificationsObj.getJsonObject(key).getString("link", ""))
+					.put("event-types", weeklyNotificationsObj.getJsonObject(key).getJsonArray("event-types")));
+		}
+
+		if (weeklyNotifications.size() > 0) {
+			JsonObject templateParams = new JsonObject().put("notifications", weeklyNotificationsGroupedArray);
+			processTimelineTemplate(templateParams, "", "notifications/weekly-mail.html",
+					userDomain, userScheme, userLanguage, false, new Handler<String>() {
+						public void handle(final String processedTemplate) {
+							//On completion : log
+							final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
+								if (event.failed() || "error".equals(event.result().body().getString("status", "error"))) {
+									log.error("[Timeline weekly emails] Error while sending mail : ", event.cause());
+									results.put("users.ko", results.getInteger("users.ko") + 1);
+								} else {
+									results.put("mails.sent", results.getInteger("mails.sent") + 1);
+								}
+								usersEndHandler.handle(null);
+							};
+
+							//Translate mail title
+							JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
+									.add("timeline.weekly.mail.subject.header");
+							translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
+								public void handle(JsonArray translations) {
+									//Send mail containing the "weekly" notifications
+									emailSender.sendEmail(request,
+											userPrefs.getString("userMail", ""),
+											null,
+											null,
+											translations.getString(0),
+											processedTemplate,
+											null,
+											false,
+											completionHandler);
+								}
+							});
+						}
+					});
+		} else {
+			usersEndHandler.handle(null);
+		}
+	}
+
+	private String userLanguage(JsonObject userPrefs) {
+		try {
+			return getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
+		} catch(Exception e) {
+			log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
+			return "fr";
+		}
+	}
+
+	/**
+	 * Sends the mails of a page of users and calls the end handler once all of them are processed.
+	 */
+	private interface UsersPageProcessor {
+		void process(JsonArray userIds, Handler<Void> pageEndHandler);
+	}
+
+	/**
+	 * Processes the pages of notified users with at most USERS_CONCURRENCY pages in progress.
+	 * The users per second rate is logged for each page and added to the results.
+	 */
+	private void processUsersPages(final String logPrefix, final List<String> notifiedUsers,
+			final UsersPageProcessor pageProcessor, final JsonObject results,
+			final Handler<Either<String, JsonObject>> handler) {
+		final int endPage = (notifiedUsers.size() / USERS_LIMIT) + (notifiedUsers.size() % USERS_LIMIT != 0 ? 1 : 0);
+		final int workers = Math.max(1, Math.min(USERS_CONCURRENCY, endPage));
+		final AtomicInteger userPagination = new AtomicInteger(0);
+		final AtomicInteger runningWorkers = new AtomicInteger(workers);
+		final AtomicInteger processedUsers = new AtomicInteger(0);
+		final List<String> errors = new ArrayList<>();
+		final long start = System.currentTimeMillis();
+
+		final Handler<Void> worker = new Handler<Void>() {
+			private final Handler<Void> next = this;
+
+			public void handle(Void v) {
+				final int page = userPagination.getAndIncrement();
+				if (page >= endPage || !errors.isEmpty()) {
+					if (runningWorkers.decrementAndGet() == 0) {
+						final long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+						final long usersPerSecond = processedUsers.get() * 1000l / elapsed;
+						results.put("users.processed", processedUsers.get()).put("users.per.second", usersPerSecond);
+						log.info(logPrefix + " " + processedUsers.get() + " users in " + elapsed + " ms (" +
+								usersPerSecond + " users/s)");
+						if (errors.isEmpty()) {
+							handler.handle(new Either.Right<String, JsonObject>(results));
+						} else {
+							handler.handle(new Either.Left<String, JsonObject>(errors.get(0)));
+						}
+					}
+					return;
+				}
+				getImpactedUsers(notifiedUsers, page, new Handler<Either<String, JsonArray>>() {
+					public void handle(Either<String, JsonArray> event) {
+						if (event.isLeft()) {
+							log.error(logPrefix + " Error while retrieving impacted users : " + event.left().getValue());
+							errors.add(event.left().getValue());
+							next.handle(null);
+							return;
+						}
+						final JsonArray users = event.right().getValue();
+						final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
+						for (Object userObj : users)
+							userIds.add(((JsonObject) userObj).getString("id", ""));
+						if (userIds.size() == 0) {
+							log.info(logPrefix + " Page0 : " + (page + 1) + "/" + endPage);
+							next.handle(null);
+							return;
+						}
+						pageProcessor.process(userIds, new Handler<Void>() {
+							public void handle(Void v) {
+								final int processed = processedUsers.addAndGet(userIds.size());
+								log.info(logPrefix + " Page : " + (page + 1) + "/" + endPage + " - " +
+										(processed * 1000l / Math.max(System.currentTimeMillis() - start, 1)) + " users/s");
+								next.handle(null);
+							}
+						});
+					}
+				});
+			}
+		};
+		for (int i = 0; i < workers; i++) {
+			worker.handle(null);
+		}
+	}
+
 		@Override
 	public void getNotificationsDefaults(final Handler<JsonArray> handler) {
 		configService.list(new Handler<Either<String, JsonArray>>() {
@@ -672,36 +713,6 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		});
 	}
 
-	/**
-	 * Retrieves all timeline notifications from mongodb for a single user, from a specific date in the past.
-	 *
-	 * @param userId : Userid
-	 * @param from : The starting date
-	 * @param handler : Handles the notifications
-	 */
-	private void getUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
-		JsonObject matcher = MongoQueryBuilder.build(
-				QueryBuilder
-						.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
-						.and("date").greaterThanEquals(from));
-
-		JsonObject keys = new JsonObject()
-				.put("_id", 0)
-				.put("type", 1)
-				.put("event-type", 1)
-				.put("params", 1)
-				.put("date", 1);
-		mongo.find("timeline", matcher, null, keys, new Handler<Message<JsonObject>>() {
-			public void handle(Message<JsonObject> event) {
-				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-				} else {
-					handler.handle(event.body().getJsonArray("results"));
-				}
-			}
-		});
-	}
-
 	/**
 	 * Returns either user preferences or defaults when the user has not chosen specific values.
 	 *
@@ -720,32 +731,36 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		aggregation
 				.put("aggregate", "timeline")
 				.put("allowDiskUse", true)
-				.put("pipeline", pipeline)
-				.put("cursor", new JsonObject().put("batchSize", Integer.MAX_VALUE));
+				.put("pipeline", pipeline);
 
 		JsonObject matcher = MongoQueryBuilder.build(QueryBuilder.start("date").greaterThanEquals(from));
-		JsonObject grouper = new JsonObject("{ \"_id\" : \"notifiedUsers\", \"recipients\" : {\"$addToSet\" : \"$recipients.userId\"}}");
+		// one document per recipient, read batch after batch
+		JsonObject grouper = new JsonObject().put("_id", "$recipients.userId");
 
 		pipeline.add(new JsonObject().put("$match", matcher));
 		pipeline.add(new JsonObject().put("$unwind", "$recipients"));
 		pipeline.add(new JsonObject().put("$group", grouper));
 
-		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
+		final JsonArray recipients = new fr.wseduc.webutils.collections.JsonArray();
+		new MongoCursor(mongo, "timeline", MongoCursor.DEFAULT_BATCH_SIZE).read(aggregation, new Handler<JsonArray>() {
 			@Override
-			public void handle(Message<JsonObject> event) {
-				if ("error".equals(event.body().getString("status", "error"))) {
+			public void handle(JsonArray batch) {
+				for (Object o : batch) {
+					if (o instanceof JsonObject && ((JsonObject) o).getString("_id") != null) {
+						recipients.add(((JsonObject) o).getString("_id"));
+					}
+				}
+			}
+		}).setHandler(new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> ar) {
+				if (ar.failed()) {
+					log.error("Error retrieving notified users : " + ar.cause().getMessage());
 					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
 				} else {
-					JsonArray r = event.body().getJsonObject("result", new JsonObject())
-							.getJsonObject("cursor", new JsonObject()).getJsonArray("firstBatch");
-					if (r != null && r.size() > 0) {
-						handler.handle(r.getJsonObject(0).getJsonArray("recipients", new fr.wseduc.webutils.collections.JsonArray()));
-					} else {
-						handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-					}
+					handler.handle(recipients);
 				}
 			}
-
 		});
 	}
 
@@ -776,46 +791,62 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 	}
 
 	/**
-	 * Retrieves an aggregated list of notifications from mongodb for a single user.
+	 * Retrieves the timeline notifications of a page of users from a specific date in the past,
+	 * with a single aggregation.
 	 *
-	 *  Notifications are grouped by type & event-type.
-	 * @param userId : Userid
+	 * @param userIds : Users of the page
 	 * @param from : Starting date in the past
-	 * @param handler: Handles the notifications
+	 * @param grouped : If true, notifications are grouped by type & event-type and counted
+	 * @param handler : Handles the notifications by user id
 	 */
-	private void getAggregatedUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
+	private void getUsersNotifications(JsonArray userIds, Date from, boolean grouped,
+			final Handler<Map<String, JsonArray>> handler){
 		final JsonObject aggregation = new JsonObject();
 		JsonArray pipeline = new fr.wseduc.webutils.collections.JsonArray();
 		aggregation
 				.put("aggregate", "timeline")
 				.put("allowDiskUse", true)
-				.put("pipeline", pipeline)
-				.put("cursor", new JsonObject().put("batchSize", Integer.MAX_VALUE));
+				.put("pipeline", pipeline);
 
 		JsonObject matcher = MongoQueryBuilder.build(
 				QueryBuilder
-						.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
+						.start("recipients.userId").in(userIds.getList())
 						.and("date").greaterThanEquals(from));
-		JsonObject grouper = new JsonObject("{ \"_id\" : { \"type\": \"$type\", \"event-type\": \"$event-type\"}, \"count\": { \"$sum\": 1 } }");
-		JsonObject transformer = new JsonObject("{ \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": 1, \"_id\": 0 }");
+		JsonObject recipientsMatcher = new JsonObject().put("recipients.userId",
+				new JsonObject().put("$in", userIds));
 
 		pipeline.add(new JsonObject().put("$match", matcher));
-		pipeline.add(new JsonObject().put("$group", grouper));
-		pipeline.add(new JsonObject().put("$project", transformer));
+		pipeline.add(new JsonObject().put("$unwind", "$recipients"));
+		pipeline.add(new JsonObject().put("$match", recipientsMatcher));
+		if (grouped) {
+			pipeline.add(new JsonObject().put("$group", new JsonObject(
+					"{ \"_id\" : { \"userId\": \"$recipients.userId\", \"type\": \"$type\", \"event-type\": \"$event-type\"}, \"count\": { \"$sum\": 1 } }")));
+			pipeline.add(new JsonObject().put("$group", new JsonObject(
+					"{ \"_id\" : \"$_id.userId\", \"notifications\": { \"$push\": { \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": \"$count\" } } }")));
+		} else {
+			pipeline.add(new JsonObject().put("$group", new JsonObject(
+					"{ \"_id\" : \"$recipients.userId\", \"notifications\": { \"$push\": { \"type\": \"$type\", \"event-type\": \"$event-type\", \"params\": \"$params\", \"date\": \"$date\" } } }")));
+		}
 
-		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
+		final Map<String, JsonArray> notifications = new HashMap<>();
+		new MongoCursor(mongo, "timeline", MongoCursor.DEFAULT_BATCH_SIZE).read(aggregation, new Handler<JsonArray>() {
 			@Override
-			public void handle(Message<JsonObject> event) {
-				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-				} else {
-					handler.handle(
-							event.body().getJsonObject("result", new JsonObject())
-									.getJsonObject("cursor", new JsonObject())
-									.getJsonArray("firstBatch", new fr.wseduc.webutils.collections.JsonArray()));
+			public void handle(JsonArray batch) {
+				for (Object o : batch) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject j = (JsonObject) o;
+					notifications.put(j.getString("_id"), j.getJsonArray("notifications"));
 				}
 			}
-
+		}).setHandler(new Handler<AsyncResult<Void>>() {
+			@Override
+			public void handle(AsyncResult<Void> ar) {
+				if (ar.failed()) {
+					log.error("Error retrieving users notifications : " + ar.cause().getMessage());
+					notifications.clear();
+				}
+				handler.handle(notifications);
+			}
 		});
 	}
 
@@ -86,6 +86,18 @@ public class DefaultQuotaService implements org.entcore.common.folders.QuotaServ
 		}
 	}
 
+	@Override
+	public void incrementStorage(JsonArray userIds, Long size, int threshold,
+			final Handler<Either<String, JsonArray>> handler) {
+		String query = "UNWIND {userIds} as userId " + "MATCH (u:UserBook { userid : userId}) "
+				+ "SET u.storage = u.storage + {size} "
+				+ "WITH u, u.alertSize as oldAlert "
+				+ "SET u.alertSize = ((100.0 * u.storage / u.quota) > {threshold}) "
+				+ "RETURN u.userid as id, u.storage as storage, (u.alertSize = true AND oldAlert <> u.alertSize) as notify ";
+		JsonObject params = new JsonObject().put("userIds", userIds).put("size", size).put("threshold", threshold);
+		neo4j.execute(query, params, validResultHandler(handler));
+	}
+
 	@Override
 	public void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler) {
 		incrementStorage(userId, -1l * size, threshold, handler);